@@ -0,0 +1,212 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import io.jshift.kit.build.service.docker.ImageConfiguration;
+import io.jshift.kit.build.service.docker.ImagePullManager;
+import io.jshift.kit.build.service.docker.RegistryService;
+import io.jshift.kit.build.service.docker.ServiceHub;
+import io.jshift.kit.build.service.docker.access.DockerAccess;
+import io.jshift.kit.common.KitLogger;
+import io.jshift.kit.config.image.build.BuildConfiguration;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pulls the base images of a set of images concurrently in the background, so that the
+ * network transfer overlaps with the preparation of the builds. Images are pulled with the
+ * same pull policy and registry configuration as used by the build itself.
+ * <p>
+ * The builds use the Docker connection returned by {@link #wrap(DockerAccess)}, which leaves
+ * the pull of a prefetched image to the prefetch and waits for it only when the image is sent to
+ * the daemon for building. So the assembly of the build context overlaps with the pull.
+ * <p>
+ * Base images which are built within the same set are not pulled. A failed prefetch is only
+ * logged. The pull requested by the build is then done before the image is built on top of it, so
+ * that the build reports the error of its own pull.
+ */
+public class BaseImagePrefetcher {
+
+    private static final String SCRATCH_IMAGE = "scratch";
+
+    private final ServiceHub hub;
+    private final ImagePullManager pullManager;
+    private final RegistryService.RegistryConfig registryConfig;
+    private final KitLogger log;
+    private final ExecutorService executor;
+
+    // Whether the prefetch succeeded, by base image
+    private final Map<String, CompletableFuture<Boolean>> pulls = new ConcurrentHashMap<>();
+    // Base image by image name
+    private final Map<String, String> baseImages = new ConcurrentHashMap<>();
+    // Pulls requested by the builds while the prefetch was still running, by base image
+    private final Map<String, DeferredPull> deferredPulls = new ConcurrentHashMap<>();
+
+    public BaseImagePrefetcher(ServiceHub hub, ImagePullManager pullManager,
+                               RegistryService.RegistryConfig registryConfig, KitLogger log, int threads) {
+        this.hub = hub;
+        this.pullManager = pullManager;
+        this.registryConfig = registryConfig;
+        this.log = log;
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "jshift-image-prefetch");
+            thread.setContextClassLoader(contextClassLoader);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start pulling all distinct base images of the given images
+     *
+     * @param images images whose base images should be pulled
+     */
+    public void start(List<ImageConfiguration> images) {
+        Set<String> external = getExternalBaseImages(images);
+        if (!external.isEmpty()) {
+            log.verbose("Prefetching base images %s", external);
+        }
+        for (ImageConfiguration image : images) {
+            BuildConfiguration buildConfig = image.getBuildConfiguration();
+            if (image.getName() != null && buildConfig != null && buildConfig.getFrom() != null) {
+                baseImages.put(image.getName(), buildConfig.getFrom());
+            }
+        }
+        for (String image : external) {
+            pulls.put(image, CompletableFuture.supplyAsync(() -> pull(image), executor));
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Wrap the Docker connection used by the builds. Pulls of images which are prefetched return
+     * right away, the build of an image waits until its base image has been prefetched. If the
+     * prefetch failed, the pull is done when the image is built.
+     *
+     * @param access connection to wrap
+     * @return connection to use for building
+     */
+    public DockerAccess wrap(DockerAccess access) {
+        return (DockerAccess) Proxy.newProxyInstance(DockerAccess.class.getClassLoader(), new Class<?>[] { DockerAccess.class },
+                                                     (proxy, method, args) -> invoke(access, method, args));
+    }
+
+    private Object invoke(DockerAccess access, Method method, Object[] args) throws Throwable {
+        String image = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+        if ("pullImage".equals(method.getName()) && image != null && pulls.containsKey(image)) {
+            CompletableFuture<Boolean> pull = pulls.get(image);
+            if (!pull.isDone()) {
+                // Awaited before the build, which then does this pull if the prefetch fails
+                deferredPulls.putIfAbsent(image, new DeferredPull(method, args));
+                return null;
+            }
+            if (pull.join()) {
+                return null;
+            }
+        }
+        if ("buildImage".equals(method.getName()) && image != null && baseImages.containsKey(image)) {
+            String baseImage = baseImages.get(image);
+            if (!await(baseImage)) {
+                DeferredPull pull = deferredPulls.get(baseImage);
+                if (pull != null) {
+                    pull.run(access);
+                }
+            }
+        }
+        return delegate(access, method, args);
+    }
+
+    private static Object delegate(DockerAccess access, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(access, args);
+        } catch (InvocationTargetException exp) {
+            throw exp.getCause();
+        }
+    }
+
+    // Whether the prefetch of an image succeeded, true for images which are not prefetched
+    private boolean await(String image) {
+        CompletableFuture<Boolean> pull = pulls.get(image);
+        // Never completes exceptionally, see pull()
+        return pull == null || pull.join();
+    }
+
+    /**
+     * Stop all prefetches which are still running
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private boolean pull(String image) {
+        try {
+            boolean hasImage = hub.getQueryService().hasImage(image);
+            hub.getRegistryService().pullImageWithPolicy(image, pullManager, registryConfig, hasImage);
+            return true;
+        } catch (Exception exp) {
+            log.warn("Cannot prefetch base image %s: %s", image, exp.getMessage());
+            return false;
+        }
+    }
+
+    // Distinct 'from' images which are not built as part of the given images
+    static Set<String> getExternalBaseImages(List<ImageConfiguration> images) {
+        Map<ImageConfiguration, List<ImageConfiguration>> dependencies = ImageBuildScheduler.resolveDependencies(images);
+        Set<String> ret = new LinkedHashSet<>();
+        for (Map.Entry<ImageConfiguration, List<ImageConfiguration>> entry : dependencies.entrySet()) {
+            BuildConfiguration buildConfig = entry.getKey().getBuildConfiguration();
+            if (buildConfig == null || buildConfig.getSkip() || !entry.getValue().isEmpty()) {
+                continue;
+            }
+            String from = buildConfig.getFrom();
+            if (from != null && !SCRATCH_IMAGE.equals(from)) {
+                ret.add(from);
+            }
+        }
+        return ret;
+    }
+
+    // A pull requested by the builds while the prefetch of the image was running, done once for
+    // all images built on top of it
+    private static class DeferredPull {
+        private final Method method;
+        private final Object[] args;
+        private boolean done;
+
+        private DeferredPull(Method method, Object[] args) {
+            this.method = method;
+            this.args = args;
+        }
+
+        private synchronized void run(DockerAccess access) throws Throwable {
+            if (!done) {
+                delegate(access, method, args);
+                done = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SHA-256 fingerprint over all inputs of an image build. When the fingerprint of a build
+ * equals the one stored for the last successful build, the image does not need to be rebuilt.
+ */
+public class BuildFingerprint {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+        .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true)
+        .configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+
+    private final MessageDigest digest;
+
+    public BuildFingerprint() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-256 algorithm available", e);
+        }
+    }
+
+    public BuildFingerprint add(String key, String value) {
+        update(key);
+        update(value != null ? value : "<null>");
+        return this;
+    }
+
+    public BuildFingerprint add(String key, Map<String, String> values) {
+        update(key);
+        if (values != null) {
+            for (Map.Entry<String, String> entry : new TreeMap<>(values).entrySet()) {
+                add(entry.getKey(), entry.getValue());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Add a configuration object by its JSON representation with properties sorted by name
+     *
+     * @param key key for the object
+     * @param value object to add
+     * @return this fingerprint
+     * @throws IOException if the object cannot be serialized
+     */
+    public BuildFingerprint addObject(String key, Object value) throws IOException {
+        return add(key, MAPPER.writeValueAsString(value));
+    }
+
+    /**
+     * Add the content of a file. Directories are added recursively with their entries sorted
+     * by name, so that the fingerprint does not depend on the order returned by the filesystem.
+     *
+     * @param file file or directory to add. Ignored if it does not exist.
+     * @return this fingerprint
+     * @throws IOException if a file cannot be read
+     */
+    public BuildFingerprint addFile(File file) throws IOException {
+        return addFile(file, null);
+    }
+
+    /**
+     * Add the content of a file or directory like {@link #addFile(File)}, leaving out the files
+     * and directories not accepted by a filter.
+     *
+     * @param file file or directory to add. Ignored if it does not exist.
+     * @param filter filter for the files and directories within a directory, null for all
+     * @return this fingerprint
+     * @throws IOException if a file cannot be read
+     */
+    public BuildFingerprint addFile(File file, FileFilter filter) throws IOException {
+        if (file == null || !file.exists()) {
+            return this;
+        }
+        update(file.getName());
+        if (file.isDirectory()) {
+            File[] children = filter != null ? file.listFiles(filter) : file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    addFile(child, filter);
+                }
+            }
+        } else {
+            byte[] buffer = new byte[65536];
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Get the fingerprint as hex string. No more data can be added afterwards.
+     *
+     * @return the fingerprint
+     */
+    public String get() {
+        StringBuilder ret = new StringBuilder();
+        for (byte b : digest.digest()) {
+            ret.append(String.format("%02x", b));
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Read a fingerprint stored by a previous build
+     *
+     * @param file file holding the fingerprint
+     * @return the stored fingerprint or null if none has been stored yet
+     * @throws IOException if the file cannot be read
+     */
+    public static String load(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Get the files and directories an assembly descriptor copies from the project, i.e. the
+     * directories of its file sets and the sources of its files, as given in the descriptor
+     *
+     * @param descriptor assembly descriptor
+     * @return paths of the sources, null for a file set without directory
+     * @throws IOException if the descriptor cannot be read or parsed
+     */
+    public static List<String> getAssemblySources(File descriptor) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            // Errors are reported by the exception only
+            builder.setErrorHandler(new DefaultHandler());
+            document = builder.parse(descriptor);
+        } catch (ParserConfigurationException | SAXException exp) {
+            throw new IOException("Cannot parse assembly descriptor " + descriptor + ": " + exp.getMessage(), exp);
+        }
+        List<String> ret = new ArrayList<>();
+        NodeList fileSets = document.getElementsByTagNameNS("*", "fileSet");
+        for (int i = 0; i < fileSets.getLength(); i++) {
+            ret.add(getChildText((Element) fileSets.item(i), "directory"));
+        }
+        NodeList files = document.getElementsByTagNameNS("*", "file");
+        for (int i = 0; i < files.getLength(); i++) {
+            String source = getChildText((Element) files.item(i), "source");
+            if (source != null) {
+                ret.add(source);
+            }
+        }
+        return ret;
+    }
+
+    private static String getChildText(Element element, String name) {
+        NodeList children = element.getElementsByTagNameNS("*", name);
+        if (children.getLength() == 0) {
+            return null;
+        }
+        String text = children.item(0).getTextContent().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    public static void store(File file, String fingerprint) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        Files.write(file.toPath(), fingerprint.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void update(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // Length prefix so that adjacent values can't be confused
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Report about the images built for a module: how long each build took, how large the build
+ * context and the layers are, which layers could be reused and how many bytes went over the wire.
+ * Values which the chosen build mode does not expose, like the layer sizes of a Docker daemon build,
+ * are left out.
+ * <p>
+ * The reports of all modules of a reactor build are collected into an aggregate report.
+ */
+public class BuildReport {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    // Aggregate reports are updated by modules built in parallel
+    private static final Object AGGREGATE_LOCK = new Object();
+
+    private final String module;
+    private final List<Image> images = new ArrayList<>();
+    // Jars of the build contexts linked into the content store, null if not used
+    private ObjectNode contentStore;
+
+    /**
+     * Create a report
+     *
+     * @param module module the images belong to, as groupId:artifactId
+     */
+    public BuildReport(String module) {
+        this.module = module;
+    }
+
+    public synchronized void add(Image image) {
+        images.add(image);
+    }
+
+    public synchronized boolean isEmpty() {
+        return images.isEmpty();
+    }
+
+    /**
+     * Record the jars of the build contexts which have been linked into the content store
+     *
+     * @param linkedFiles number of linked jars
+     * @param linkedBytes size of the linked jars
+     * @param storedBytes size of the linked jars whose content was stored already
+     */
+    public synchronized void setContentStore(int linkedFiles, long linkedBytes, long storedBytes) {
+        contentStore = MAPPER.createObjectNode();
+        contentStore.put("linkedFiles", linkedFiles);
+        contentStore.put("linkedBytes", linkedBytes);
+        contentStore.put("storedBytes", storedBytes);
+    }
+
+    /**
+     * Write the report as JSON
+     *
+     * @param file file to write to
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void write(File file) throws IOException {
+        writeAtomically(file, toJson());
+    }
+
+    /**
+     * Add the report of this module to an aggregate report, replacing an earlier report of this module.
+     * The aggregate is started from scratch if it has been written by a different build.
+     *
+     * @param aggregateFile aggregate report
+     * @param buildId id of the current build, like its start time
+     * @throws IOException if the aggregate cannot be read or written
+     */
+    public void addToAggregate(File aggregateFile, String buildId) throws IOException {
+        ObjectNode report;
+        synchronized (this) {
+            report = toJson();
+        }
+        synchronized (AGGREGATE_LOCK) {
+            ObjectNode aggregate = null;
+            if (aggregateFile.exists()) {
+                JsonNode existing = MAPPER.readTree(aggregateFile);
+                if (existing instanceof ObjectNode && buildId.equals(existing.path("build").asText())) {
+                    aggregate = (ObjectNode) existing;
+                }
+            }
+            if (aggregate == null) {
+                aggregate = MAPPER.createObjectNode();
+                aggregate.put("build", buildId);
+                aggregate.putObject("modules");
+            }
+            ObjectNode modules = (ObjectNode) aggregate.get("modules");
+            modules.set(module, report);
+
+            long duration = 0;
+            long imageCount = 0;
+            Long storedBytes = null;
+            for (JsonNode moduleReport : modules) {
+                duration += moduleReport.path("durationMillis").asLong();
+                imageCount += moduleReport.path("images").size();
+                if (moduleReport.has("contentStore")) {
+                    storedBytes = (storedBytes != null ? storedBytes : 0) + moduleReport.path("contentStore").path("storedBytes").asLong();
+                }
+            }
+            aggregate.put("images", imageCount);
+            aggregate.put("durationMillis", duration);
+            if (storedBytes != null) {
+                // Disk space saved by the content store over all modules
+                aggregate.put("contentStoreSavedBytes", storedBytes);
+            }
+            writeAtomically(aggregateFile, aggregate);
+        }
+    }
+
+    private ObjectNode toJson() {
+        ObjectNode ret = MAPPER.createObjectNode();
+        ret.put("module", module);
+        long duration = 0;
+        for (Image image : images) {
+            duration += image.getDurationMillis();
+        }
+        ret.put("durationMillis", duration);
+        ret.set("images", MAPPER.valueToTree(images));
+        if (contentStore != null) {
+            ret.set("contentStore", contentStore);
+        }
+        return ret;
+    }
+
+    private static void writeAtomically(File file, JsonNode content) throws IOException {
+        Path dir = file.getAbsoluteFile().getParentFile().toPath();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getName(), ".tmp");
+        try {
+            MAPPER.writeValue(tmp.toFile(), content);
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // ==============================================================================================
+
+    /**
+     * Metrics of a single image build
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Image {
+        private String name;
+        private String generator;
+        private String buildMode;
+        private boolean skipped;
+        private long durationMillis;
+        private Long contextSize;
+        private Integer baseLayers;
+        private Integer layers;
+        private Integer reusedLayers;
+        private Long baseImageSize;
+        private Long compressedLayerSize;
+        private Long uncompressedLayerSize;
+        private Long pulledBytes;
+        private Long pushedBytes;
+        private Long startupMillis;
+        private Long startupMillisWithCds;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return name of the generator which has created or customized the image configuration
+         */
+        public String getGenerator() {
+            return generator;
+        }
+
+        public void setGenerator(String generator) {
+            this.generator = generator;
+        }
+
+        /**
+         * @return how the image has been built, like "docker", "s2i" or "daemonless"
+         */
+        public String getBuildMode() {
+            return buildMode;
+        }
+
+        public void setBuildMode(String buildMode) {
+            this.buildMode = buildMode;
+        }
+
+        /**
+         * @return whether the build has been skipped because its inputs are unchanged
+         */
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        public void setSkipped(boolean skipped) {
+            this.skipped = skipped;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public void setDurationMillis(long durationMillis) {
+            this.durationMillis = durationMillis;
+        }
+
+        /**
+         * @return size of the build context archive
+         */
+        public Long getContextSize() {
+            return contextSize;
+        }
+
+        public void setContextSize(Long contextSize) {
+            this.contextSize = contextSize;
+        }
+
+        public Integer getBaseLayers() {
+            return baseLayers;
+        }
+
+        public void setBaseLayers(Integer baseLayers) {
+            this.baseLayers = baseLayers;
+        }
+
+        public Integer getLayers() {
+            return layers;
+        }
+
+        public void setLayers(Integer layers) {
+            this.layers = layers;
+        }
+
+        public Integer getReusedLayers() {
+            return reusedLayers;
+        }
+
+        public void setReusedLayers(Integer reusedLayers) {
+            this.reusedLayers = reusedLayers;
+        }
+
+        public Long getBaseImageSize() {
+            return baseImageSize;
+        }
+
+        public void setBaseImageSize(Long baseImageSize) {
+            this.baseImageSize = baseImageSize;
+        }
+
+        public Long getCompressedLayerSize() {
+            return compressedLayerSize;
+        }
+
+        public void setCompressedLayerSize(Long compressedLayerSize) {
+            this.compressedLayerSize = compressedLayerSize;
+        }
+
+        public Long getUncompressedLayerSize() {
+            return uncompressedLayerSize;
+        }
+
+        public void setUncompressedLayerSize(Long uncompressedLayerSize) {
+            this.uncompressedLayerSize = uncompressedLayerSize;
+        }
+
+        public Long getPulledBytes() {
+            return pulledBytes;
+        }
+
+        public void setPulledBytes(Long pulledBytes) {
+            this.pulledBytes = pulledBytes;
+        }
+
+        public Long getPushedBytes() {
+            return pushedBytes;
+        }
+
+        public void setPushedBytes(Long pushedBytes) {
+            this.pushedBytes = pushedBytes;
+        }
+
+        /**
+         * @return startup time of the application without class data sharing archive, as measured when training it
+         */
+        public Long getStartupMillis() {
+            return startupMillis;
+        }
+
+        public void setStartupMillis(Long startupMillis) {
+            this.startupMillis = startupMillis;
+        }
+
+        /**
+         * @return startup time of the application with the class data sharing archive of the image
+         */
+        public Long getStartupMillisWithCds() {
+            return startupMillisWithCds;
+        }
+
+        public void setStartupMillisWithCds(Long startupMillisWithCds) {
+            this.startupMillisWithCds = startupMillisWithCds;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jshift.kit.build.service.docker.access.AuthConfig;
+import io.jshift.kit.build.service.docker.auth.AuthConfigFactory;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.settings.Settings;
+import org.codehaus.plexus.PlexusContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link AuthConfigFactory} which remembers the looked up credentials for the whole Maven session,
+ * so that credential helpers are forked and settings are decrypted only once per registry and
+ * purpose (pull or push), and not for every image and goal again.
+ * <p>
+ * Credentials are kept in memory only. A credential which is a JWT is dropped shortly before it
+ * expires, any other credential after {@link #DEFAULT_TTL_MILLIS}.
+ */
+public class CachingAuthConfigFactory extends AuthConfigFactory {
+
+    static final long DEFAULT_TTL_MILLIS = 30 * 60 * 1000L;
+
+    // Safety margin so that a token does not expire while in use
+    private static final long EXPIRY_MARGIN_MILLIS = 60 * 1000L;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Caches by repository session, which is shared by all (cloned) sessions of a reactor build
+    private static final Map<Object, Map<CacheKey, CachedAuth>> SESSION_CACHES = new WeakHashMap<>();
+
+    private Map<CacheKey, CachedAuth> cache = new ConcurrentHashMap<>();
+
+    public CachingAuthConfigFactory(PlexusContainer container) {
+        super(container);
+    }
+
+    /**
+     * Use the credential cache of a session
+     *
+     * @param session current Maven session
+     */
+    public void setSession(MavenSession session) {
+        if (session != null && session.getRepositorySession() != null) {
+            synchronized (SESSION_CACHES) {
+                cache = SESSION_CACHES.computeIfAbsent(session.getRepositorySession(), k -> new ConcurrentHashMap<>());
+            }
+        }
+    }
+
+    @Override
+    public AuthConfig createAuthConfig(boolean isPush, boolean skipExtendedAuth, Map authConfig, Settings settings,
+                                       String user, String registry) throws MojoExecutionException {
+        CacheKey key = new CacheKey(isPush, skipExtendedAuth, authConfig, user, registry);
+        Map<CacheKey, CachedAuth> sessionCache = cache;
+        CachedAuth cached = sessionCache.get(key);
+        if (cached == null || cached.isExpired()) {
+            // Concurrent builds of the same module must not fork the credential helper twice
+            synchronized (sessionCache) {
+                cached = sessionCache.get(key);
+                if (cached == null || cached.isExpired()) {
+                    AuthConfig ret = super.createAuthConfig(isPush, skipExtendedAuth, authConfig, settings, user, registry);
+                    cached = new CachedAuth(ret, getExpiry(ret));
+                    sessionCache.put(key, cached);
+                }
+            }
+        }
+        return cached.authConfig;
+    }
+
+    // ==============================================================================================
+
+    private static long getExpiry(AuthConfig authConfig) {
+        long ret = System.currentTimeMillis() + DEFAULT_TTL_MILLIS;
+        if (authConfig != null) {
+            ret = Math.min(ret, getTokenExpiry(authConfig.getPassword()));
+            ret = Math.min(ret, getTokenExpiry(authConfig.getIdentityToken()));
+        }
+        return ret;
+    }
+
+    // Expiry of a JWT from its 'exp' claim, Long.MAX_VALUE if the token is not a JWT or has no expiry
+    static long getTokenExpiry(String token) {
+        if (token == null) {
+            return Long.MAX_VALUE;
+        }
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(parts[1]);
+            JsonNode exp = MAPPER.readTree(new String(payload, StandardCharsets.UTF_8)).get("exp");
+            if (exp != null && exp.canConvertToLong()) {
+                return exp.asLong() * 1000 - EXPIRY_MARGIN_MILLIS;
+            }
+        } catch (Exception exp) {
+            // Not a JWT
+        }
+        return Long.MAX_VALUE;
+    }
+
+    // Compares the full auth configuration, so that credentials are never handed out for another configuration
+    // with the same hash code
+    private static class CacheKey {
+        private final boolean isPush;
+        private final boolean skipExtendedAuth;
+        private final Map<?, ?> authConfig;
+        private final String user;
+        private final String registry;
+
+        private CacheKey(boolean isPush, boolean skipExtendedAuth, Map<?, ?> authConfig, String user, String registry) {
+            this.isPush = isPush;
+            this.skipExtendedAuth = skipExtendedAuth;
+            // Copied, since the caller may change its configuration later on
+            this.authConfig = authConfig != null ? copy(authConfig) : null;
+            this.user = user;
+            this.registry = registry;
+        }
+
+        private static Map<Object, Object> copy(Map<?, ?> map) {
+            Map<Object, Object> ret = new HashMap<>();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                Object value = entry.getValue();
+                ret.put(entry.getKey(), value instanceof Map ? copy((Map<?, ?>) value) : value);
+            }
+            return ret;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return isPush == other.isPush && skipExtendedAuth == other.skipExtendedAuth &&
+                   Objects.equals(authConfig, other.authConfig) && Objects.equals(user, other.user) &&
+                   Objects.equals(registry, other.registry);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(isPush, skipExtendedAuth, authConfig, user, registry);
+        }
+    }
+
+    private static class CachedAuth {
+        private final AuthConfig authConfig;
+        private final long expiry;
+
+        private CachedAuth(AuthConfig authConfig, long expiry) {
+            this.authConfig = authConfig;
+            this.expiry = expiry;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expiry;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import io.jshift.kit.common.KitLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Creates an application class data sharing (AppCDS) archive for an executable jar. The jar is
+ * started once in training mode with <code>-XX:ArchiveClassesAtExit</code>, which needs Java 13 or
+ * newer, and the classes loaded until the application exits are dumped into the archive. Spring Boot
+ * applications (3.2 and newer) exit right after startup because of
+ * <code>-Dspring.context.exit=onRefresh</code>, other applications can check the system property
+ * <code>jshift.cds.training</code>. Applications which keep running are stopped after a timeout.
+ * <p>
+ * The archive only matches the JDK it has been created with, so the training JDK should be the one
+ * of the base image. A JVM started with <code>-Xshare:auto</code> ignores an archive which does not
+ * match and starts as without it.
+ * <p>
+ * The archive is created again only when the jar, its dependencies or the JDK change. When the
+ * application exits on its own, the startup time with and without the archive is measured.
+ */
+public class ClassDataSharingTrainer {
+
+    /**
+     * Name of the archive in the image
+     */
+    public static final String ARCHIVE_NAME = "app-cds.jsa";
+
+    private static final String TRAINING_DIR = "training";
+    private static final String TRAINING_LOG = "training.log";
+    private static final String TRAINING_PROPERTIES = "training.properties";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String STARTUP = "startupMillis";
+    private static final String STARTUP_WITH_ARCHIVE = "startupMillisWithArchive";
+
+    private final File javaHome;
+    private final File workDir;
+    private final File layerDir;
+    private final long timeoutSeconds;
+    private final KitLogger log;
+
+    /**
+     * Result of a training
+     */
+    public static class Result {
+        private final File archive;
+        private final Long startupMillis;
+        private final Long startupMillisWithArchive;
+
+        private Result(File archive, Long startupMillis, Long startupMillisWithArchive) {
+            this.archive = archive;
+            this.startupMillis = startupMillis;
+            this.startupMillisWithArchive = startupMillisWithArchive;
+        }
+
+        public File getArchive() {
+            return archive;
+        }
+
+        /**
+         * @return startup time without the archive, null if the application did not exit on its own
+         */
+        public Long getStartupMillis() {
+            return startupMillis;
+        }
+
+        /**
+         * @return startup time with the archive, null if the application did not exit on its own
+         */
+        public Long getStartupMillisWithArchive() {
+            return startupMillisWithArchive;
+        }
+    }
+
+    /**
+     * Create a trainer
+     *
+     * @param javaHome JDK to train with
+     * @param workDir directory for the staged application and the training state
+     * @param layerDir directory to hold the archive, which is added as image layer
+     * @param timeoutSeconds time after which an application which does not exit is stopped
+     * @param log logger
+     */
+    public ClassDataSharingTrainer(File javaHome, File workDir, File layerDir, long timeoutSeconds, KitLogger log) {
+        this.javaHome = javaHome;
+        this.workDir = workDir;
+        this.layerDir = layerDir;
+        this.timeoutSeconds = timeoutSeconds;
+        this.log = log;
+    }
+
+    /**
+     * Create the archive, or reuse the one of the last training if nothing has changed
+     *
+     * @param jar executable jar of the application
+     * @param dependencies jars to put next to the application jar, as in the image
+     * @return the result or null if no archive could be created, e.g. because the JDK does not support it
+     * @throws IOException if the application cannot be staged or started
+     */
+    public Result train(File jar, List<File> dependencies) throws IOException {
+        if (!hasMainClass(jar)) {
+            log.warn("%s has no Main-Class, no class data sharing archive created", jar.getName());
+            return null;
+        }
+        File archive = new File(layerDir, ARCHIVE_NAME);
+        String fingerprint = calculateFingerprint(jar, dependencies);
+        Properties state = loadState();
+        if (archive.exists() && fingerprint.equals(state.getProperty(FINGERPRINT))) {
+            log.info("Reusing class data sharing archive %s", archive);
+            return new Result(archive, parseLong(state.getProperty(STARTUP)), parseLong(state.getProperty(STARTUP_WITH_ARCHIVE)));
+        }
+        // Never package the archive of an older application
+        Files.deleteIfExists(archive.toPath());
+        Files.deleteIfExists(new File(workDir, TRAINING_PROPERTIES).toPath());
+        Files.deleteIfExists(new File(workDir, TRAINING_LOG).toPath());
+
+        File stagedJar = stage(jar, dependencies);
+        Files.createDirectories(layerDir.toPath());
+        log.info("Training %s for a class data sharing archive", jar.getName());
+        Long training = run(stagedJar, "-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+        if (!archive.exists()) {
+            log.warn("No class data sharing archive created, the JDK %s needs to be Java 13 or newer. See %s",
+                     javaHome, new File(workDir, TRAINING_LOG));
+            return null;
+        }
+
+        // An application which had to be stopped would only run into the timeout again
+        Long startupWithArchive = null;
+        Long startup = null;
+        if (training != null) {
+            startupWithArchive = run(stagedJar, "-XX:SharedArchiveFile=" + archive.getAbsolutePath(), "-Xshare:auto");
+            startup = run(stagedJar);
+        }
+        if (startup != null && startupWithArchive != null) {
+            log.info("Startup of %s: %d ms without, %d ms with class data sharing archive",
+                     jar.getName(), startup, startupWithArchive);
+        } else {
+            log.info("Startup time not measured, %s did not exit on its own", jar.getName());
+        }
+
+        state = new Properties();
+        state.setProperty(FINGERPRINT, fingerprint);
+        if (startup != null && startupWithArchive != null) {
+            state.setProperty(STARTUP, startup.toString());
+            state.setProperty(STARTUP_WITH_ARCHIVE, startupWithArchive.toString());
+        }
+        try (OutputStream out = Files.newOutputStream(new File(workDir, TRAINING_PROPERTIES).toPath())) {
+            state.store(out, "Class data sharing training");
+        }
+        return new Result(archive, startup, startupWithArchive);
+    }
+
+    // Copy the jar with its dependencies into one directory, as laid out in the image
+    private File stage(File jar, List<File> dependencies) throws IOException {
+        File trainingDir = new File(workDir, TRAINING_DIR);
+        if (trainingDir.exists()) {
+            File[] files = trainingDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+        }
+        Files.createDirectories(trainingDir.toPath());
+        for (File dependency : dependencies) {
+            Files.copy(dependency.toPath(), new File(trainingDir, dependency.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        File ret = new File(trainingDir, jar.getName());
+        Files.copy(jar.toPath(), ret.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return ret;
+    }
+
+    // Time until the application has exited on its own, null if it had to be stopped
+    private Long run(File jar, String... jvmOptions) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(new File(javaHome, "bin"), isWindows() ? "java.exe" : "java").getAbsolutePath());
+        command.addAll(Arrays.asList(jvmOptions));
+        command.add("-Dspring.context.exit=onRefresh");
+        command.add("-Djshift.cds.training=true");
+        command.add("-jar");
+        command.add(jar.getName());
+        log.verbose("Running %s", String.join(" ", command));
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+            .directory(jar.getParentFile())
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.appendTo(new File(workDir, TRAINING_LOG)))
+            .start();
+        try {
+            if (process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            }
+            // A regular shutdown, so that the archive still gets written
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+            return null;
+        } catch (InterruptedException exp) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while training " + jar.getName(), exp);
+        }
+    }
+
+    private String calculateFingerprint(File jar, List<File> dependencies) throws IOException {
+        BuildFingerprint ret = new BuildFingerprint()
+            .add("javaHome", javaHome.getAbsolutePath())
+            .addFile(new File(javaHome, "release"))
+            .addFile(jar);
+        for (File dependency : dependencies) {
+            ret.add("dependency", dependency.getName()).addFile(dependency);
+        }
+        return ret.get();
+    }
+
+    private Properties loadState() {
+        Properties ret = new Properties();
+        File file = new File(workDir, TRAINING_PROPERTIES);
+        if (file.exists()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                ret.load(in);
+            } catch (IOException exp) {
+                // Only a cache, train again
+            }
+        }
+        return ret;
+    }
+
+    private static boolean hasMainClass(File jar) throws IOException {
+        try (JarFile jarFile = new JarFile(jar)) {
+            Manifest manifest = jarFile.getManifest();
+            return manifest != null && manifest.getMainAttributes().getValue("Main-Class") != null;
+        }
+    }
+
+    private static Long parseLong(String value) {
+        return value != null ? Long.valueOf(value) : null;
+    }
+
+    private static boolean isWindows() {
+        return System.getProperty("os.name", "").toLowerCase().contains("windows");
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Store holding files by the SHA-256 of their content, shared by all modules of a reactor.
+ * The jars in the build contexts of a module are hard linked into the store once its images are
+ * built, so that a dependency used by many modules occupies disk space only once. A jar whose
+ * content is not stored yet becomes the stored file itself, so nothing is copied. Where hard links
+ * are not possible, e.g. when the store is on another filesystem, the jar keeps its own copy. The
+ * JVM offers no reflinks, so there is no copy-on-write step in between.
+ * <p>
+ * The linked files are listed in a file of the linked directory. {@link #unlink(File)} removes
+ * exactly these files before the directory is assembled again, since the assembly would otherwise
+ * write into the stored content of all modules. Stored files not linked from anywhere else are
+ * removed along with them.
+ * <p>
+ * Hashes are cached by path, size and modification time, so that unchanged files are not read
+ * again. The cache is kept in memory for the whole session and persisted in the store.
+ */
+public class ContentAddressedStore {
+
+    static final String LINKS_FILE = ".jshift-store-links";
+
+    private static final String INDEX_FILE = "hash-index.properties";
+    private static final String BLOB_DIR = "sha256";
+
+    // One instance per store directory, shared between modules built in parallel
+    private static final Map<File, ContentAddressedStore> STORES = new ConcurrentHashMap<>();
+
+    private final File storeDir;
+    // "size|mtime|hash" by absolute path
+    private final Map<String, String> hashIndex = new ConcurrentHashMap<>();
+    private volatile boolean indexDirty;
+
+    private ContentAddressedStore(File storeDir) {
+        this.storeDir = storeDir;
+        loadIndex();
+    }
+
+    /**
+     * Get the store for a directory
+     *
+     * @param storeDir directory holding the store
+     * @return the store, created on first access
+     */
+    public static ContentAddressedStore getInstance(File storeDir) {
+        return STORES.computeIfAbsent(storeDir.getAbsoluteFile(), ContentAddressedStore::new);
+    }
+
+    public File getStoreDir() {
+        return storeDir;
+    }
+
+    /**
+     * Get the SHA-256 of a file, using the cached value if the file has not changed
+     *
+     * @param file file to hash
+     * @return hex encoded hash
+     * @throws IOException if the file cannot be read
+     */
+    public String hash(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        String stamp = file.length() + "|" + file.lastModified() + "|";
+        String cached = hashIndex.get(path);
+        if (cached != null && cached.startsWith(stamp)) {
+            return cached.substring(stamp.length());
+        }
+        String hash = calculateHash(file);
+        hashIndex.put(path, stamp + hash);
+        indexDirty = true;
+        return hash;
+    }
+
+    /**
+     * Link all jars below a directory into the store and list them in the directory, replacing the
+     * list of an earlier call
+     *
+     * @param dir directory to process
+     * @return what has been linked
+     * @throws IOException if the store cannot be updated
+     */
+    public Statistics link(File dir) throws IOException {
+        Statistics ret = new Statistics();
+        if (!dir.isDirectory()) {
+            return ret;
+        }
+        Path root = dir.toPath();
+        List<Path> jars;
+        try (Stream<Path> files = Files.walk(root)) {
+            jars = files.filter(path -> path.getFileName().toString().endsWith(".jar") &&
+                                        Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS))
+                        .collect(Collectors.toList());
+        }
+        Properties links = new Properties();
+        for (Path jar : jars) {
+            Path blob = getBlob(hash(jar.toFile())).toPath();
+            Boolean stored = link(jar, blob);
+            if (stored != null) {
+                long size = Files.size(jar);
+                links.setProperty(root.relativize(jar).toString(), blob.toAbsolutePath().toString());
+                ret.linkedFiles++;
+                ret.linkedBytes += size;
+                if (stored) {
+                    ret.storedBytes += size;
+                }
+            }
+        }
+        writeLinks(new File(dir, LINKS_FILE), links);
+        saveIndex();
+        return ret;
+    }
+
+    /**
+     * Remove the files below a directory which have been linked into a store by {@link #link(File)}.
+     * Must be called before the directory is written to again. Only files still linked to the stored
+     * file they have been linked to are removed, stored files which are no longer linked from anywhere
+     * are removed, too.
+     *
+     * @param dir directory to process
+     * @throws IOException if a file cannot be removed
+     */
+    public static void unlink(File dir) throws IOException {
+        File linksFile = new File(dir, LINKS_FILE);
+        if (!linksFile.exists()) {
+            return;
+        }
+        Properties links = new Properties();
+        try (InputStream in = Files.newInputStream(linksFile.toPath())) {
+            links.load(in);
+        }
+        for (String path : links.stringPropertyNames()) {
+            Path file = dir.toPath().resolve(path);
+            Path blob = new File(links.getProperty(path)).toPath();
+            if (Files.exists(file, LinkOption.NOFOLLOW_LINKS) && Files.exists(blob) && Files.isSameFile(file, blob)) {
+                Files.delete(file);
+                deleteIfUnused(blob);
+            }
+        }
+        Files.delete(linksFile.toPath());
+    }
+
+    /**
+     * Persist the hash cache so that it can be reused by later builds
+     *
+     * @throws IOException if the cache cannot be written
+     */
+    public synchronized void saveIndex() throws IOException {
+        if (!indexDirty) {
+            return;
+        }
+        Files.createDirectories(storeDir.toPath());
+        Properties props = new Properties();
+        props.putAll(hashIndex);
+        indexDirty = false;
+        Path tmp = Files.createTempFile(storeDir.toPath(), INDEX_FILE, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                props.store(out, "Cached SHA-256 by path: size|mtime|hash");
+            }
+            Files.move(tmp, new File(storeDir, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Link a file to the stored file of its content. True if the content was stored already, false if the
+    // file has become the stored file, null if it could not be linked and keeps its own copy.
+    private static Boolean link(Path file, Path blob) throws IOException {
+        Files.createDirectories(blob.getParent());
+        if (Files.exists(blob) && Files.isSameFile(file, blob)) {
+            // Linked by an earlier build whose images have not been rebuilt, shared if linked from elsewhere, too
+            return getLinkCount(blob) > 2;
+        }
+        try {
+            Files.createLink(blob, file);
+            blob.toFile().setWritable(false, false);
+            return false;
+        } catch (FileAlreadyExistsException exp) {
+            // Stored already, maybe by a module built at the same time
+        } catch (IOException | UnsupportedOperationException exp) {
+            return null;
+        }
+        Path tmp = file.resolveSibling("." + file.getFileName() + ".link");
+        try {
+            Files.deleteIfExists(tmp);
+            Files.createLink(tmp, blob);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException | UnsupportedOperationException exp) {
+            // Removed meanwhile as unused, or no hard links possible
+            Files.deleteIfExists(tmp);
+            return null;
+        }
+    }
+
+    // Stored files are only kept while linked from a build context. Without the link count of a
+    // unix filesystem they are always kept.
+    private static void deleteIfUnused(Path blob) throws IOException {
+        if (getLinkCount(blob) == 1) {
+            Files.deleteIfExists(blob);
+        }
+    }
+
+    // Number of hard links of a file, -1 if unknown
+    private static int getLinkCount(Path file) throws IOException {
+        try {
+            Object linkCount = Files.getAttribute(file, "unix:nlink");
+            return linkCount instanceof Number ? ((Number) linkCount).intValue() : -1;
+        } catch (UnsupportedOperationException | IllegalArgumentException exp) {
+            return -1;
+        }
+    }
+
+    private static void writeLinks(File linksFile, Properties links) throws IOException {
+        Path tmp = Files.createTempFile(linksFile.getParentFile().toPath(), LINKS_FILE, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                links.store(out, "Files linked into a content store, removed before the next assembly");
+            }
+            Files.move(tmp, linksFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void loadIndex() {
+        File index = new File(storeDir, INDEX_FILE);
+        if (index.exists()) {
+            Properties props = new Properties();
+            try (InputStream in = Files.newInputStream(index.toPath())) {
+                props.load(in);
+                for (String key : props.stringPropertyNames()) {
+                    hashIndex.put(key, props.getProperty(key));
+                }
+            } catch (IOException exp) {
+                // Only a cache, start with an empty one
+                hashIndex.clear();
+            }
+        }
+    }
+
+    private File getBlob(String hash) {
+        return new File(new File(new File(storeDir, BLOB_DIR), hash.substring(0, 2)), hash);
+    }
+
+    private static String calculateHash(File file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[65536];
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+                while (in.read(buffer) >= 0) {
+                    // just read for digesting
+                }
+            }
+            StringBuilder ret = new StringBuilder();
+            for (byte b : digest.digest()) {
+                ret.append(String.format("%02x", b));
+            }
+            return ret.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-256 algorithm available", e);
+        }
+    }
+
+    // ==============================================================================================
+
+    /**
+     * What has been linked into the store for a directory
+     */
+    public static class Statistics {
+        private int linkedFiles;
+        private long linkedBytes;
+        private long storedBytes;
+
+        /**
+         * @return number of jars linked into the store
+         */
+        public int getLinkedFiles() {
+            return linkedFiles;
+        }
+
+        /**
+         * @return size of the jars linked into the store
+         */
+        public long getLinkedBytes() {
+            return linkedBytes;
+        }
+
+        /**
+         * @return size of the linked jars whose content was stored already, which is the disk space saved
+         */
+        public long getStoredBytes() {
+            return storedBytes;
+        }
+    }
+}
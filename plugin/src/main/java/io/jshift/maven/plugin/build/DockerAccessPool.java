@@ -0,0 +1,184 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import io.jshift.kit.build.service.docker.DockerAccessFactory;
+import io.jshift.kit.build.service.docker.access.DockerAccess;
+import io.jshift.kit.config.service.JshiftServiceHub;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Docker connections and service hubs shared by all goals and modules of a Maven session, so that
+ * the client is bootstrapped and the TLS handshake is done only once per Docker host. Connections
+ * are created lazily on first use and kept per host, certificates, API version and pool size.
+ * <p>
+ * The connections are closed when the session ends, also when modules have been skipped after a
+ * failure. For this the execution listener of the session is wrapped when the first connection is
+ * created, so the plugin doesn't need to be loaded as extension. As extension the connections are
+ * also closed by {@link DockerAccessLifecycleParticipant}, and in any case when the JVM exits.
+ */
+public class DockerAccessPool {
+
+    private static final String DOCKER_HOST_ADDRESS = "docker.host.address";
+
+    // Pools by repository session, which is shared by all (cloned) sessions of a reactor build. Entries are
+    // held strongly, so that every pool is shut down before it is dropped.
+    private static final Map<Object, SessionPool> SESSION_POOLS = new HashMap<>();
+
+    private static boolean shutdownHookRegistered;
+
+    private DockerAccessPool() { }
+
+    /**
+     * Get the Docker connection for a context, creating it when not yet used in this session.
+     * The returned connection must not be shut down by the caller.
+     *
+     * @param session current Maven session
+     * @param project project using the connection, gets the Docker host address property set
+     * @param factory factory for creating a new connection
+     * @param context connection parameters
+     * @return shared connection
+     * @throws MojoExecutionException if the connection cannot be created
+     * @throws MojoFailureException if the Docker host cannot be determined
+     */
+    public static DockerAccess getDockerAccess(MavenSession session, MavenProject project, DockerAccessFactory factory,
+                                               DockerAccessFactory.DockerAccessContext context)
+        throws MojoExecutionException, MojoFailureException {
+        SessionPool pool = getPool(session);
+        String key = context.getDockerHost() + "|" + context.getCertPath() + "|" + context.getMinimalApiVersion() +
+                     "|" + context.getMaxConnections();
+        PooledAccess pooled;
+        synchronized (pool) {
+            pooled = pool.accesses.get(key);
+            if (pooled == null) {
+                DockerAccess access = factory.createDockerAccess(context);
+                pooled = new PooledAccess(access, project.getProperties().getProperty(DOCKER_HOST_ADDRESS));
+                pool.accesses.put(key, pooled);
+            }
+        }
+        // The factory sets the host address only for the project which created the connection
+        if (pooled.hostAddress != null && project.getProperties().getProperty(DOCKER_HOST_ADDRESS) == null) {
+            project.getProperties().setProperty(DOCKER_HOST_ADDRESS, pooled.hostAddress);
+        }
+        return pooled.access;
+    }
+
+    /**
+     * Get the service hub for a key, creating it when not yet used in this session
+     *
+     * @param session current Maven session
+     * @param key key covering everything the hub is created from
+     * @param factory creates the hub
+     * @return shared service hub
+     */
+    public static JshiftServiceHub getJshiftServiceHub(MavenSession session, String key, Supplier<JshiftServiceHub> factory) {
+        SessionPool pool = getPool(session);
+        synchronized (pool) {
+            return pool.serviceHubs.computeIfAbsent(key, k -> factory.get());
+        }
+    }
+
+    /**
+     * Shut down all connections of a session
+     *
+     * @param session session which has ended
+     */
+    public static void close(MavenSession session) {
+        SessionPool pool;
+        synchronized (SESSION_POOLS) {
+            pool = SESSION_POOLS.remove(getPoolKey(session));
+        }
+        if (pool != null) {
+            shutdown(pool);
+        }
+    }
+
+    private static SessionPool getPool(MavenSession session) {
+        synchronized (SESSION_POOLS) {
+            if (!shutdownHookRegistered) {
+                Runtime.getRuntime().addShutdownHook(new Thread(DockerAccessPool::closeAll, "jshift-docker-access-shutdown"));
+                shutdownHookRegistered = true;
+            }
+            SessionPool pool = SESSION_POOLS.get(getPoolKey(session));
+            if (pool == null) {
+                pool = new SessionPool();
+                SESSION_POOLS.put(getPoolKey(session), pool);
+                closeOnSessionEnd(session);
+            }
+            return pool;
+        }
+    }
+
+    // The listener is looked up from the request when the session ends, and the request is shared by the
+    // sessions cloned for the modules of a parallel build
+    private static void closeOnSessionEnd(MavenSession session) {
+        MavenExecutionRequest request = session.getRequest();
+        if (request != null && !(request.getExecutionListener() instanceof SessionEndListener)) {
+            request.setExecutionListener(new SessionEndListener(request.getExecutionListener(), () -> close(session)));
+        }
+    }
+
+    // Without repository session (e.g. in embedded use) connections are kept for the JVM
+    private static Object getPoolKey(MavenSession session) {
+        return session.getRepositorySession() != null ? session.getRepositorySession() : DockerAccessPool.class;
+    }
+
+    private static void closeAll() {
+        List<SessionPool> pools;
+        synchronized (SESSION_POOLS) {
+            pools = new ArrayList<>(SESSION_POOLS.values());
+            SESSION_POOLS.clear();
+        }
+        for (SessionPool pool : pools) {
+            shutdown(pool);
+        }
+    }
+
+    private static void shutdown(SessionPool pool) {
+        synchronized (pool) {
+            for (PooledAccess pooled : pool.accesses.values()) {
+                pooled.access.shutdown();
+            }
+            pool.accesses.clear();
+            pool.serviceHubs.clear();
+        }
+    }
+
+    private static class SessionPool {
+        private final Map<String, PooledAccess> accesses = new HashMap<>();
+        private final Map<String, JshiftServiceHub> serviceHubs = new HashMap<>();
+    }
+
+    private static class PooledAccess {
+        private final DockerAccess access;
+        private final String hostAddress;
+
+        private PooledAccess(DockerAccess access, String hostAddress) {
+            this.access = access;
+            this.hostAddress = hostAddress;
+        }
+    }
+}
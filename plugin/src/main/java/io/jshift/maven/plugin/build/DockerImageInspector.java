@@ -0,0 +1,135 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import io.jshift.kit.common.KitLogger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Looks up the full id of a local image with the <code>docker</code> command line client. The
+ * Docker connection only returns the first 12 characters of an id, which is not enough to compare
+ * it with the digest of an image configuration in a registry.
+ * <p>
+ * The client connects to the same daemon as the build, the host and certificates configured for
+ * the plugin are passed on as <code>DOCKER_HOST</code> and <code>DOCKER_CERT_PATH</code>.
+ */
+public class DockerImageInspector {
+
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private static final Pattern IMAGE_ID = Pattern.compile("sha256:[0-9a-f]{64}");
+
+    private final String dockerHost;
+    private final String certPath;
+    private final KitLogger log;
+
+    /**
+     * Create an inspector
+     *
+     * @param dockerHost Docker host as configured, null for the client's default
+     * @param certPath directory holding the TLS certificates, null for none
+     * @param log logger
+     */
+    public DockerImageInspector(String dockerHost, String certPath, KitLogger log) {
+        this.dockerHost = dockerHost;
+        this.certPath = certPath;
+        this.log = log;
+    }
+
+    /**
+     * Get the full id of a local image
+     *
+     * @param image name of the image
+     * @return the id including the algorithm, like <code>sha256:...</code>, or null if there is no such image
+     * @throws IOException if the client cannot be run or fails
+     */
+    public String getImageId(String image) throws IOException {
+        List<String> command = Arrays.asList(isWindows() ? "docker.exe" : "docker", "image", "inspect", "--format", "{{.Id}}", image);
+        log.verbose("Running %s", String.join(" ", command));
+
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        Map<String, String> env = builder.environment();
+        if (dockerHost != null) {
+            env.put("DOCKER_HOST", dockerHost);
+        }
+        if (certPath != null) {
+            env.put("DOCKER_CERT_PATH", certPath);
+            env.put("DOCKER_TLS_VERIFY", "1");
+        }
+        Process process = builder.start();
+        List<String> output = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.add(line);
+            }
+        }
+        try {
+            if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("docker did not finish within " + TIMEOUT_SECONDS + " seconds");
+            }
+        } catch (InterruptedException exp) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running docker", exp);
+        }
+        return parseImageId(process.exitValue(), output);
+    }
+
+    // The output of 'docker image inspect --format {{.Id}}': the id on success, an error message
+    // containing "No such image" for a missing image
+    static String parseImageId(int exitValue, List<String> output) throws IOException {
+        String text = String.join("\n", output).trim();
+        if (exitValue != 0) {
+            if (text.toLowerCase().contains("no such image")) {
+                return null;
+            }
+            throw new IOException("docker failed with exit code " + exitValue + ": " + text);
+        }
+        if (!IMAGE_ID.matcher(text).matches()) {
+            throw new IOException("Unexpected image id '" + text + "'");
+        }
+        return text;
+    }
+
+    /**
+     * Check whether a local image is the image referenced by a manifest in a registry. The id of an
+     * image is the digest of its configuration, so both have to be equal. An id shortened by the
+     * Docker connection never matches.
+     *
+     * @param imageId full id of the local image
+     * @param configDigest digest of the image configuration referenced by the manifest
+     * @return true if both are the same image
+     */
+    public static boolean isSameImage(String imageId, String configDigest) {
+        return imageId != null && IMAGE_ID.matcher(imageId).matches() && imageId.equals(configDigest);
+    }
+
+    private static boolean isWindows() {
+        return System.getProperty("os.name", "").toLowerCase().contains("windows");
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import io.jshift.kit.build.service.docker.ImageConfiguration;
+import io.jshift.kit.common.KitLogger;
+import io.jshift.kit.config.image.build.BuildConfiguration;
+import io.jshift.maven.plugin.trace.Tracer;
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds a set of images concurrently while respecting the dependencies between them.
+ * An image depends on another image of the same set when its <code>from</code> refers
+ * to the name or alias of that image. Independent images are built in parallel, and a
+ * dependent image is started as soon as its base image has been built.
+ */
+public class ImageBuildScheduler {
+
+    /**
+     * Callback for building a single image
+     */
+    @FunctionalInterface
+    public interface ImageBuildTask {
+        void build(ImageConfiguration imageConfig) throws Exception;
+    }
+
+    private final int threads;
+    private final KitLogger log;
+
+    public ImageBuildScheduler(int threads, KitLogger log) {
+        this.threads = Math.max(1, threads);
+        this.log = log;
+    }
+
+    /**
+     * Build all given images, blocking until every build has finished.
+     *
+     * @param images images to build
+     * @param task the task to call for each image
+     * @throws MojoExecutionException if a build fails or the dependencies between the images form a cycle
+     */
+    public void build(List<ImageConfiguration> images, ImageBuildTask task) throws MojoExecutionException {
+        Map<ImageConfiguration, List<ImageConfiguration>> dependencies = resolveDependencies(images);
+        List<ImageConfiguration> ordered = sortTopologically(dependencies);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, images.size()), new BuildThreadFactory());
+        try {
+            Map<ImageConfiguration, CompletableFuture<Void>> futures = new HashMap<>();
+            for (ImageConfiguration image : ordered) {
+                List<CompletableFuture<Void>> baseFutures = new ArrayList<>();
+                for (ImageConfiguration base : dependencies.get(image)) {
+                    baseFutures.add(futures.get(base));
+                }
+                CompletableFuture<Void> future =
+                    CompletableFuture.allOf(baseFutures.toArray(new CompletableFuture[0]))
+                                     .thenRunAsync(Tracer.wrap(() -> runTask(task, image)), executor);
+                futures.put(image, future);
+            }
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException exp) {
+            Throwable cause = unwrap(exp);
+            if (cause instanceof MojoExecutionException) {
+                throw (MojoExecutionException) cause;
+            }
+            throw new MojoExecutionException("Failed to execute the build: " + cause.getMessage(), cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Calculate for every image the images of the same set it is based on.
+     *
+     * @param images images to examine
+     * @return map from image to the images it depends on, in the order of the given images
+     */
+    static Map<ImageConfiguration, List<ImageConfiguration>> resolveDependencies(List<ImageConfiguration> images) {
+        Map<String, ImageConfiguration> byReference = new HashMap<>();
+        for (ImageConfiguration image : images) {
+            byReference.put(normalizeReference(image.getName()), image);
+            if (image.getAlias() != null) {
+                byReference.put(image.getAlias(), image);
+            }
+        }
+
+        Map<ImageConfiguration, List<ImageConfiguration>> ret = new LinkedHashMap<>();
+        for (ImageConfiguration image : images) {
+            List<ImageConfiguration> bases = new ArrayList<>();
+            BuildConfiguration buildConfig = image.getBuildConfiguration();
+            if (buildConfig != null && buildConfig.getFrom() != null) {
+                String from = buildConfig.getFrom();
+                ImageConfiguration base = byReference.get(normalizeReference(from));
+                if (base == null) {
+                    base = byReference.get(from);
+                }
+                if (base != null && base != image) {
+                    bases.add(base);
+                }
+            }
+            ret.put(image, bases);
+        }
+        return ret;
+    }
+
+    // Add the implicit 'latest' tag so that 'user/image' and 'user/image:latest' match
+    static String normalizeReference(String reference) {
+        if (reference == null) {
+            return null;
+        }
+        if (reference.contains("@")) {
+            return reference;
+        }
+        int lastSlash = reference.lastIndexOf('/');
+        return reference.indexOf(':', lastSlash + 1) < 0 ? reference + ":latest" : reference;
+    }
+
+    private List<ImageConfiguration> sortTopologically(Map<ImageConfiguration, List<ImageConfiguration>> dependencies)
+        throws MojoExecutionException {
+        List<ImageConfiguration> ret = new ArrayList<>();
+        Map<ImageConfiguration, Boolean> visiting = new HashMap<>();
+        for (ImageConfiguration image : dependencies.keySet()) {
+            visit(image, dependencies, visiting, ret);
+        }
+        return ret;
+    }
+
+    private void visit(ImageConfiguration image, Map<ImageConfiguration, List<ImageConfiguration>> dependencies,
+                       Map<ImageConfiguration, Boolean> visiting, List<ImageConfiguration> ret) throws MojoExecutionException {
+        Boolean state = visiting.get(image);
+        if (Boolean.FALSE.equals(state)) {
+            return;
+        }
+        if (Boolean.TRUE.equals(state)) {
+            throw new MojoExecutionException(
+                String.format("Cyclic 'from' dependency detected between images involving %s", image.getDescription()));
+        }
+        visiting.put(image, Boolean.TRUE);
+        for (ImageConfiguration base : dependencies.get(image)) {
+            visit(base, dependencies, visiting, ret);
+        }
+        visiting.put(image, Boolean.FALSE);
+        ret.add(image);
+    }
+
+    private void runTask(ImageBuildTask task, ImageConfiguration image) {
+        try {
+            log.verbose("%s : Starting build on %s", image.getDescription(), Thread.currentThread().getName());
+            task.build(image);
+        } catch (Exception exp) {
+            throw new CompletionException(exp);
+        }
+    }
+
+    private Throwable unwrap(Throwable exp) {
+        Throwable ret = exp;
+        while (ret instanceof CompletionException && ret.getCause() != null) {
+            ret = ret.getCause();
+        }
+        return ret;
+    }
+
+    // Threads need the plugin's class loader for looking up services
+    private static class BuildThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "jshift-image-build-" + counter.incrementAndGet());
+            thread.setContextClassLoader(contextClassLoader);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import io.jshift.kit.config.image.build.Arguments;
+import io.jshift.kit.config.image.build.AssemblyConfiguration;
+import io.jshift.kit.config.image.build.BuildConfiguration;
+import io.jshift.kit.config.image.build.HealthCheckConfiguration;
+import io.jshift.kit.config.image.build.HealthCheckMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Creates a Dockerfile for an image using one of the layered assembly descriptors. Every
+ * layer directory of the assembly is copied in its own step, so that the dependency layers
+ * stay cached as long as only the application changes. All other instructions are created from
+ * the build configuration like for a Dockerfile generated by the build service. Build args are
+ * passed by the build service and need no declaration.
+ */
+public class LayeredDockerFile {
+
+    public static final String DEPENDENCIES_LAYER = "dependencies";
+    public static final String SNAPSHOT_DEPENDENCIES_LAYER = "snapshot-dependencies";
+    public static final String APPLICATION_LAYER = "application";
+    // Class data sharing archive, which changes with the application
+    public static final String CDS_LAYER = "cds";
+
+    private static final String DEFAULT_ASSEMBLY_NAME = "maven";
+    private static final String DEFAULT_TARGET_DIR = "/maven";
+
+    // Location of the runtime created with jlink in the build stage and in the image
+    private static final String JLINK_STAGE = "jlink";
+    private static final String JLINK_RUNTIME_DIR = "/opt/java";
+
+    /**
+     * Java runtime trimmed with jlink to the modules the application needs, created in a build stage
+     */
+    public static class JlinkRuntime {
+        private final String jdkImage;
+        private final String baseImage;
+        private final List<String> modules;
+        private final String jar;
+        private final String mainClass;
+
+        /**
+         * @param jdkImage image with a JDK providing jlink, should have the Java version of the original base image
+         * @param baseImage slim image without Java, the runtime is copied into
+         * @param modules JDK modules to include
+         * @param jar file name of the executable application jar within the target directory, started
+         *            with <code>-jar</code>. Null for starting the main class instead.
+         * @param mainClass main class to start with all jars of the target directory on the class
+         *                  path, only used without jar
+         */
+        public JlinkRuntime(String jdkImage, String baseImage, List<String> modules, String jar, String mainClass) {
+            this.jdkImage = jdkImage;
+            this.baseImage = baseImage;
+            this.modules = modules;
+            this.jar = jar;
+            this.mainClass = mainClass;
+        }
+    }
+
+    // Descriptors which have a layered counterpart
+    private static final Map<String, String> LAYERED_DESCRIPTOR_REFS = new HashMap<>();
+    static {
+        LAYERED_DESCRIPTOR_REFS.put("artifact-with-dependencies", "artifact-with-dependencies-layered");
+        LAYERED_DESCRIPTOR_REFS.put("hawt-app", "hawt-app-layered");
+    }
+
+    private LayeredDockerFile() { }
+
+    /**
+     * Get the layered variant of an assembly descriptor
+     *
+     * @param descriptorRef descriptor reference used by the image
+     * @return the layered descriptor reference or null if there is no layered variant
+     */
+    public static String getLayeredDescriptorRef(String descriptorRef) {
+        return descriptorRef != null ? LAYERED_DESCRIPTOR_REFS.get(descriptorRef) : null;
+    }
+
+    /**
+     * Get the directory in the image into which the layers are copied
+     *
+     * @param assembly assembly of the image
+     * @return target directory of the assembly
+     */
+    public static String getTargetDir(AssemblyConfiguration assembly) {
+        return assembly != null && assembly.getTargetDir() != null ? assembly.getTargetDir() : DEFAULT_TARGET_DIR;
+    }
+
+    /**
+     * Check whether a jar can be started with <code>java -jar</code> in the flat layout of the layered
+     * assemblies, i.e. it has a main class and its class path only refers to jars next to it
+     *
+     * @param jar jar to check
+     * @return true if the manifest has a <code>Main-Class</code> and a flat <code>Class-Path</code>
+     * @throws IOException if the jar cannot be read
+     */
+    public static boolean isFlatExecutableJar(File jar) throws IOException {
+        try (JarFile jarFile = new JarFile(jar)) {
+            Manifest manifest = jarFile.getManifest();
+            if (manifest == null || manifest.getMainAttributes().getValue("Main-Class") == null) {
+                return false;
+            }
+            String classPath = manifest.getMainAttributes().getValue("Class-Path");
+            if (classPath != null) {
+                for (String entry : classPath.trim().split("\\s+")) {
+                    if (entry.contains("/")) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Create the Dockerfile content for a build configuration
+     *
+     * @param buildConfig the build configuration as created by a generator
+     * @param layers layer directories to copy, in this order. Empty layers must not be given since
+     *               a <code>COPY</code> of a non existing directory fails.
+     * @return content of the Dockerfile
+     */
+    public static String create(BuildConfiguration buildConfig, List<String> layers) {
+        return create(buildConfig, layers, null);
+    }
+
+    /**
+     * Create the Dockerfile content for a build configuration, optionally with a trimmed Java runtime.
+     * With a runtime, the image is based on the slim base image of the runtime and starts the
+     * application with it, since the start scripts of the original base image are not available.
+     *
+     * @param buildConfig build configuration using a layered assembly
+     * @param layers layer directories to copy, in this order
+     * @param runtime runtime to create with jlink or null for using the Java of the base image
+     * @return content of the Dockerfile
+     */
+    public static String create(BuildConfiguration buildConfig, List<String> layers, JlinkRuntime runtime) {
+        AssemblyConfiguration assembly = buildConfig.getAssemblyConfiguration();
+        String assemblyName = assembly.getName() != null ? assembly.getName() : DEFAULT_ASSEMBLY_NAME;
+        String targetDir = getTargetDir(assembly);
+
+        StringBuilder ret = new StringBuilder();
+        if (runtime != null) {
+            ret.append("FROM ").append(runtime.jdkImage).append(" AS ").append(JLINK_STAGE).append("\n");
+            ret.append("RUN jlink --add-modules ").append(String.join(",", runtime.modules))
+               .append(" --strip-debug --no-man-pages --no-header-files --output /runtime\n");
+            ret.append("FROM ").append(runtime.baseImage).append("\n");
+            ret.append("COPY --from=").append(JLINK_STAGE).append(" /runtime ").append(JLINK_RUNTIME_DIR).append("\n");
+            ret.append("ENV JAVA_HOME=\"").append(JLINK_RUNTIME_DIR).append("\" PATH=\"")
+               .append(JLINK_RUNTIME_DIR).append("/bin:$PATH\"\n");
+        } else {
+            ret.append("FROM ").append(buildConfig.getFrom()).append("\n");
+        }
+        if (buildConfig.getMaintainer() != null) {
+            ret.append("MAINTAINER ").append(buildConfig.getMaintainer()).append("\n");
+        }
+        appendKeyValues(ret, "ENV", buildConfig.getEnv());
+        appendKeyValues(ret, "LABEL", buildConfig.getLabels());
+        if (buildConfig.getPorts() != null) {
+            for (String port : buildConfig.getPorts()) {
+                ret.append("EXPOSE ").append(port).append("\n");
+            }
+        }
+        // The assembly user has the form user[:group[:runUser]] like for the kit's Dockerfile
+        String[] userParts = assembly.getUser() != null ? assembly.getUser().split(":") : new String[0];
+        String chown = userParts.length > 0 ?
+            "--chown=" + (userParts.length > 1 ? userParts[0] + ":" + userParts[1] : userParts[0]) + " " : "";
+        for (String layer : layers) {
+            ret.append("COPY ").append(chown)
+               .append(assemblyName).append("/").append(layer).append("/ ")
+               .append(targetDir).append("/\n");
+        }
+        if (userParts.length > 2) {
+            ret.append("USER ").append(userParts[2]).append("\n");
+        }
+        if (buildConfig.getWorkdir() != null) {
+            ret.append("WORKDIR ").append(buildConfig.getWorkdir()).append("\n");
+        }
+        if (buildConfig.getShell() != null) {
+            appendExecForm(ret.append("SHELL "), getExec(buildConfig.getShell())).append("\n");
+        }
+        appendRunCommands(ret, buildConfig.getRunCmds(), Boolean.TRUE.equals(buildConfig.getOptimise()));
+        if (buildConfig.getVolumes() != null && !buildConfig.getVolumes().isEmpty()) {
+            appendExecForm(ret.append("VOLUME "), buildConfig.getVolumes()).append("\n");
+        }
+        appendHealthCheck(ret, buildConfig.getHealthCheck());
+        // Like for a generated Dockerfile, run commands as root and switch the user afterwards
+        if (buildConfig.getUser() != null) {
+            ret.append("USER ").append(buildConfig.getUser()).append("\n");
+        }
+        if (runtime != null) {
+            // Shell form, so that the options of JAVA_OPTIONS are applied like by the base image scripts.
+            // The class path wildcard is quoted since java expands it itself.
+            ret.append("ENTRYPOINT exec java $JAVA_OPTIONS ");
+            if (runtime.jar != null) {
+                ret.append("-jar ").append(targetDir).append("/").append(runtime.jar).append("\n");
+            } else {
+                ret.append("-cp \"").append(targetDir).append("/*\" ").append(runtime.mainClass).append("\n");
+            }
+            return ret.toString();
+        }
+        appendArguments(ret, "ENTRYPOINT", buildConfig.getEntryPoint());
+        appendArguments(ret, "CMD", buildConfig.getCmd());
+        return ret.toString();
+    }
+
+    private static void appendKeyValues(StringBuilder ret, String instruction, Map<String, String> values) {
+        if (values != null) {
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                ret.append(instruction).append(" ").append(entry.getKey()).append("=\"")
+                   .append(entry.getValue() != null ? entry.getValue().replace("\"", "\\\"") : "")
+                   .append("\"\n");
+            }
+        }
+    }
+
+    private static void appendArguments(StringBuilder ret, String instruction, Arguments arguments) {
+        if (arguments == null) {
+            return;
+        }
+        if (arguments.getShell() != null) {
+            ret.append(instruction).append(" ").append(arguments.getShell()).append("\n");
+        } else if (arguments.getExec() != null && !arguments.getExec().isEmpty()) {
+            appendExecForm(ret.append(instruction).append(" "), arguments.getExec()).append("\n");
+        }
+    }
+
+    private static StringBuilder appendExecForm(StringBuilder ret, List<String> args) {
+        ret.append("[");
+        String separator = "";
+        for (String arg : args) {
+            ret.append(separator).append("\"").append(arg.replace("\"", "\\\"")).append("\"");
+            separator = ",";
+        }
+        return ret.append("]");
+    }
+
+    // SHELL only has an exec form, a shell given as single string is split at whitespace
+    private static List<String> getExec(Arguments arguments) {
+        if (arguments.getExec() != null && !arguments.getExec().isEmpty()) {
+            return arguments.getExec();
+        }
+        return Arrays.asList(arguments.getShell().trim().split("\\s+"));
+    }
+
+    // Optimised builds run all commands in a single layer
+    private static void appendRunCommands(StringBuilder ret, List<String> runCmds, boolean optimise) {
+        if (runCmds == null || runCmds.isEmpty()) {
+            return;
+        }
+        if (optimise) {
+            ret.append("RUN ").append(String.join(" && ", runCmds)).append("\n");
+        } else {
+            for (String runCmd : runCmds) {
+                ret.append("RUN ").append(runCmd).append("\n");
+            }
+        }
+    }
+
+    private static void appendHealthCheck(StringBuilder ret, HealthCheckConfiguration healthCheck) {
+        if (healthCheck == null) {
+            return;
+        }
+        if (healthCheck.getMode() == HealthCheckMode.none) {
+            ret.append("HEALTHCHECK NONE\n");
+            return;
+        }
+        if (healthCheck.getCmd() == null) {
+            return;
+        }
+        ret.append("HEALTHCHECK");
+        appendOption(ret, "interval", healthCheck.getInterval());
+        appendOption(ret, "timeout", healthCheck.getTimeout());
+        appendOption(ret, "start-period", healthCheck.getStartPeriod());
+        appendOption(ret, "retries", healthCheck.getRetries());
+        ret.append(" ");
+        appendArguments(ret, "CMD", healthCheck.getCmd());
+    }
+
+    private static void appendOption(StringBuilder ret, String option, Object value) {
+        if (value != null) {
+            ret.append(" --").append(option).append("=").append(value);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import io.jshift.kit.common.KitLogger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Analyzes an application jar and its dependencies with <code>jdeps</code> of a JDK (11 or newer)
+ * to find the JDK modules it needs, as input for trimming the Java runtime with
+ * <code>jlink</code>.
+ * <p>
+ * <code>jdeps</code> only sees static references. Modules which are only loaded via reflection or
+ * the service loader, like <code>jdk.crypto.ec</code> for TLS, have to be added explicitly. For
+ * the same reason dependencies reported as unused might still be loaded at runtime.
+ */
+public class ModuleAnalyzer {
+
+    private static final long TIMEOUT_SECONDS = 300;
+
+    private final File javaHome;
+    private final KitLogger log;
+
+    /**
+     * Create an analyzer
+     *
+     * @param javaHome JDK providing jdeps
+     * @param log logger
+     */
+    public ModuleAnalyzer(File javaHome, KitLogger log) {
+        this.javaHome = javaHome;
+        this.log = log;
+    }
+
+    /**
+     * Get the JDK modules needed by the application
+     *
+     * @param jar application jar
+     * @param dependencies dependency jars
+     * @return the modules, sorted
+     * @throws IOException if jdeps fails, e.g. because the JDK is too old
+     */
+    public Set<String> getRequiredModules(File jar, List<File> dependencies) throws IOException {
+        List<String> args = new ArrayList<>();
+        args.add("--ignore-missing-deps");
+        args.add("--print-module-deps");
+        args.add("--recursive");
+        addClassPath(args, jar, dependencies);
+        List<String> output = run(args);
+        // The module list is the last line, warnings come before
+        for (int i = output.size() - 1; i >= 0; i--) {
+            String line = output.get(i).trim();
+            if (line.matches("[a-zA-Z0-9_.]+(,[a-zA-Z0-9_.]+)*")) {
+                return new TreeSet<>(Arrays.asList(line.split(",")));
+            }
+        }
+        throw new IOException("No module list in the output of jdeps: " + String.join("\n", output));
+    }
+
+    /**
+     * Get the dependencies which are not referenced by the application, neither directly nor via
+     * other dependencies
+     *
+     * @param jar application jar
+     * @param dependencies dependency jars
+     * @return the unreferenced dependencies
+     * @throws IOException if jdeps fails
+     */
+    public List<File> getUnreferencedDependencies(File jar, List<File> dependencies) throws IOException {
+        List<String> args = new ArrayList<>();
+        args.add("--ignore-missing-deps");
+        args.add("-summary");
+        args.add("--recursive");
+        addClassPath(args, jar, dependencies);
+
+        // Lines look like "app.jar -> /path/to/dependency.jar", JDK modules are listed by module name
+        Set<String> referenced = new HashSet<>();
+        for (String line : run(args)) {
+            int arrow = line.indexOf(" -> ");
+            if (arrow > 0) {
+                referenced.add(line.substring(arrow + 4).trim());
+            }
+        }
+        List<File> ret = new ArrayList<>();
+        for (File dependency : dependencies) {
+            if (!referenced.contains(dependency.getAbsolutePath()) && !referenced.contains(dependency.getName())) {
+                ret.add(dependency);
+            }
+        }
+        return ret;
+    }
+
+    private void addClassPath(List<String> args, File jar, List<File> dependencies) {
+        String release = getFeatureRelease();
+        if (release != null) {
+            args.add("--multi-release");
+            args.add(release);
+        }
+        if (!dependencies.isEmpty()) {
+            Set<String> classPath = new LinkedHashSet<>();
+            for (File dependency : dependencies) {
+                classPath.add(dependency.getAbsolutePath());
+            }
+            args.add("--class-path");
+            args.add(String.join(File.pathSeparator, classPath));
+        }
+        args.add(jar.getAbsolutePath());
+    }
+
+    // Multi release jars are analyzed for the Java version of the JDK, e.g. "17"
+    private String getFeatureRelease() {
+        File releaseFile = new File(javaHome, "release");
+        if (!releaseFile.exists()) {
+            return null;
+        }
+        Properties release = new Properties();
+        try (InputStream in = Files.newInputStream(releaseFile.toPath())) {
+            release.load(in);
+        } catch (IOException exp) {
+            return null;
+        }
+        String version = release.getProperty("JAVA_VERSION", "").replace("\"", "");
+        if (version.startsWith("1.")) {
+            return null;
+        }
+        String feature = version.split("[.+-]")[0];
+        return feature.matches("\\d+") ? feature : null;
+    }
+
+    private List<String> run(List<String> args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(new File(new File(javaHome, "bin"), isWindows() ? "jdeps.exe" : "jdeps").getAbsolutePath());
+        command.addAll(args);
+        log.verbose("Running %s", String.join(" ", command));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        List<String> output = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.add(line);
+            }
+        }
+        try {
+            if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("jdeps did not finish within " + TIMEOUT_SECONDS + " seconds");
+            }
+        } catch (InterruptedException exp) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running jdeps", exp);
+        }
+        if (process.exitValue() != 0) {
+            throw new IOException("jdeps failed with exit code " + process.exitValue() + ": " + String.join("\n", output));
+        }
+        return output;
+    }
+
+    private static boolean isWindows() {
+        return System.getProperty("os.name", "").toLowerCase().contains("windows");
+    }
+}
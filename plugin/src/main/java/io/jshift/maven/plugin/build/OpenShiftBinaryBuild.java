@@ -0,0 +1,441 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.EnvVarBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesList;
+import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
+import io.fabric8.kubernetes.api.model.LocalObjectReference;
+import io.fabric8.kubernetes.api.model.LocalObjectReferenceBuilder;
+import io.fabric8.kubernetes.api.model.ObjectReference;
+import io.fabric8.kubernetes.api.model.ObjectReferenceBuilder;
+import io.fabric8.kubernetes.api.model.SecretBuilder;
+import io.fabric8.openshift.api.model.Build;
+import io.fabric8.openshift.api.model.BuildConfig;
+import io.fabric8.openshift.api.model.BuildConfigBuilder;
+import io.fabric8.openshift.api.model.BuildOutput;
+import io.fabric8.openshift.api.model.BuildOutputBuilder;
+import io.fabric8.openshift.api.model.BuildStrategy;
+import io.fabric8.openshift.api.model.BuildStrategyBuilder;
+import io.fabric8.openshift.api.model.ImageStream;
+import io.fabric8.openshift.api.model.ImageStreamBuilder;
+import io.fabric8.openshift.api.model.NamedTagEventList;
+import io.fabric8.openshift.client.OpenShiftClient;
+import io.jshift.kit.build.service.docker.access.AuthConfig;
+import io.jshift.kit.common.KitLogger;
+import io.jshift.kit.config.image.build.BuildConfiguration;
+import io.jshift.kit.config.image.build.OpenShiftBuildStrategy;
+import io.jshift.kit.config.resource.BuildRecreateMode;
+import io.jshift.maven.plugin.build.archive.BuildContextArchiver;
+import org.apache.commons.compress.utils.CountingInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpenShift binary build which streams the build context with a {@link BuildContextArchiver}
+ * while it is archived and compressed, instead of uploading an archive file created beforehand.
+ * <p>
+ * The ImageStream and the BuildConfig are handled like the OpenShift build service of the kit
+ * does: they are created if they do not exist yet, or recreated as requested by the
+ * {@link BuildRecreateMode}. The BuildConfig gets the base image (also as ImageStreamTag), the
+ * environment, the pull secret and the force pull and no cache flags. After the build, the
+ * ImageStream pointing to the built image is added to the ImageStream file, which is attached to
+ * the project by the caller.
+ */
+public class OpenShiftBinaryBuild {
+
+    private static final long POLL_INTERVAL_MILLIS = 2000;
+
+    private static final ObjectMapper YAML_MAPPER = new ObjectMapper(new YAMLFactory());
+
+    private final OpenShiftClient client;
+    private final String namespace;
+    private final BuildContextArchiver archiver;
+    private final KitLogger log;
+
+    private OpenShiftBuildStrategy strategy = OpenShiftBuildStrategy.s2i;
+    private String buildNameSuffix;
+    private boolean lookupPolicyLocal = true;
+    private String pullSecret;
+    private String pullRegistry;
+    private AuthConfig pullAuth;
+    private boolean forcePull;
+    private BuildRecreateMode recreateMode = BuildRecreateMode.none;
+    private File imageStreamFile;
+
+    private long uploadedBytes = -1;
+
+    public OpenShiftBinaryBuild(OpenShiftClient client, String namespace, BuildContextArchiver archiver, KitLogger log) {
+        this.client = client;
+        this.namespace = namespace;
+        this.archiver = archiver;
+        this.log = log;
+    }
+
+    public OpenShiftBinaryBuild strategy(OpenShiftBuildStrategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+    public OpenShiftBinaryBuild buildNameSuffix(String buildNameSuffix) {
+        this.buildNameSuffix = buildNameSuffix;
+        return this;
+    }
+
+    public OpenShiftBinaryBuild lookupPolicyLocal(boolean lookupPolicyLocal) {
+        this.lookupPolicyLocal = lookupPolicyLocal;
+        return this;
+    }
+
+    /**
+     * Set the secret used for pulling the base image. The secret is created from the credentials
+     * if it does not exist yet, it isn't used if it neither exists nor credentials are given.
+     *
+     * @param pullSecret name of the secret
+     * @param registry registry of the base image
+     * @param auth credentials for the registry, null if there are none
+     * @return this build
+     */
+    public OpenShiftBinaryBuild pullSecret(String pullSecret, String registry, AuthConfig auth) {
+        this.pullSecret = pullSecret;
+        this.pullRegistry = registry;
+        this.pullAuth = auth;
+        return this;
+    }
+
+    public OpenShiftBinaryBuild forcePull(boolean forcePull) {
+        this.forcePull = forcePull;
+        return this;
+    }
+
+    public OpenShiftBinaryBuild recreateMode(BuildRecreateMode recreateMode) {
+        this.recreateMode = recreateMode;
+        return this;
+    }
+
+    /**
+     * Set the file to which the ImageStream of the built image is added
+     *
+     * @param imageStreamFile YAML file holding a list of ImageStreams, null for not writing it
+     * @return this build
+     */
+    public OpenShiftBinaryBuild imageStreamFile(File imageStreamFile) {
+        this.imageStreamFile = imageStreamFile;
+        return this;
+    }
+
+    /**
+     * Run the build and wait for it to finish
+     *
+     * @param imageName name of the image, the last path segment is the ImageStream and its tag
+     * @param buildConfig build configuration of the image, providing the base image (or the builder
+     *                    image for the S2I strategy), the environment and the no cache flag
+     * @param contextDir build context to upload
+     * @return the finished build
+     * @throws IOException if the build cannot be started or does not complete
+     */
+    public Build build(String imageName, BuildConfiguration buildConfig, File contextDir) throws IOException {
+        String imageStream = getImageStreamName(imageName);
+        String buildName = imageStream + (buildNameSuffix != null ? buildNameSuffix : "");
+        Map<String, String> env = buildConfig.getEnv();
+        if (strategy == OpenShiftBuildStrategy.s2i) {
+            writeS2iEnvironment(contextDir, env);
+        }
+
+        BuildStrategy buildStrategy = createBuildStrategy(buildConfig, getEnvVars(env), getPullSecret());
+        BuildOutput output = new BuildOutputBuilder()
+            .withNewTo().withKind("ImageStreamTag").withName(imageStream + ":" + getTag(imageName)).endTo()
+            .build();
+
+        if (recreateMode.isImageStream() && client.imageStreams().inNamespace(namespace).withName(imageStream).get() != null) {
+            log.info("Deleting ImageStream %s", imageStream);
+            client.imageStreams().inNamespace(namespace).withName(imageStream).delete();
+        }
+        if (client.imageStreams().inNamespace(namespace).withName(imageStream).get() == null) {
+            log.info("Creating ImageStream %s", imageStream);
+            client.imageStreams().inNamespace(namespace).create(
+                new ImageStreamBuilder()
+                    .withNewMetadata().withName(imageStream).endMetadata()
+                    .withNewSpec().withNewLookupPolicy().withLocal(lookupPolicyLocal).endLookupPolicy().endSpec()
+                    .build());
+        }
+        BuildConfig existing = client.buildConfigs().inNamespace(namespace).withName(buildName).get();
+        if (existing != null && recreateMode.isBuildConfig()) {
+            log.info("Deleting BuildConfig %s", buildName);
+            client.buildConfigs().inNamespace(namespace).withName(buildName).delete();
+            existing = null;
+        }
+        if (existing == null) {
+            log.info("Creating BuildConfig %s for %s build", buildName, strategy.name());
+            client.buildConfigs().inNamespace(namespace).create(
+                new BuildConfigBuilder()
+                    .withNewMetadata().withName(buildName).endMetadata()
+                    .withNewSpec()
+                      .withNewSource().withType("Binary").endSource()
+                      .withStrategy(buildStrategy)
+                      .withOutput(output)
+                    .endSpec()
+                    .build());
+        } else {
+            client.buildConfigs().inNamespace(namespace).withName(buildName).edit()
+                  .editSpec().withNewSource().withType("Binary").endSource().withStrategy(buildStrategy).withOutput(output).endSpec()
+                  .done();
+        }
+
+        Build build;
+        log.info("Starting build %s, streaming %s", buildName, contextDir);
+        try (CountingInputStream in = new CountingInputStream(archiver.stream(contextDir))) {
+            build = client.buildConfigs().inNamespace(namespace).withName(buildName).instantiateBinary().fromInputStream(in);
+            uploadedBytes = in.getBytesRead();
+        }
+        Build ret = waitForCompletion(build.getMetadata().getName());
+        if (imageStreamFile != null) {
+            addToImageStreamFile(imageStream, getTag(imageName));
+        }
+        return ret;
+    }
+
+    // Like the kit, an ImageStreamTag without namespace refers to the 'openshift' namespace
+    private BuildStrategy createBuildStrategy(BuildConfiguration buildConfig, List<EnvVar> env, String secretName) {
+        Map<String, String> fromExt = buildConfig.getFromExt();
+        String fromKind = getValue(fromExt, "kind", "DockerImage");
+        String fromName = getValue(fromExt, "name", buildConfig.getFrom());
+        String fromNamespace = getValue(fromExt, "namespace", "ImageStreamTag".equals(fromKind) ? "openshift" : null);
+        ObjectReference from = new ObjectReferenceBuilder()
+            .withKind(fromKind)
+            .withName(fromName)
+            .withNamespace(fromNamespace != null && !fromNamespace.isEmpty() ? fromNamespace : null)
+            .build();
+        LocalObjectReference secret = secretName != null ? new LocalObjectReferenceBuilder().withName(secretName).build() : null;
+        if (strategy == OpenShiftBuildStrategy.docker) {
+            return new BuildStrategyBuilder()
+                .withType("Docker")
+                .withNewDockerStrategy()
+                  .withFrom(from)
+                  .withEnv(env)
+                  .withForcePull(forcePull)
+                  .withNoCache(isNoCache(buildConfig))
+                  .withPullSecret(secret)
+                .endDockerStrategy()
+                .build();
+        }
+        return new BuildStrategyBuilder()
+            .withType("Source")
+            .withNewSourceStrategy()
+              .withFrom(from)
+              .withEnv(env)
+              .withForcePull(forcePull)
+              .withPullSecret(secret)
+            .endSourceStrategy()
+            .build();
+    }
+
+    // Name of the pull secret if it exists or could be created from the credentials for the registry
+    private String getPullSecret() {
+        if (pullSecret == null) {
+            return null;
+        }
+        if (client.secrets().inNamespace(namespace).withName(pullSecret).get() != null) {
+            return pullSecret;
+        }
+        if (pullAuth == null || pullRegistry == null) {
+            return null;
+        }
+        log.info("Creating pull secret %s for %s", pullSecret, pullRegistry);
+        client.secrets().inNamespace(namespace).create(
+            new SecretBuilder()
+                .withNewMetadata().withName(pullSecret).endMetadata()
+                .withType("kubernetes.io/dockerconfigjson")
+                .addToData(".dockerconfigjson", createDockerConfigJson(pullRegistry, pullAuth.getUsername(), pullAuth.getPassword()))
+                .build());
+        return pullSecret;
+    }
+
+    // Base64 encoded Docker configuration holding the credentials for a registry, as data of a pull secret
+    static String createDockerConfigJson(String registry, String username, String password) {
+        String auth = Base64.getEncoder().encodeToString(
+            (username + ":" + (password != null ? password : "")).getBytes(StandardCharsets.UTF_8));
+        ObjectNode config = YAML_MAPPER.createObjectNode();
+        config.putObject("auths").putObject(registry).put("auth", auth);
+        return Base64.getEncoder().encodeToString(config.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // docker.nocache overrides the image configuration, an empty value switches the cache off
+    private static boolean isNoCache(BuildConfiguration buildConfig) {
+        String noCache = System.getProperty("docker.nocache");
+        if (noCache != null) {
+            return noCache.isEmpty() || Boolean.parseBoolean(noCache);
+        }
+        return Boolean.TRUE.equals(buildConfig.nocache());
+    }
+
+    private static String getValue(Map<String, String> map, String key, String defaultValue) {
+        String value = map != null ? map.get(key) : null;
+        return value != null ? value : defaultValue;
+    }
+
+    private static List<EnvVar> getEnvVars(Map<String, String> env) {
+        List<EnvVar> ret = new ArrayList<>();
+        if (env != null) {
+            for (Map.Entry<String, String> entry : env.entrySet()) {
+                ret.add(new EnvVarBuilder().withName(entry.getKey()).withValue(entry.getValue()).build());
+            }
+        }
+        return ret;
+    }
+
+    // Add or replace the ImageStream in the file, with the tag pointing to the image just built. Images of a
+    // project may be built concurrently and all go into the same file.
+    private void addToImageStreamFile(String imageStream, String tag) throws IOException {
+        ImageStream current = client.imageStreams().inNamespace(namespace).withName(imageStream).get();
+        String image = getLatestImage(current, tag);
+        if (image == null) {
+            log.warn("No image found for ImageStream %s:%s, not adding it to %s", imageStream, tag, imageStreamFile);
+            return;
+        }
+        ImageStream entry = new ImageStreamBuilder()
+            .withNewMetadata().withName(imageStream).endMetadata()
+            .withNewSpec()
+              .addNewTag()
+                .withName(tag)
+                .withNewFrom().withKind("ImageStreamImage").withName(imageStream + "@" + image).withNamespace(namespace).endFrom()
+              .endTag()
+            .endSpec()
+            .build();
+        synchronized (OpenShiftBinaryBuild.class) {
+            writeImageStreamFile(imageStreamFile, entry);
+        }
+    }
+
+    static void writeImageStreamFile(File file, ImageStream entry) throws IOException {
+        List<HasMetadata> items = new ArrayList<>();
+        if (file.exists()) {
+            KubernetesList existing = YAML_MAPPER.readValue(file, KubernetesList.class);
+            if (existing.getItems() != null) {
+                for (HasMetadata item : existing.getItems()) {
+                    if (!(item instanceof ImageStream && entry.getMetadata().getName().equals(item.getMetadata().getName()))) {
+                        items.add(item);
+                    }
+                }
+            }
+        }
+        items.add(entry);
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        YAML_MAPPER.writeValue(file, new KubernetesListBuilder().withItems(items).build());
+    }
+
+    // Image of the newest item of a tag in the status of an ImageStream
+    static String getLatestImage(ImageStream imageStream, String tag) {
+        if (imageStream == null || imageStream.getStatus() == null || imageStream.getStatus().getTags() == null) {
+            return null;
+        }
+        for (NamedTagEventList tagEvents : imageStream.getStatus().getTags()) {
+            if (tag.equals(tagEvents.getTag()) && tagEvents.getItems() != null && !tagEvents.getItems().isEmpty()) {
+                return tagEvents.getItems().get(0).getImage();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the size of the uploaded build context
+     *
+     * @return number of bytes uploaded by the last build, -1 if none has been uploaded
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    // The S2I builder picks up the environment from the uploaded sources only
+    private static void writeS2iEnvironment(File contextDir, Map<String, String> env) throws IOException {
+        File file = new File(new File(contextDir, ".s2i"), "environment");
+        if (env == null || env.isEmpty()) {
+            Files.deleteIfExists(file.toPath());
+            return;
+        }
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> entry : env.entrySet()) {
+            content.append(entry.getKey()).append('=').append(entry.getValue() != null ? entry.getValue() : "").append('\n');
+        }
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Build waitForCompletion(String name) throws IOException {
+        String lastPhase = null;
+        while (true) {
+            Build build = client.builds().inNamespace(namespace).withName(name).get();
+            if (build == null) {
+                throw new IOException("Build " + name + " has been deleted");
+            }
+            String phase = build.getStatus() != null ? build.getStatus().getPhase() : null;
+            if (phase != null && !phase.equals(lastPhase)) {
+                log.info("Build %s: %s", name, phase);
+                lastPhase = phase;
+            }
+            if ("Complete".equals(phase)) {
+                return build;
+            }
+            if ("Failed".equals(phase) || "Error".equals(phase) || "Cancelled".equals(phase)) {
+                String message = build.getStatus().getMessage();
+                throw new IOException("Build " + name + " " + phase.toLowerCase() + (message != null ? ": " + message : ""));
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException exp) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for build " + name, exp);
+            }
+        }
+    }
+
+    /**
+     * Get the name of the ImageStream of an image, which is the last path segment without tag
+     *
+     * @param imageName full image name
+     * @return name of the ImageStream
+     */
+    public static String getImageStreamName(String imageName) {
+        String name = imageName.substring(imageName.lastIndexOf('/') + 1);
+        int colon = name.indexOf(':');
+        return colon >= 0 ? name.substring(0, colon) : name;
+    }
+
+    /**
+     * Get the tag of an image, <code>latest</code> if it has none
+     *
+     * @param imageName full image name
+     * @return tag of the image
+     */
+    public static String getTag(String imageName) {
+        String name = imageName.substring(imageName.lastIndexOf('/') + 1);
+        int colon = name.indexOf(':');
+        return colon >= 0 ? name.substring(colon + 1) : "latest";
+    }
+}
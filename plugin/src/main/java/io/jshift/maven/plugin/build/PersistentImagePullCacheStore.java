@@ -0,0 +1,263 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jshift.kit.build.service.docker.ImagePullManager;
+import io.jshift.kit.build.service.docker.access.DockerAccess;
+import io.jshift.kit.build.service.docker.access.DockerAccessException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache store for the {@link ImagePullManager} which is kept on disk, so that e.g. an
+ * <code>autoPull=once</code> lasts across Maven invocations. The pull manager keeps the
+ * images it has pulled as JSON object under a single key. This store records a check time
+ * for every image of such an object, so that each image expires on its own after the configured
+ * time to live. The id of every image pulled through a connection returned by
+ * {@link #wrap(DockerAccess)} is recorded as well.
+ * <p>
+ * The file is locked while reading and writing, so that concurrent builds on the same agent can
+ * share it.
+ */
+public class PersistentImagePullCacheStore implements ImagePullManager.CacheStore {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String KEY_PREFIX = "key.";
+    private static final String IMAGE_PREFIX = "image.";
+    private static final String CHECKED_SUFFIX = ".checked";
+    private static final String DIGEST_SUFFIX = ".digest";
+
+    private final File cacheFile;
+    private final long ttlMillis;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger expired = new AtomicInteger();
+
+    /**
+     * Create a store
+     *
+     * @param cacheFile file holding the cache
+     * @param ttlMinutes time to live of each entry in minutes
+     */
+    public PersistentImagePullCacheStore(File cacheFile, long ttlMinutes) {
+        this.cacheFile = cacheFile;
+        this.ttlMillis = ttlMinutes * 60 * 1000;
+    }
+
+    @Override
+    public String get(String key) {
+        try {
+            return withLockedProperties(false, props -> {
+                long now = System.currentTimeMillis();
+                String value = props.getProperty(KEY_PREFIX + key);
+                if (value == null) {
+                    misses.incrementAndGet();
+                    return null;
+                }
+                Map<String, Object> images = parseImages(value);
+                if (images == null) {
+                    // Not an image map, expire the entry as a whole
+                    if (isExpired(props.getProperty(KEY_PREFIX + key + CHECKED_SUFFIX), now)) {
+                        expired.incrementAndGet();
+                        misses.incrementAndGet();
+                        return null;
+                    }
+                    hits.incrementAndGet();
+                    return value;
+                }
+                Map<String, Object> fresh = new LinkedHashMap<>();
+                for (Map.Entry<String, Object> entry : images.entrySet()) {
+                    if (isExpired(props.getProperty(IMAGE_PREFIX + entry.getKey() + CHECKED_SUFFIX), now)) {
+                        expired.incrementAndGet();
+                    } else {
+                        fresh.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                if (fresh.isEmpty()) {
+                    misses.incrementAndGet();
+                    return null;
+                }
+                hits.incrementAndGet();
+                return MAPPER.writeValueAsString(fresh);
+            });
+        } catch (IOException exp) {
+            // A broken cache must not break the build
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, String value) {
+        try {
+            withLockedProperties(true, props -> {
+                String now = Long.toString(System.currentTimeMillis());
+                Map<String, Object> previousImages = parseImages(props.getProperty(KEY_PREFIX + key));
+                props.setProperty(KEY_PREFIX + key, value);
+                props.setProperty(KEY_PREFIX + key + CHECKED_SUFFIX, now);
+                Map<String, Object> images = parseImages(value);
+                if (images != null) {
+                    for (String image : images.keySet()) {
+                        // Only newly added images have been checked now
+                        if (previousImages == null || !previousImages.containsKey(image) ||
+                            isExpired(props.getProperty(IMAGE_PREFIX + image + CHECKED_SUFFIX), System.currentTimeMillis())) {
+                            props.setProperty(IMAGE_PREFIX + image + CHECKED_SUFFIX, now);
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (IOException exp) {
+            // Ignored, the image is just checked again next time
+        }
+    }
+
+    /**
+     * Wrap a Docker connection, so that the id of every image pulled through it is recorded
+     *
+     * @param access connection to wrap
+     * @return connection to use instead
+     */
+    public DockerAccess wrap(DockerAccess access) {
+        return (DockerAccess) Proxy.newProxyInstance(DockerAccess.class.getClassLoader(), new Class<?>[] { DockerAccess.class },
+                                                     (proxy, method, args) -> invoke(access, method, args));
+    }
+
+    private Object invoke(DockerAccess access, Method method, Object[] args) throws Throwable {
+        Object ret;
+        try {
+            ret = method.invoke(access, args);
+        } catch (InvocationTargetException exp) {
+            throw exp.getCause();
+        }
+        if ("pullImage".equals(method.getName()) && args != null && args.length > 0 && args[0] instanceof String) {
+            String image = (String) args[0];
+            try {
+                String id = access.getImageId(image);
+                if (id != null) {
+                    recordDigest(image, id);
+                }
+            } catch (DockerAccessException exp) {
+                // Only a cache, the pull itself has succeeded
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Record the digest of an image which has been pulled or checked
+     *
+     * @param image image reference
+     * @param digest digest or id of the image
+     */
+    public void recordDigest(String image, String digest) {
+        try {
+            withLockedProperties(true, props -> {
+                props.setProperty(IMAGE_PREFIX + image + DIGEST_SUFFIX, digest);
+                props.setProperty(IMAGE_PREFIX + image + CHECKED_SUFFIX, Long.toString(System.currentTimeMillis()));
+                return null;
+            });
+        } catch (IOException exp) {
+            // Ignored, only a cache
+        }
+    }
+
+    public String getStatistics() {
+        return String.format("%d hits, %d misses, %d expired entries (%s)", hits.get(), misses.get(), expired.get(), cacheFile);
+    }
+
+    // ===========================================================================================
+
+    private interface PropertiesAction<T> {
+        T apply(Properties props) throws IOException;
+    }
+
+    // Threads of the same JVM are serialized by the class monitor (file locks are held per JVM),
+    // other processes by the file lock
+    private <T> T withLockedProperties(boolean write, PropertiesAction<T> action) throws IOException {
+        File dir = cacheFile.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        File lockFile = new File(dir, cacheFile.getName() + ".lock");
+        synchronized (PersistentImagePullCacheStore.class) {
+            try (RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+                 FileChannel channel = raf.getChannel();
+                 FileLock lock = channel.lock(0, Long.MAX_VALUE, !write)) {
+                Properties props = new Properties();
+                if (cacheFile.exists()) {
+                    try (InputStream in = Files.newInputStream(cacheFile.toPath())) {
+                        props.load(in);
+                    } catch (IllegalArgumentException exp) {
+                        // Malformed escapes, start with an empty cache which replaces the file on the next write
+                        props.clear();
+                    }
+                }
+                T ret = action.apply(props);
+                if (write) {
+                    Path tmp = Files.createTempFile(dir.toPath(), cacheFile.getName(), ".tmp");
+                    try (OutputStream out = Files.newOutputStream(tmp)) {
+                        props.store(out, "Image pull cache");
+                    }
+                    Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                return ret;
+            }
+        }
+    }
+
+    private boolean isExpired(String checked, long now) {
+        if (checked == null) {
+            return true;
+        }
+        try {
+            return now - Long.parseLong(checked) > ttlMillis;
+        } catch (NumberFormatException exp) {
+            return true;
+        }
+    }
+
+    private Map<String, Object> parseImages(String value) {
+        if (value == null || !value.trim().startsWith("{")) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(value, new TypeReference<LinkedHashMap<String, Object>>() { });
+        } catch (IOException exp) {
+            return null;
+        }
+    }
+}
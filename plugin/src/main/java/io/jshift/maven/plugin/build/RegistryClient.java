@@ -0,0 +1,549 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal client for the Docker Registry HTTP API V2, used to look up, download and upload
+ * manifests and blobs without a Docker daemon. Supports anonymous access, basic authentication
+ * and the bearer token flow as used by Docker Hub, Quay and most other registries.
+ */
+public class RegistryClient {
+
+    public static final String DOCKER_HUB_REGISTRY = "docker.io";
+
+    public static final String MANIFEST_V2 = "application/vnd.docker.distribution.manifest.v2+json";
+    public static final String MANIFEST_LIST_V2 = "application/vnd.docker.distribution.manifest.list.v2+json";
+    public static final String OCI_MANIFEST = "application/vnd.oci.image.manifest.v1+json";
+    public static final String OCI_INDEX = "application/vnd.oci.image.index.v1+json";
+
+    private static final String DOCKER_HUB_API_HOST = "registry-1.docker.io";
+
+    private static final Pattern CHALLENGE_PARAM = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+
+    private static final int TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String username;
+    private final String password;
+
+    // Authorization header which worked last, by registry and repository
+    private final Map<String, String> authorizations = new ConcurrentHashMap<>();
+
+    /**
+     * Create a client
+     *
+     * @param username user for the registry, null for anonymous access
+     * @param password password or token of the user
+     */
+    public RegistryClient(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Manifest of an image as stored in a registry
+     */
+    public static class Manifest {
+        private final String digest;
+        private final String configDigest;
+        private final long size;
+
+        Manifest(String digest, String configDigest, long size) {
+            this.digest = digest;
+            this.configDigest = configDigest;
+            this.size = size;
+        }
+
+        // Digest of the manifest itself, as reported by the registry
+        public String getDigest() {
+            return digest;
+        }
+
+        // Digest of the image configuration, which is the image id for a Docker daemon
+        public String getConfigDigest() {
+            return configDigest;
+        }
+
+        // Compressed size of configuration and all layers
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Reference to an image in a registry
+     */
+    public static class ImageReference {
+        private final String registry;
+        private final String repository;
+        private final String reference;
+
+        ImageReference(String registry, String repository, String reference) {
+            this.registry = registry;
+            this.repository = repository;
+            this.reference = reference;
+        }
+
+        public String getRegistry() {
+            return registry;
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        // Tag or digest
+        public String getReference() {
+            return reference;
+        }
+
+        /**
+         * Get the reference for another tag or a digest of the same repository
+         *
+         * @param tag tag or digest to use
+         * @return the new reference
+         */
+        public ImageReference withTag(String tag) {
+            return new ImageReference(registry, repository, tag);
+        }
+
+        @Override
+        public String toString() {
+            return registry + "/" + repository + (reference.startsWith("sha256:") ? "@" : ":") + reference;
+        }
+    }
+
+    /**
+     * Parse an image name
+     *
+     * @param imageName name like <code>registry:5000/user/image:tag</code>
+     * @param defaultRegistry registry to use if the name does not contain one, null for Docker Hub
+     * @return the parsed reference
+     */
+    public static ImageReference parse(String imageName, String defaultRegistry) {
+        String name = imageName;
+        String reference = "latest";
+        int at = name.indexOf('@');
+        if (at >= 0) {
+            reference = name.substring(at + 1);
+            name = name.substring(0, at);
+        } else {
+            int colon = name.lastIndexOf(':');
+            if (colon > name.lastIndexOf('/')) {
+                reference = name.substring(colon + 1);
+                name = name.substring(0, colon);
+            }
+        }
+        String registry = defaultRegistry != null ? defaultRegistry : DOCKER_HUB_REGISTRY;
+        int slash = name.indexOf('/');
+        if (slash > 0) {
+            String first = name.substring(0, slash);
+            if (first.contains(".") || first.contains(":") || "localhost".equals(first)) {
+                registry = first;
+                name = name.substring(slash + 1);
+            }
+        }
+        if (isDockerHub(registry) && !name.contains("/")) {
+            name = "library/" + name;
+        }
+        return new ImageReference(registry, name, reference);
+    }
+
+    /**
+     * Fetch the manifest of an image
+     *
+     * @param image image to look up
+     * @return the manifest or null if the image does not exist in the registry or has no single manifest
+     * @throws IOException if the registry cannot be queried
+     */
+    public Manifest getManifest(ImageReference image) throws IOException {
+        HttpURLConnection connection = send("GET", image, "/manifests/" + image.getReference(),
+                                            MANIFEST_V2 + ", " + OCI_MANIFEST, null, null);
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            checkStatus(connection, "read manifest of " + image, HttpURLConnection.HTTP_OK);
+            try (InputStream in = connection.getInputStream()) {
+                JsonNode manifest = MAPPER.readTree(in);
+                JsonNode config = manifest.path("config");
+                if (config.isMissingNode()) {
+                    // Schema 1 or a manifest list, cannot be compared with a local image
+                    return null;
+                }
+                long size = config.path("size").asLong();
+                for (JsonNode layer : manifest.path("layers")) {
+                    size += layer.path("size").asLong();
+                }
+                return new Manifest(connection.getHeaderField("Docker-Content-Digest"), config.path("digest").asText(null), size);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Look up the digest of an image's manifest, manifest list or image index without downloading it
+     *
+     * @param image image to look up
+     * @return the digest or null if the image does not exist in the registry
+     * @throws IOException if the registry cannot be queried or reports no digest
+     */
+    public String getManifestDigest(ImageReference image) throws IOException {
+        HttpURLConnection connection = send("HEAD", image, "/manifests/" + image.getReference(),
+                                            MANIFEST_V2 + ", " + OCI_MANIFEST + ", " + MANIFEST_LIST_V2 + ", " + OCI_INDEX,
+                                            null, null);
+        try {
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            checkStatus(connection, "look up manifest of " + image, HttpURLConnection.HTTP_OK);
+            String digest = connection.getHeaderField("Docker-Content-Digest");
+            if (digest == null) {
+                throw new IOException("No digest reported for " + image);
+            }
+            return digest;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Fetch the manifest which all given references point to. The references are checked with
+     * <code>HEAD</code> requests, only when all exist with the same digest the manifest is fetched once.
+     *
+     * @param images references to check, e.g. the tags of an image
+     * @return the manifest or null if a reference does not exist, the references point to different
+     *         manifests or the manifest is no single image manifest
+     * @throws IOException if the registry cannot be queried
+     */
+    public Manifest getCommonManifest(List<ImageReference> images) throws IOException {
+        String digest = null;
+        for (ImageReference image : images) {
+            String imageDigest = getManifestDigest(image);
+            if (imageDigest == null || (digest != null && !digest.equals(imageDigest))) {
+                return null;
+            }
+            digest = imageDigest;
+        }
+        return digest != null ? getManifest(images.get(0).withTag(digest)) : null;
+    }
+
+    /**
+     * Fetch a manifest, manifest list or image index as JSON
+     *
+     * @param image image to look up
+     * @return the manifest with its media type in the field <code>mediaType</code>
+     * @throws IOException if the registry cannot be queried or the image does not exist
+     */
+    public JsonNode getManifestContent(ImageReference image) throws IOException {
+        HttpURLConnection connection = send("GET", image, "/manifests/" + image.getReference(),
+                                            MANIFEST_V2 + ", " + OCI_MANIFEST + ", " + MANIFEST_LIST_V2 + ", " + OCI_INDEX,
+                                            null, null);
+        try {
+            checkStatus(connection, "read manifest of " + image, HttpURLConnection.HTTP_OK);
+            try (InputStream in = connection.getInputStream()) {
+                JsonNode ret = MAPPER.readTree(in);
+                if (!ret.has("mediaType") && connection.getContentType() != null && ret.isObject()) {
+                    ((ObjectNode) ret).put("mediaType", connection.getContentType());
+                }
+                return ret;
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Check whether a repository contains a blob
+     *
+     * @param image repository to check
+     * @param digest digest of the blob
+     * @return true if the blob exists
+     * @throws IOException if the registry cannot be queried
+     */
+    public boolean hasBlob(ImageReference image, String digest) throws IOException {
+        HttpURLConnection connection = send("HEAD", image, "/blobs/" + digest, null, null, null);
+        try {
+            return connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Download a blob to a file. The file is written atomically.
+     *
+     * @param image repository holding the blob
+     * @param digest digest of the blob
+     * @param target file to write
+     * @throws IOException if the download fails
+     */
+    public void getBlob(ImageReference image, String digest, File target) throws IOException {
+        HttpURLConnection connection = send("GET", image, "/blobs/" + digest, null, null, null);
+        try {
+            int status = connection.getResponseCode();
+            if (status >= 300 && status < 400) {
+                // Redirects to storage backends must not carry the registry credentials
+                String location = connection.getHeaderField("Location");
+                connection.disconnect();
+                connection = (HttpURLConnection) new URL(new URL(getBaseUrl(image.getRegistry())), location).openConnection();
+                connection.setConnectTimeout(TIMEOUT_MILLIS);
+                connection.setReadTimeout(TIMEOUT_MILLIS);
+            }
+            checkStatus(connection, "download " + digest + " from " + image, HttpURLConnection.HTTP_OK);
+            Path tmp = Files.createTempFile(target.getParentFile().toPath(), target.getName(), ".tmp");
+            try (InputStream in = connection.getInputStream()) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Mount a blob from another repository of the same registry
+     *
+     * @param image repository to mount the blob into
+     * @param digest digest of the blob
+     * @param fromRepository repository holding the blob
+     * @return true if the blob has been mounted, false if it must be uploaded
+     * @throws IOException if the registry cannot be queried
+     */
+    public boolean mountBlob(ImageReference image, String digest, String fromRepository) throws IOException {
+        HttpURLConnection connection = send("POST", image, "/blobs/uploads/?mount=" + URLEncoder.encode(digest, "UTF-8") +
+                                                           "&from=" + URLEncoder.encode(fromRepository, "UTF-8"),
+                                            null, null, null);
+        try {
+            return connection.getResponseCode() == HttpURLConnection.HTTP_CREATED;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Upload a blob with a single request. The content is streamed, so the repository must have
+     * been accessed before to be authorized already.
+     *
+     * @param image repository to upload to
+     * @param digest digest of the blob
+     * @param file content of the blob
+     * @throws IOException if the upload fails
+     */
+    public void uploadBlob(ImageReference image, String digest, File file) throws IOException {
+        HttpURLConnection connection = send("POST", image, "/blobs/uploads/", null, null, null);
+        String location;
+        try {
+            checkStatus(connection, "start upload to " + image, HttpURLConnection.HTTP_ACCEPTED);
+            location = connection.getHeaderField("Location");
+        } finally {
+            connection.disconnect();
+        }
+        URL uploadUrl = new URL(new URL(getBaseUrl(image.getRegistry())), location);
+        String query = (uploadUrl.getQuery() != null ? "&" : "?") + "digest=" + URLEncoder.encode(digest, "UTF-8");
+        connection = send("PUT", image, new URL(uploadUrl.toString() + query), null, "application/octet-stream",
+                          out -> Files.copy(file.toPath(), out), file.length());
+        try {
+            checkStatus(connection, "upload " + digest + " to " + image, HttpURLConnection.HTTP_CREATED);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Upload a manifest
+     *
+     * @param image repository and tag to upload to
+     * @param mediaType media type of the manifest
+     * @param manifest content of the manifest
+     * @throws IOException if the upload fails
+     */
+    public void putManifest(ImageReference image, String mediaType, byte[] manifest) throws IOException {
+        HttpURLConnection connection = send("PUT", image, "/manifests/" + image.getReference(), null, mediaType,
+                                            out -> out.write(manifest));
+        try {
+            checkStatus(connection, "upload manifest to " + image, HttpURLConnection.HTTP_CREATED);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // ==================================================================================================
+
+    private interface Body {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private HttpURLConnection send(String method, ImageReference image, String path, String accept,
+                                   String contentType, Body body) throws IOException {
+        URL url = new URL(getBaseUrl(image.getRegistry()) + "/v2/" + image.getRepository() + path);
+        return send(method, image, url, accept, contentType, body, -1);
+    }
+
+    // Send a request, answering an authentication challenge once
+    private HttpURLConnection send(String method, ImageReference image, URL url, String accept,
+                                   String contentType, Body body, long length) throws IOException {
+        String authKey = image.getRegistry() + "/" + image.getRepository();
+        String authorization = authorizations.getOrDefault(authKey, createBasicAuthorization());
+        HttpURLConnection connection = openConnection(method, url, accept, contentType, authorization, body, length);
+        if (connection.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED) {
+            authorization = authorize(connection.getHeaderField("WWW-Authenticate"));
+            connection.disconnect();
+            if (authorization == null) {
+                throw new IOException("Not authorized to access " + image);
+            }
+            authorizations.put(authKey, authorization);
+            connection = openConnection(method, url, accept, contentType, authorization, body, length);
+        }
+        return connection;
+    }
+
+    private HttpURLConnection openConnection(String method, URL url, String accept, String contentType,
+                                             String authorization, Body body, long length) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setInstanceFollowRedirects(false);
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        if (accept != null) {
+            connection.setRequestProperty("Accept", accept);
+        }
+        if (authorization != null) {
+            connection.setRequestProperty("Authorization", authorization);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+            if (length >= 0) {
+                // Large uploads are streamed, which is only done when already authorized
+                connection.setFixedLengthStreamingMode(length);
+            }
+            try (OutputStream out = connection.getOutputStream()) {
+                body.write(out);
+            }
+        } else if ("POST".equals(method) || "PUT".equals(method)) {
+            connection.setDoOutput(true);
+            connection.getOutputStream().close();
+        }
+        return connection;
+    }
+
+    // Answer an authentication challenge, returns null if it cannot be answered
+    private String authorize(String challenge) throws IOException {
+        if (challenge == null) {
+            return null;
+        }
+        if (challenge.regionMatches(true, 0, "Basic", 0, 5)) {
+            return createBasicAuthorization();
+        }
+        if (!challenge.regionMatches(true, 0, "Bearer", 0, 6)) {
+            return null;
+        }
+        Map<String, String> params = new HashMap<>();
+        Matcher matcher = CHALLENGE_PARAM.matcher(challenge);
+        while (matcher.find()) {
+            params.put(matcher.group(1), matcher.group(2));
+        }
+        String realm = params.get("realm");
+        if (realm == null) {
+            return null;
+        }
+        StringBuilder tokenUrl = new StringBuilder(realm);
+        String separator = realm.contains("?") ? "&" : "?";
+        for (String param : new String[] { "service", "scope" }) {
+            if (params.containsKey(param)) {
+                tokenUrl.append(separator).append(param).append("=")
+                        .append(URLEncoder.encode(params.get(param), "UTF-8"));
+                separator = "&";
+            }
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(tokenUrl.toString()).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            String basic = createBasicAuthorization();
+            if (basic != null) {
+                connection.setRequestProperty("Authorization", basic);
+            }
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                return null;
+            }
+            try (InputStream in = connection.getInputStream()) {
+                JsonNode response = MAPPER.readTree(in);
+                String token = response.has("token") ? response.get("token").asText() : response.path("access_token").asText(null);
+                return token != null ? "Bearer " + token : null;
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void checkStatus(HttpURLConnection connection, String action, int expected) throws IOException {
+        int status = connection.getResponseCode();
+        if (status != expected) {
+            throw new IOException("Cannot " + action + ": HTTP " + status + " " + connection.getResponseMessage());
+        }
+    }
+
+    private String createBasicAuthorization() {
+        if (username == null || password == null) {
+            return null;
+        }
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Local registries are usually not secured by TLS
+    private static String getBaseUrl(String registry) {
+        if (isDockerHub(registry)) {
+            return "https://" + DOCKER_HUB_API_HOST;
+        }
+        String host = registry.contains(":") ? registry.substring(0, registry.indexOf(':')) : registry;
+        boolean local = "localhost".equals(host) || host.startsWith("127.");
+        return (local ? "http://" : "https://") + registry;
+    }
+
+    private static boolean isDockerHub(String registry) {
+        return DOCKER_HUB_REGISTRY.equals(registry) || "index.docker.io".equals(registry) || DOCKER_HUB_API_HOST.equals(registry);
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Streams a build context directory into a (compressed) tar archive without creating an
+ * intermediate copy of the context. The archive can either be written to an output stream or
+ * be read from an input stream, in which case archiving and compression run on a background
+ * thread while the caller consumes the stream, e.g. for uploading it.
+ * <p>
+ * In reproducible mode all entries get the same modification time, owner and normalized
+ * permissions, and files which only carry local state (like <code>.DS_Store</code>) are left out,
+ * so that the same content always results in the same archive.
+ */
+public class BuildContextArchiver {
+
+    public static final int COMPRESSION_NONE = -1;
+
+    private static final int PIPE_BUFFER_SIZE = 1024 * 1024;
+
+    // Files which differ between machines without being part of the content
+    private static final Pattern VOLATILE_FILES =
+        Pattern.compile("\\.DS_Store|Thumbs\\.db|desktop\\.ini|_remote\\.repositories|.*\\.lastUpdated|.*~|\\..*\\.swp");
+
+    private final int compressionLevel;
+    private final int threads;
+    private final Date reproducibleTimestamp;
+
+    /**
+     * Create an archiver
+     *
+     * @param compressionLevel one of the levels as parsed by {@link #parseCompressionLevel(String)}
+     * @param threads number of threads to use for compression
+     */
+    public BuildContextArchiver(int compressionLevel, int threads) {
+        this(compressionLevel, threads, null);
+    }
+
+    /**
+     * Create an archiver
+     *
+     * @param compressionLevel one of the levels as parsed by {@link #parseCompressionLevel(String)}
+     * @param threads number of threads to use for compression
+     * @param reproducibleTimestamp modification time for all entries in reproducible mode, null
+     *                              for keeping the attributes of the files
+     */
+    public BuildContextArchiver(int compressionLevel, int threads, Date reproducibleTimestamp) {
+        this.compressionLevel = compressionLevel;
+        this.threads = threads;
+        this.reproducibleTimestamp = reproducibleTimestamp;
+    }
+
+    /**
+     * Parse a compression level given as <code>none</code>, <code>fast</code>, <code>default</code>,
+     * <code>best</code> or as a number between 0 and 9.
+     *
+     * @param value value to parse, null for the default compression
+     * @return the compression level, {@link #COMPRESSION_NONE} for an uncompressed archive
+     */
+    public static int parseCompressionLevel(String value) {
+        if (value == null || value.trim().isEmpty() || "default".equalsIgnoreCase(value.trim())) {
+            return 6;
+        }
+        String level = value.trim().toLowerCase();
+        if ("none".equals(level)) {
+            return COMPRESSION_NONE;
+        } else if ("fast".equals(level)) {
+            return 1;
+        } else if ("best".equals(level)) {
+            return 9;
+        }
+        try {
+            int ret = Integer.parseInt(level);
+            if (ret >= 0 && ret <= 9) {
+                return ret;
+            }
+        } catch (NumberFormatException exp) {
+            // fall through
+        }
+        throw new IllegalArgumentException(
+            "Invalid compression '" + value + "'. Must be 'none', 'fast', 'default', 'best' or a number between 0 and 9");
+    }
+
+    public boolean isCompressed() {
+        return compressionLevel != COMPRESSION_NONE;
+    }
+
+    /**
+     * Write the content of a directory as archive to a stream. The stream is closed afterwards.
+     *
+     * @param contextDir directory to archive
+     * @param out stream to write to
+     * @throws IOException if reading a file or writing to the stream fails
+     */
+    public void write(File contextDir, OutputStream out) throws IOException {
+        write(contextDir, "", out);
+    }
+
+    /**
+     * Write the content of a directory as archive to a stream, with all entries below a
+     * given path. The stream is closed afterwards.
+     *
+     * @param contextDir directory to archive
+     * @param prefix path within the archive for the content of the directory, e.g. <code>maven/</code>.
+     *               Entries for the directories of the path are added, too.
+     * @param out stream to write to
+     * @throws IOException if reading a file or writing to the stream fails
+     */
+    public void write(File contextDir, String prefix, OutputStream out) throws IOException {
+        OutputStream target = isCompressed() ?
+            new ParallelGzipOutputStream(out, compressionLevel, threads) :
+            new BufferedOutputStream(out, 65536);
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(target)) {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            int slash = prefix.indexOf('/');
+            while (slash > 0) {
+                tar.putArchiveEntry(createEntry(contextDir, prefix.substring(0, slash + 1)));
+                tar.closeArchiveEntry();
+                slash = prefix.indexOf('/', slash + 1);
+            }
+            addDirectoryContent(tar, contextDir, prefix);
+            tar.finish();
+        }
+    }
+
+    /**
+     * Get the archive of a directory as stream. Archiving runs in the background while the
+     * returned stream is read. Errors during archiving are reported when reading the stream.
+     *
+     * @param contextDir directory to archive
+     * @return stream with the archive
+     * @throws IOException if the pipe cannot be set up
+     */
+    public InputStream stream(File contextDir) throws IOException {
+        final PipedInputStream in = new PipedInputStream(PIPE_BUFFER_SIZE);
+        final PipedOutputStream out = new PipedOutputStream(in);
+        final AtomicReference<IOException> error = new AtomicReference<>();
+
+        Thread producer = new Thread(() -> {
+            try {
+                write(contextDir, out);
+            } catch (IOException exp) {
+                error.set(exp);
+                closeQuietly(out);
+            }
+        }, "jshift-context-archiver");
+        producer.setDaemon(true);
+        producer.start();
+
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                return checkError(super.read());
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return checkError(super.read(b, off, len));
+            }
+
+            private int checkError(int result) throws IOException {
+                if (result < 0 && error.get() != null) {
+                    throw new IOException("Cannot archive " + contextDir + ": " + error.get().getMessage(), error.get());
+                }
+                return result;
+            }
+        };
+    }
+
+    // Entries are added sorted by name so that the archive does not depend on the filesystem order
+    private void addDirectoryContent(TarArchiveOutputStream tar, File dir, String prefix) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (isReproducible() && VOLATILE_FILES.matcher(child.getName()).matches()) {
+                continue;
+            }
+            String name = prefix + child.getName();
+            if (child.isDirectory()) {
+                tar.putArchiveEntry(createEntry(child, name + "/"));
+                tar.closeArchiveEntry();
+                addDirectoryContent(tar, child, name + "/");
+            } else {
+                tar.putArchiveEntry(createEntry(child, name));
+                Files.copy(child.toPath(), tar);
+                tar.closeArchiveEntry();
+            }
+        }
+    }
+
+    public boolean isReproducible() {
+        return reproducibleTimestamp != null;
+    }
+
+    protected TarArchiveEntry createEntry(File file, String name) {
+        TarArchiveEntry entry = new TarArchiveEntry(file, name);
+        boolean directory = name.endsWith("/");
+        if (isReproducible()) {
+            entry.setModTime(reproducibleTimestamp);
+            entry.setUserId(0);
+            entry.setGroupId(0);
+            entry.setUserName("");
+            entry.setGroupName("");
+            entry.setMode(directory ? TarArchiveEntry.DEFAULT_DIR_MODE : TarArchiveEntry.DEFAULT_FILE_MODE);
+        }
+        if (!directory && file.isFile() && file.canExecute()) {
+            entry.setMode(TarArchiveEntry.DEFAULT_FILE_MODE | 0111);
+        }
+        return entry;
+    }
+
+    private static void closeQuietly(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException exp) {
+            // ignore, the original error gets reported
+        }
+    }
+}
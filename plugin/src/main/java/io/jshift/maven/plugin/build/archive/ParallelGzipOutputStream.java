@@ -0,0 +1,208 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output stream which compresses blocks of the input on multiple threads, the same way
+ * as <code>pigz</code> does. Each block is deflated independently with the last 32k of the
+ * previous block as preset dictionary and ends on a byte boundary, so the compressed blocks can
+ * simply be concatenated into a single, standard gzip member. The CRC is calculated on the
+ * writing thread. Compressed blocks are written out in order as soon as they are available, so
+ * that a consumer of the underlying stream can work in parallel to the compression.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    private static final int BLOCK_SIZE = 128 * 1024;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte[] GZIP_HEADER = new byte[] {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private final OutputStream out;
+    private final int level;
+    private final ExecutorService executor;
+    private final int maxPendingBlocks;
+
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private long uncompressedSize;
+
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    private byte[] dictionary;
+    private boolean closed;
+
+    /**
+     * Create a gzip stream
+     *
+     * @param out stream to write the compressed data to
+     * @param level deflate level between 0 and 9
+     * @param threads number of threads to use for compression
+     * @throws IOException if the gzip header cannot be written
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, int threads) throws IOException {
+        this.out = out;
+        this.level = level;
+        int poolSize = Math.max(1, threads);
+        this.executor = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "jshift-gzip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxPendingBlocks = poolSize * 2;
+        out.write(GZIP_HEADER);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            int chunk = Math.min(length, BLOCK_SIZE - blockLength);
+            System.arraycopy(data, offset, block, blockLength, chunk);
+            blockLength += chunk;
+            offset += chunk;
+            length -= chunk;
+            if (blockLength == BLOCK_SIZE) {
+                submitBlock(false);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        // Only already compressed data can be flushed without breaking up the block structure
+        writeCompletedBlocks(false);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            submitBlock(true);
+            writeCompletedBlocks(true);
+            writeTrailer();
+            out.close();
+        } finally {
+            closed = true;
+            executor.shutdownNow();
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException {
+        final byte[] input = block;
+        final int inputLength = blockLength;
+        final byte[] presetDictionary = dictionary;
+
+        crc.update(input, 0, inputLength);
+        uncompressedSize += inputLength;
+        if (inputLength > 0) {
+            dictionary = Arrays.copyOfRange(input, Math.max(0, inputLength - DICTIONARY_SIZE), inputLength);
+        }
+        block = new byte[BLOCK_SIZE];
+        blockLength = 0;
+
+        pending.addLast(executor.submit(() -> deflate(input, inputLength, presetDictionary, last)));
+        writeCompletedBlocks(false);
+    }
+
+    private byte[] deflate(byte[] input, int length, byte[] presetDictionary, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (presetDictionary != null) {
+                deflater.setDictionary(presetDictionary);
+            }
+            deflater.setInput(input, 0, length);
+            ByteArrayOutputStream ret = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] buffer = new byte[16384];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buffer);
+                    ret.write(buffer, 0, count);
+                }
+            } else {
+                // Sync flush so that the block ends on a byte boundary and can be concatenated
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    ret.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+            return ret.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Write out all finished blocks in order. If 'all' is set wait for every pending
+    // block, otherwise wait only as long as there are too many blocks in flight.
+    private void writeCompletedBlocks(boolean all) throws IOException {
+        while (!pending.isEmpty() &&
+               (all || pending.size() > maxPendingBlocks || pending.peekFirst().isDone())) {
+            try {
+                out.write(pending.removeFirst().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while compressing");
+            } catch (ExecutionException e) {
+                throw new IOException("Compression failed: " + e.getCause(), e.getCause());
+            }
+        }
+    }
+
+    private void writeTrailer() throws IOException {
+        writeInt((int) crc.getValue());
+        writeInt((int) (uncompressedSize & 0xffffffffL));
+    }
+
+    // Little endian as required by RFC 1952
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream already closed");
+        }
+    }
+}
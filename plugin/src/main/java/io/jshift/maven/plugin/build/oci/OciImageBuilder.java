@@ -0,0 +1,779 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build.oci;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.jshift.kit.build.service.docker.ImageConfiguration;
+import io.jshift.kit.common.KitLogger;
+import io.jshift.kit.config.image.build.Arguments;
+import io.jshift.kit.config.image.build.AssemblyConfiguration;
+import io.jshift.kit.config.image.build.BuildConfiguration;
+import io.jshift.maven.plugin.build.BuildFingerprint;
+import io.jshift.maven.plugin.build.LayeredDockerFile;
+import io.jshift.maven.plugin.build.RegistryClient;
+import io.jshift.maven.plugin.build.archive.BuildContextArchiver;
+import io.jshift.maven.plugin.build.archive.ParallelGzipOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Builds an OCI image without a Docker daemon. The assembly of an image is turned into one layer,
+ * or one layer per directory for a layered assembly, which is put on top of the layers of the base
+ * image as found in the registry. The image is either written as OCI image layout into a tar file
+ * or pushed directly to a registry.
+ * <p>
+ * Layers are cached by the content of their files, so that an unchanged layer is never archived
+ * and compressed again.
+ */
+public class OciImageBuilder {
+
+    public static final String OUTPUT_TAR = "tar";
+    public static final String OUTPUT_REGISTRY = "registry";
+
+    static final String OCI_CONFIG = "application/vnd.oci.image.config.v1+json";
+    static final String OCI_LAYER = "application/vnd.oci.image.layer.v1.tar";
+    static final String OCI_LAYER_GZIP = "application/vnd.oci.image.layer.v1.tar+gzip";
+
+    private static final String SCRATCH_IMAGE = "scratch";
+    private static final String DEFAULT_ASSEMBLY_NAME = "maven";
+    private static final String DEFAULT_TARGET_DIR = "/maven";
+    private static final String LAYER_CACHE_FILE = "layer-cache.properties";
+    private static final String[] LAYER_DIRS = {
+        LayeredDockerFile.DEPENDENCIES_LAYER, LayeredDockerFile.SNAPSHOT_DEPENDENCIES_LAYER, LayeredDockerFile.APPLICATION_LAYER,
+        LayeredDockerFile.CDS_LAYER
+    };
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+    /**
+     * Creates clients for accessing a registry with the credentials configured for it
+     */
+    @FunctionalInterface
+    public interface RegistryClientFactory {
+        RegistryClient create(String registry, boolean push) throws IOException;
+    }
+
+    private final File workDir;
+    private final RegistryClientFactory clientFactory;
+    private final KitLogger log;
+    private final int compressionLevel;
+    private final int threads;
+    private final String platform;
+    private final boolean reproducible;
+
+    private Statistics statistics = new Statistics();
+
+    /**
+     * Sizes and cache hits of the last build
+     */
+    public static class Statistics {
+        private int baseLayers;
+        private int layers;
+        private int reusedLayers;
+        private long baseImageSize;
+        private long compressedSize;
+        private long uncompressedSize;
+        private long pulledBytes;
+        private long pushedBytes;
+
+        public int getBaseLayers() {
+            return baseLayers;
+        }
+
+        /**
+         * @return number of layers created from the assembly
+         */
+        public int getLayers() {
+            return layers;
+        }
+
+        /**
+         * @return number of layers taken from the layer cache
+         */
+        public int getReusedLayers() {
+            return reusedLayers;
+        }
+
+        public long getBaseImageSize() {
+            return baseImageSize;
+        }
+
+        /**
+         * @return size of the layers created from the assembly as stored in the image
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * @return size of the layers created from the assembly as tar, or -1 if unknown for a cached layer
+         */
+        public long getUncompressedSize() {
+            return uncompressedSize;
+        }
+
+        /**
+         * @return bytes of base layers downloaded from the registry
+         */
+        public long getPulledBytes() {
+            return pulledBytes;
+        }
+
+        /**
+         * @return bytes of blobs uploaded to the registry
+         */
+        public long getPushedBytes() {
+            return pushedBytes;
+        }
+    }
+
+    /**
+     * Create a builder
+     *
+     * @param workDir directory for the extracted assembly, the layout and the layer cache of the image
+     * @param clientFactory factory for registry clients
+     * @param log logger
+     * @param compressionLevel layer compression as parsed by {@link BuildContextArchiver#parseCompressionLevel(String)}
+     * @param threads threads to use for compressing layers
+     * @param platform platform to select from a multi-platform base image, like <code>linux/amd64</code>
+     * @param reproducible whether to archive all files with the creation date of the image and normalized
+     *                     owner and permissions, so that the same content results in the same layers
+     */
+    public OciImageBuilder(File workDir, RegistryClientFactory clientFactory, KitLogger log,
+                           int compressionLevel, int threads, String platform, boolean reproducible) {
+        this.workDir = workDir;
+        this.clientFactory = clientFactory;
+        this.log = log;
+        this.compressionLevel = compressionLevel;
+        this.threads = threads;
+        this.platform = platform;
+        this.reproducible = reproducible;
+    }
+
+    /**
+     * Build an image
+     *
+     * @param imageConfig image to build
+     * @param assemblyArchive build archive as created by the assembly manager, holding the assembly below its name
+     * @param created creation date to record in the image
+     * @param output either {@link #OUTPUT_TAR} or {@link #OUTPUT_REGISTRY}
+     * @param defaultRegistry registry to use for images without an explicit registry
+     * @return the created tar file, or null when pushed to a registry
+     * @throws IOException if the image cannot be created
+     */
+    public File build(ImageConfiguration imageConfig, File assemblyArchive, Date created,
+                      String output, String defaultRegistry) throws IOException {
+        statistics = new Statistics();
+        BuildConfiguration buildConfig = imageConfig.getBuildConfiguration();
+        AssemblyConfiguration assembly = buildConfig.getAssemblyConfiguration();
+        String assemblyName = assembly != null && assembly.getName() != null ? assembly.getName() : DEFAULT_ASSEMBLY_NAME;
+        String targetDir = assembly != null && assembly.getTargetDir() != null ? assembly.getTargetDir() : DEFAULT_TARGET_DIR;
+
+        File contextDir = new File(workDir, "context");
+        File blobDir = new File(workDir, "layout/blobs/sha256");
+        mkdirs(blobDir);
+        extractAssembly(assemblyArchive, assemblyName, contextDir);
+
+        // Base image
+        BaseImage base = fetchBaseImage(buildConfig.getFrom(), blobDir);
+        statistics.baseLayers = base.layers.size();
+        for (Descriptor layer : base.layers) {
+            statistics.baseImageSize += layer.size;
+        }
+
+        // Layers of the assembly
+        Date archiveTimestamp = reproducible ? created : null;
+        List<Layer> layers = new ArrayList<>();
+        Properties layerCache = loadLayerCache();
+        int rebuilt = 0;
+        for (File layerDir : getLayerDirs(contextDir)) {
+            Layer layer = createLayer(layerDir, toArchivePath(targetDir), blobDir, layerCache, archiveTimestamp);
+            rebuilt += layer.rebuilt ? 1 : 0;
+            layers.add(layer);
+            addToStatistics(layer);
+        }
+        storeLayerCache(layerCache);
+
+        // Configuration and manifest
+        byte[] config = MAPPER.writeValueAsBytes(createConfig(base.config, buildConfig, layers, created));
+        Descriptor configDescriptor = writeBlob(blobDir, config, OCI_CONFIG);
+        byte[] manifest = MAPPER.writeValueAsBytes(createManifest(configDescriptor, base.layers, layers));
+        Descriptor manifestDescriptor = writeBlob(blobDir, manifest, RegistryClient.OCI_MANIFEST);
+        log.info("%s : Created image %s with %d layers (%d rebuilt)", imageConfig.getDescription(),
+                 manifestDescriptor.digest, base.layers.size() + layers.size(), rebuilt);
+
+        List<String> tags = new ArrayList<>();
+        RegistryClient.ImageReference target = RegistryClient.parse(imageConfig.getName(), defaultRegistry);
+        tags.add(target.getReference());
+        if (buildConfig.getTags() != null) {
+            tags.addAll(buildConfig.getTags());
+        }
+
+        if (OUTPUT_REGISTRY.equals(output)) {
+            push(target, tags, base, layers, configDescriptor, manifest, blobDir);
+            return null;
+        }
+        ensureBaseLayers(base, blobDir);
+        Set<String> referenced = new HashSet<>();
+        referenced.add(configDescriptor.digest);
+        referenced.add(manifestDescriptor.digest);
+        for (Descriptor layer : base.layers) {
+            referenced.add(layer.digest);
+        }
+        for (Layer layer : layers) {
+            referenced.add(layer.descriptor.digest);
+        }
+        pruneBlobs(blobDir, referenced);
+        return writeLayoutArchive(manifestDescriptor, tags, archiveTimestamp);
+    }
+
+    /**
+     * Get the statistics of the last build
+     *
+     * @return layer sizes and cache hits
+     */
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    private void addToStatistics(Layer layer) {
+        statistics.layers++;
+        statistics.reusedLayers += layer.rebuilt ? 0 : 1;
+        statistics.compressedSize += layer.descriptor.size;
+        if (layer.uncompressedSize < 0 || statistics.uncompressedSize < 0) {
+            statistics.uncompressedSize = -1;
+        } else {
+            statistics.uncompressedSize += layer.uncompressedSize;
+        }
+    }
+
+    // ==============================================================================================
+
+    private static class Descriptor {
+        private final String mediaType;
+        private final String digest;
+        private final long size;
+
+        private Descriptor(String mediaType, String digest, long size) {
+            this.mediaType = mediaType;
+            this.digest = digest;
+            this.size = size;
+        }
+
+        private ObjectNode toJson() {
+            ObjectNode ret = MAPPER.createObjectNode();
+            ret.put("mediaType", mediaType);
+            ret.put("digest", digest);
+            ret.put("size", size);
+            return ret;
+        }
+    }
+
+    private static class Layer {
+        private final Descriptor descriptor;
+        private final String diffId;
+        private final String createdBy;
+        private final boolean rebuilt;
+        private final long uncompressedSize;
+
+        private Layer(Descriptor descriptor, String diffId, String createdBy, boolean rebuilt, long uncompressedSize) {
+            this.descriptor = descriptor;
+            this.diffId = diffId;
+            this.createdBy = createdBy;
+            this.rebuilt = rebuilt;
+            this.uncompressedSize = uncompressedSize;
+        }
+    }
+
+    // Counts the bytes written to the uncompressed layer
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static class BaseImage {
+        private final RegistryClient.ImageReference reference;
+        private final ObjectNode config;
+        private final List<Descriptor> layers;
+
+        private BaseImage(RegistryClient.ImageReference reference, ObjectNode config, List<Descriptor> layers) {
+            this.reference = reference;
+            this.config = config;
+            this.layers = layers;
+        }
+    }
+
+    // Extract the files of the assembly from the build archive, dropping the Dockerfile
+    private void extractAssembly(File archive, String assemblyName, File contextDir) throws IOException {
+        deleteDirectory(contextDir);
+        mkdirs(contextDir);
+        String prefix = assemblyName + "/";
+        try (InputStream in = openArchive(archive);
+             TarArchiveInputStream tar = new TarArchiveInputStream(in)) {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextTarEntry()) != null) {
+                String name = entry.getName().startsWith("./") ? entry.getName().substring(2) : entry.getName();
+                if (!name.startsWith(prefix) || name.length() == prefix.length()) {
+                    continue;
+                }
+                File target = new File(contextDir, name.substring(prefix.length()));
+                if (!target.getCanonicalPath().startsWith(contextDir.getCanonicalPath() + File.separator)) {
+                    throw new IOException("Invalid entry " + entry.getName() + " in " + archive);
+                }
+                if (entry.isSymbolicLink() || entry.isLink()) {
+                    log.warn("Ignoring link %s in assembly", entry.getName());
+                    continue;
+                } else if (entry.isDirectory()) {
+                    mkdirs(target);
+                } else {
+                    mkdirs(target.getParentFile());
+                    Files.copy(tar, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    if ((entry.getMode() & 0100) != 0) {
+                        target.setExecutable(true, false);
+                    }
+                }
+                target.setLastModified(entry.getModTime().getTime());
+            }
+        }
+    }
+
+    private InputStream openArchive(File archive) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(archive.toPath()), 65536);
+        in.mark(2);
+        int magic = in.read() | (in.read() << 8);
+        in.reset();
+        return magic == GZIPInputStream.GZIP_MAGIC ? new GZIPInputStream(in, 65536) : in;
+    }
+
+    // A layered assembly gets one layer per layer directory, any other assembly a single layer
+    private List<File> getLayerDirs(File contextDir) {
+        File[] children = contextDir.listFiles();
+        List<String> layerNames = Arrays.asList(LAYER_DIRS);
+        boolean layered = children != null && children.length > 0;
+        if (children != null) {
+            for (File child : children) {
+                layered &= child.isDirectory() && layerNames.contains(child.getName());
+            }
+        }
+        List<File> ret = new ArrayList<>();
+        if (!layered) {
+            ret.add(contextDir);
+            return ret;
+        }
+        for (String layerName : LAYER_DIRS) {
+            File layerDir = new File(contextDir, layerName);
+            if (layerDir.exists()) {
+                ret.add(layerDir);
+            }
+        }
+        return ret;
+    }
+
+    private Layer createLayer(File layerDir, String prefix, File blobDir, Properties layerCache,
+                              Date archiveTimestamp) throws IOException {
+        String fingerprint = new BuildFingerprint()
+            .add("prefix", prefix)
+            .add("compression", Integer.toString(compressionLevel))
+            .add("timestamp", archiveTimestamp != null ? Long.toString(archiveTimestamp.getTime()) : "")
+            .addFile(layerDir)
+            .get();
+        String createdBy = "jshift: COPY " + layerDir.getName() + " /" + prefix;
+        String mediaType = compressionLevel == BuildContextArchiver.COMPRESSION_NONE ? OCI_LAYER : OCI_LAYER_GZIP;
+
+        String cached = layerCache.getProperty(fingerprint);
+        if (cached != null) {
+            String[] parts = cached.split(" ");
+            // The uncompressed size is missing in entries of older plugin versions
+            if (parts.length >= 3 && new File(blobDir, stripAlgorithm(parts[0])).exists()) {
+                return new Layer(new Descriptor(mediaType, parts[0], Long.parseLong(parts[2])), parts[1], createdBy, false,
+                                 parts.length > 3 ? Long.parseLong(parts[3]) : -1);
+            }
+        }
+
+        MessageDigest compressedDigest = createDigest();
+        MessageDigest uncompressedDigest = createDigest();
+        Path tmp = Files.createTempFile(blobDir.toPath(), "layer", ".tmp");
+        try {
+            CountingOutputStream uncompressed;
+            try (OutputStream file = new DigestOutputStream(Files.newOutputStream(tmp), compressedDigest)) {
+                OutputStream layerOut = compressionLevel == BuildContextArchiver.COMPRESSION_NONE ?
+                    file : new ParallelGzipOutputStream(file, compressionLevel, threads);
+                uncompressed = new CountingOutputStream(new DigestOutputStream(layerOut, uncompressedDigest));
+                new BuildContextArchiver(BuildContextArchiver.COMPRESSION_NONE, 1, archiveTimestamp)
+                    .write(layerDir, prefix, uncompressed);
+            }
+            String digest = "sha256:" + toHex(compressedDigest.digest());
+            String diffId = compressionLevel == BuildContextArchiver.COMPRESSION_NONE ?
+                digest : "sha256:" + toHex(uncompressedDigest.digest());
+            long size = Files.size(tmp);
+            Files.move(tmp, new File(blobDir, stripAlgorithm(digest)).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            layerCache.setProperty(fingerprint, digest + " " + diffId + " " + size + " " + uncompressed.count);
+            return new Layer(new Descriptor(mediaType, digest, size), diffId, createdBy, true, uncompressed.count);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private BaseImage fetchBaseImage(String from, File blobDir) throws IOException {
+        if (from == null || SCRATCH_IMAGE.equals(from)) {
+            ObjectNode config = MAPPER.createObjectNode();
+            String[] osArch = platform.split("/");
+            config.put("os", osArch[0]);
+            config.put("architecture", osArch.length > 1 ? osArch[1] : "amd64");
+            return new BaseImage(null, config, new ArrayList<>());
+        }
+        RegistryClient.ImageReference reference = RegistryClient.parse(from, null);
+        RegistryClient client = clientFactory.create(reference.getRegistry(), false);
+        JsonNode manifest = client.getManifestContent(reference);
+        String mediaType = manifest.path("mediaType").asText();
+        if (RegistryClient.MANIFEST_LIST_V2.equals(mediaType) || RegistryClient.OCI_INDEX.equals(mediaType)) {
+            manifest = client.getManifestContent(reference.withTag(selectPlatform(manifest, from)));
+        }
+        String configDigest = manifest.path("config").path("digest").asText(null);
+        if (configDigest == null) {
+            throw new IOException("Base image " + from + " has no image configuration (unsupported manifest " + mediaType + ")");
+        }
+        File configFile = new File(blobDir, stripAlgorithm(configDigest));
+        if (!configFile.exists()) {
+            client.getBlob(reference, configDigest, configFile);
+        }
+        List<Descriptor> layers = new ArrayList<>();
+        for (JsonNode layer : manifest.path("layers")) {
+            layers.add(new Descriptor(toOciMediaType(layer.path("mediaType").asText()),
+                                      layer.path("digest").asText(), layer.path("size").asLong()));
+        }
+        return new BaseImage(reference, (ObjectNode) MAPPER.readTree(configFile), layers);
+    }
+
+    private String selectPlatform(JsonNode index, String from) throws IOException {
+        String[] osArch = platform.split("/");
+        for (JsonNode manifest : index.path("manifests")) {
+            JsonNode manifestPlatform = manifest.path("platform");
+            if (osArch[0].equals(manifestPlatform.path("os").asText()) &&
+                (osArch.length < 2 || osArch[1].equals(manifestPlatform.path("architecture").asText()))) {
+                return manifest.path("digest").asText();
+            }
+        }
+        throw new IOException("Base image " + from + " is not available for platform " + platform);
+    }
+
+    // Docker layer media types have the same content as their OCI counterparts
+    private static String toOciMediaType(String mediaType) {
+        if ("application/vnd.docker.image.rootfs.diff.tar.gzip".equals(mediaType)) {
+            return OCI_LAYER_GZIP;
+        } else if ("application/vnd.docker.image.rootfs.diff.tar".equals(mediaType)) {
+            return OCI_LAYER;
+        }
+        return mediaType;
+    }
+
+    private ObjectNode createConfig(ObjectNode baseConfig, BuildConfiguration buildConfig, List<Layer> layers, Date created) {
+        ObjectNode ret = baseConfig.deepCopy();
+        String createdDate = formatDate(created);
+        ret.put("created", createdDate);
+        ret.remove("container");
+        ret.remove("container_config");
+
+        ObjectNode config = ret.has("config") && ret.get("config").isObject() ? (ObjectNode) ret.get("config") : ret.putObject("config");
+        if (buildConfig.getEnv() != null && !buildConfig.getEnv().isEmpty()) {
+            ArrayNode env = MAPPER.createArrayNode();
+            for (JsonNode value : config.path("Env")) {
+                String name = value.asText().split("=", 2)[0];
+                if (!buildConfig.getEnv().containsKey(name)) {
+                    env.add(value.asText());
+                }
+            }
+            for (Map.Entry<String, String> entry : buildConfig.getEnv().entrySet()) {
+                env.add(entry.getKey() + "=" + (entry.getValue() != null ? entry.getValue() : ""));
+            }
+            config.set("Env", env);
+        }
+        if (buildConfig.getLabels() != null && !buildConfig.getLabels().isEmpty()) {
+            ObjectNode labels = config.has("Labels") && config.get("Labels").isObject() ?
+                (ObjectNode) config.get("Labels") : config.putObject("Labels");
+            for (Map.Entry<String, String> entry : buildConfig.getLabels().entrySet()) {
+                labels.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (buildConfig.getPorts() != null && !buildConfig.getPorts().isEmpty()) {
+            ObjectNode ports = config.has("ExposedPorts") && config.get("ExposedPorts").isObject() ?
+                (ObjectNode) config.get("ExposedPorts") : config.putObject("ExposedPorts");
+            for (String port : buildConfig.getPorts()) {
+                ports.putObject(port.contains("/") ? port : port + "/tcp");
+            }
+        }
+        if (buildConfig.getWorkdir() != null) {
+            config.put("WorkingDir", buildConfig.getWorkdir());
+        }
+        if (buildConfig.getUser() != null) {
+            config.put("User", buildConfig.getUser());
+        }
+        // As with a Dockerfile, a new entrypoint resets the command of the base image
+        if (buildConfig.getEntryPoint() != null) {
+            config.set("Entrypoint", toJson(buildConfig.getEntryPoint()));
+            config.remove("Cmd");
+        }
+        if (buildConfig.getCmd() != null) {
+            config.set("Cmd", toJson(buildConfig.getCmd()));
+        }
+
+        ObjectNode rootfs = ret.has("rootfs") && ret.get("rootfs").isObject() ? (ObjectNode) ret.get("rootfs") : ret.putObject("rootfs");
+        rootfs.put("type", "layers");
+        ArrayNode diffIds = rootfs.has("diff_ids") && rootfs.get("diff_ids").isArray() ?
+            (ArrayNode) rootfs.get("diff_ids") : rootfs.putArray("diff_ids");
+        ArrayNode history = ret.has("history") && ret.get("history").isArray() ?
+            (ArrayNode) ret.get("history") : ret.putArray("history");
+        for (Layer layer : layers) {
+            diffIds.add(layer.diffId);
+            ObjectNode entry = history.addObject();
+            entry.put("created", createdDate);
+            entry.put("created_by", layer.createdBy);
+        }
+        return ret;
+    }
+
+    private ArrayNode toJson(Arguments arguments) {
+        ArrayNode ret = MAPPER.createArrayNode();
+        if (arguments.getShell() != null) {
+            ret.add("/bin/sh").add("-c").add(arguments.getShell());
+        } else if (arguments.getExec() != null) {
+            for (String arg : arguments.getExec()) {
+                ret.add(arg);
+            }
+        }
+        return ret;
+    }
+
+    private ObjectNode createManifest(Descriptor config, List<Descriptor> baseLayers, List<Layer> layers) {
+        ObjectNode ret = MAPPER.createObjectNode();
+        ret.put("schemaVersion", 2);
+        ret.put("mediaType", RegistryClient.OCI_MANIFEST);
+        ret.set("config", config.toJson());
+        ArrayNode layerArray = ret.putArray("layers");
+        for (Descriptor layer : baseLayers) {
+            layerArray.add(layer.toJson());
+        }
+        for (Layer layer : layers) {
+            layerArray.add(layer.descriptor.toJson());
+        }
+        return ret;
+    }
+
+    // Upload everything the registry does not have yet, mounting base layers when on the same registry
+    private void push(RegistryClient.ImageReference target, List<String> tags, BaseImage base, List<Layer> layers,
+                      Descriptor config, byte[] manifest, File blobDir) throws IOException {
+        RegistryClient client = clientFactory.create(target.getRegistry(), true);
+        int uploaded = 0;
+        for (Descriptor layer : base.layers) {
+            if (client.hasBlob(target, layer.digest)) {
+                continue;
+            }
+            if (target.getRegistry().equals(base.reference.getRegistry()) &&
+                client.mountBlob(target, layer.digest, base.reference.getRepository())) {
+                continue;
+            }
+            File blob = ensureBlob(base, layer, blobDir);
+            client.uploadBlob(target, layer.digest, blob);
+            statistics.pushedBytes += blob.length();
+            uploaded++;
+        }
+        List<Descriptor> blobs = new ArrayList<>();
+        for (Layer layer : layers) {
+            blobs.add(layer.descriptor);
+        }
+        blobs.add(config);
+        for (Descriptor blob : blobs) {
+            if (!client.hasBlob(target, blob.digest)) {
+                client.uploadBlob(target, blob.digest, new File(blobDir, stripAlgorithm(blob.digest)));
+                statistics.pushedBytes += blob.size;
+                uploaded++;
+            }
+        }
+        for (String tag : tags) {
+            client.putManifest(target.withTag(tag), RegistryClient.OCI_MANIFEST, manifest);
+        }
+        log.info("Pushed %s with tags %s (%d blobs uploaded)", target, tags, uploaded);
+    }
+
+    private void ensureBaseLayers(BaseImage base, File blobDir) throws IOException {
+        for (Descriptor layer : base.layers) {
+            ensureBlob(base, layer, blobDir);
+        }
+    }
+
+    private File ensureBlob(BaseImage base, Descriptor layer, File blobDir) throws IOException {
+        File blob = new File(blobDir, stripAlgorithm(layer.digest));
+        if (!blob.exists()) {
+            log.info("Downloading base layer %s", layer.digest);
+            clientFactory.create(base.reference.getRegistry(), false).getBlob(base.reference, layer.digest, blob);
+            statistics.pulledBytes += blob.length();
+        }
+        return blob;
+    }
+
+    // Write the OCI layout with the index and archive it next to the work directory
+    private File writeLayoutArchive(Descriptor manifest, List<String> tags, Date archiveTimestamp) throws IOException {
+        File layoutDir = new File(workDir, "layout");
+        ObjectNode layout = MAPPER.createObjectNode();
+        layout.put("imageLayoutVersion", "1.0.0");
+        Files.write(new File(layoutDir, "oci-layout").toPath(), MAPPER.writeValueAsBytes(layout));
+
+        ObjectNode index = MAPPER.createObjectNode();
+        index.put("schemaVersion", 2);
+        ArrayNode manifests = index.putArray("manifests");
+        for (String tag : tags) {
+            ObjectNode entry = manifest.toJson();
+            entry.putObject("annotations").put("org.opencontainers.image.ref.name", tag);
+            manifests.add(entry);
+        }
+        Files.write(new File(layoutDir, "index.json").toPath(), MAPPER.writeValueAsBytes(index));
+
+        File ret = new File(workDir.getParentFile(), workDir.getName() + ".tar");
+        try (OutputStream out = Files.newOutputStream(ret.toPath())) {
+            new BuildContextArchiver(BuildContextArchiver.COMPRESSION_NONE, 1, archiveTimestamp).write(layoutDir, out);
+        }
+        return ret;
+    }
+
+    // Remove blobs of earlier builds so that they do not end up in the archive
+    private void pruneBlobs(File blobDir, Set<String> referenced) throws IOException {
+        File[] blobs = blobDir.listFiles();
+        if (blobs != null) {
+            for (File blob : blobs) {
+                if (!referenced.contains("sha256:" + blob.getName())) {
+                    Files.deleteIfExists(blob.toPath());
+                }
+            }
+        }
+    }
+
+    private Descriptor writeBlob(File blobDir, byte[] content, String mediaType) throws IOException {
+        MessageDigest digest = createDigest();
+        String hash = toHex(digest.digest(content));
+        Files.write(new File(blobDir, hash).toPath(), content);
+        return new Descriptor(mediaType, "sha256:" + hash, content.length);
+    }
+
+    private Properties loadLayerCache() {
+        Properties ret = new Properties();
+        File file = new File(workDir, LAYER_CACHE_FILE);
+        if (file.exists()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                ret.load(in);
+            } catch (IOException exp) {
+                // Only a cache, all layers get rebuilt
+                ret.clear();
+            }
+        }
+        return ret;
+    }
+
+    private void storeLayerCache(Properties cache) throws IOException {
+        try (OutputStream out = Files.newOutputStream(new File(workDir, LAYER_CACHE_FILE).toPath())) {
+            cache.store(out, "Layers by fingerprint of their content: digest diffId size uncompressedSize");
+        }
+    }
+
+    private static String toArchivePath(String targetDir) {
+        String ret = targetDir.startsWith("/") ? targetDir.substring(1) : targetDir;
+        return ret.isEmpty() || ret.endsWith("/") ? ret : ret + "/";
+    }
+
+    private static String formatDate(Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-256 algorithm available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder ret = new StringBuilder();
+        for (byte b : bytes) {
+            ret.append(String.format("%02x", b));
+        }
+        return ret.toString();
+    }
+
+    private static String stripAlgorithm(String digest) {
+        return digest.startsWith("sha256:") ? digest.substring("sha256:".length()) : digest;
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+    }
+
+    private static void deleteDirectory(File dir) throws IOException {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteDirectory(child);
+            }
+        }
+        Files.deleteIfExists(dir.toPath());
+    }
+}
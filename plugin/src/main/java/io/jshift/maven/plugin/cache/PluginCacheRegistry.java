@@ -0,0 +1,206 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.cache;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches for expensive lookups which survive across builds running in the same JVM, like with a
+ * Maven daemon. The registry lives in the class loader of the plugin, so a different plugin
+ * version always starts with empty caches.
+ * <p>
+ * Values are kept per region and key together with a validation key, e.g. a hash over the files
+ * the value has been computed from. A value is only returned when the validation key still
+ * matches, otherwise it is computed again. Each region keeps at most a fixed number of entries,
+ * evicting the least recently used one, and values are softly referenced so that they can be
+ * reclaimed when memory gets low.
+ */
+public class PluginCacheRegistry {
+
+    /**
+     * Default maximum number of entries per region
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static final PluginCacheRegistry INSTANCE = new PluginCacheRegistry(DEFAULT_MAX_ENTRIES);
+
+    private final int maxEntries;
+    private final Map<String, Region> regions = new ConcurrentHashMap<>();
+
+    /**
+     * Computes a value which is not cached yet
+     */
+    @FunctionalInterface
+    public interface Loader<T, E extends Exception> {
+        T load() throws E;
+    }
+
+    PluginCacheRegistry(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Get the registry shared by all builds of this JVM
+     *
+     * @return the registry
+     */
+    public static PluginCacheRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get a cached value, or compute and cache it if there is none or if it has been computed
+     * for a different validation key
+     *
+     * @param region name of the cache, e.g. what kind of values it holds
+     * @param key key of the value within the region
+     * @param validationKey key which changes whenever the value needs to be computed again
+     * @param loader computes the value, must not return null
+     * @return the cached or computed value
+     * @throws E if the value cannot be computed
+     */
+    public <T, E extends Exception> T get(String region, String key, String validationKey, Loader<T, E> loader) throws E {
+        Region cache = regions.computeIfAbsent(region, name -> new Region(maxEntries));
+        Object value = cache.get(key, validationKey);
+        if (value != null) {
+            @SuppressWarnings("unchecked")
+            T ret = (T) value;
+            return ret;
+        }
+        // Computed outside of any lock, concurrent builds may compute the same value twice
+        T ret = loader.load();
+        if (ret != null) {
+            cache.put(key, validationKey, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Add or replace a value
+     *
+     * @param region name of the cache
+     * @param key key of the value within the region
+     * @param validationKey key which changes whenever the value needs to be computed again
+     * @param value value to cache
+     */
+    public void put(String region, String key, String validationKey, Object value) {
+        regions.computeIfAbsent(region, name -> new Region(maxEntries)).put(key, validationKey, value);
+    }
+
+    /**
+     * Remove all values of a region
+     *
+     * @param region region to clear
+     */
+    public void invalidate(String region) {
+        Region cache = regions.get(region);
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Remove all cached values
+     */
+    public void invalidateAll() {
+        for (Region cache : regions.values()) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Get the statistics of all regions, sorted by name
+     *
+     * @return one line per region
+     */
+    public List<String> getStatistics() {
+        List<String> ret = new ArrayList<>();
+        for (Map.Entry<String, Region> entry : new TreeMap<>(regions).entrySet()) {
+            ret.add(entry.getKey() + ": " + entry.getValue().getStatistics());
+        }
+        return ret;
+    }
+
+    // ==============================================================================================
+
+    private static class Region {
+        private final LinkedHashMap<String, Entry> entries;
+
+        private int hits;
+        private int misses;
+        private int stale;
+        private int evictions;
+
+        private Region(final int maxEntries) {
+            entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > maxEntries) {
+                        evictions++;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private synchronized Object get(String key, String validationKey) {
+            Entry entry = entries.get(key);
+            Object value = entry != null ? entry.value.get() : null;
+            if (value == null) {
+                misses++;
+                return null;
+            }
+            if (!Objects.equals(entry.validationKey, validationKey)) {
+                stale++;
+                entries.remove(key);
+                return null;
+            }
+            hits++;
+            return value;
+        }
+
+        private synchronized void put(String key, String validationKey, Object value) {
+            entries.put(key, new Entry(validationKey, value));
+        }
+
+        private synchronized void clear() {
+            entries.clear();
+        }
+
+        private synchronized String getStatistics() {
+            return String.format("%d entries, %d hits, %d misses, %d stale, %d evicted",
+                                 entries.size(), hits, misses, stale, evictions);
+        }
+    }
+
+    private static class Entry {
+        private final String validationKey;
+        private final SoftReference<Object> value;
+
+        private Entry(String validationKey, Object value) {
+            this.validationKey = validationKey;
+            this.value = new SoftReference<>(value);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.cache;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.jshift.kit.config.resource.ProcessorConfig;
+import io.jshift.kit.profile.Profile;
+import io.jshift.kit.profile.ProfileUtil;
+import io.jshift.maven.plugin.build.BuildFingerprint;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Memoizes the profile lookups of {@link ProfileUtil}, which read and parse the profiles from the
+ * classpath and from the resource directory and resolve their <code>extends</code> chains on every
+ * call. Profiles and blended processor configurations are computed once per resource directory
+ * and looked up again as long as the profile files in the resource directory are unchanged. The
+ * profiles on the classpath cannot change while the plugin is loaded.
+ * <p>
+ * Callers get their own copy of a cached profile or configuration, so that a caller changing it
+ * does not change what other modules or goals get.
+ */
+public class ProfileRegistry {
+
+    static final String PROFILE_REGION = "profiles";
+    static final String BLENDED_CONFIG_REGION = "blendedProcessorConfigs";
+
+    // Prefix of the profile files in a resource directory, like profiles.yml or profiles.yaml
+    private static final String PROFILES_FILE_PREFIX = "profiles";
+
+    // Copies by fields, which hold the whole state of profiles and processor configurations
+    private static final ObjectMapper COPY_MAPPER = new ObjectMapper()
+        .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+        .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+        .configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+
+    private ProfileRegistry() { }
+
+    /**
+     * Find a profile, as {@link ProfileUtil#findProfile(String, File)}
+     *
+     * @param name name of the profile
+     * @param resourceDir resource directory which may hold profiles
+     * @return the profile with its extended profiles merged or null if there is no such profile
+     * @throws IOException if the profiles cannot be read
+     */
+    public static Profile findProfile(String name, File resourceDir) throws IOException {
+        return copy(PluginCacheRegistry.getInstance().get(PROFILE_REGION, name + "|" + getPath(resourceDir),
+                                                          getValidationKey(resourceDir),
+                                                          () -> ProfileUtil.findProfile(name, resourceDir)), Profile.class);
+    }
+
+    /**
+     * Blend a profile with a configuration, as
+     * {@link ProfileUtil#blendProfileWithConfiguration(ProfileUtil.ProcessorConfigurationExtractor, String, File, ProcessorConfig)}
+     *
+     * @param extractor either {@link ProfileUtil#ENRICHER_CONFIG} or {@link ProfileUtil#GENERATOR_CONFIG}
+     * @param profile name of the profile, can be null
+     * @param resourceDir resource directory which may hold profiles
+     * @param config configuration from the plugin
+     * @return the blended configuration
+     * @throws IOException if the profiles cannot be read
+     */
+    public static ProcessorConfig blendProfileWithConfiguration(ProfileUtil.ProcessorConfigurationExtractor extractor,
+                                                                String profile, File resourceDir,
+                                                                ProcessorConfig config) throws IOException {
+        String type = extractor == ProfileUtil.ENRICHER_CONFIG ? "enricher" :
+                      extractor == ProfileUtil.GENERATOR_CONFIG ? "generator" : null;
+        if (type == null) {
+            return ProfileUtil.blendProfileWithConfiguration(extractor, profile, resourceDir, config);
+        }
+        String key = new BuildFingerprint()
+            .add("type", type)
+            .add("profile", profile)
+            .add("resourceDir", getPath(resourceDir))
+            .addObject("config", config)
+            .get();
+        return copy(PluginCacheRegistry.getInstance().get(BLENDED_CONFIG_REGION, key, getValidationKey(resourceDir),
+                                                          () -> ProfileUtil.blendProfileWithConfiguration(extractor, profile, resourceDir, config)),
+                    ProcessorConfig.class);
+    }
+
+    private static <T> T copy(T value, Class<T> type) throws IOException {
+        return value != null ? COPY_MAPPER.readValue(COPY_MAPPER.writeValueAsBytes(value), type) : null;
+    }
+
+    private static String getPath(File resourceDir) {
+        return resourceDir != null ? resourceDir.getAbsolutePath() : "";
+    }
+
+    // Hash over the profile files in the resource directory
+    private static String getValidationKey(File resourceDir) throws IOException {
+        BuildFingerprint ret = new BuildFingerprint();
+        File[] profileFiles = resourceDir != null ?
+            resourceDir.listFiles(file -> file.isFile() && file.getName().startsWith(PROFILES_FILE_PREFIX)) : null;
+        if (profileFiles != null) {
+            Arrays.sort(profileFiles);
+            for (File profileFile : profileFiles) {
+                ret.addFile(profileFile);
+            }
+        }
+        return ret.get();
+    }
+}
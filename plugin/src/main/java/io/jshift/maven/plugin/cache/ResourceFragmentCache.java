@@ -0,0 +1,190 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.cache;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
+import io.jshift.kit.common.KitLogger;
+import io.jshift.maven.plugin.build.BuildFingerprint;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cache for resource fragments parsed into model objects. Fragments are looked up by a hash over
+ * their filtered content, their file name (which determines kind and name) and the parse context
+ * like the platform mode. Parsed fragments are kept in memory across builds of the same JVM and
+ * as JSON in a cache directory for the next build. Fragments not found in the cache are parsed in
+ * parallel, the returned resources keep the order of the fragments.
+ * <p>
+ * Resources are cached in their JSON form, so every build gets its own objects to enrich.
+ * <p>
+ * Without a cache directory, parsed fragments are only kept by this cache object. This is used to
+ * parse fragments which are the same in several environments of a single build only once.
+ */
+public class ResourceFragmentCache {
+
+    static final String REGION = "resourceFragments";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<List<HasMetadata>> RESOURCE_LIST = new TypeReference<List<HasMetadata>>() { };
+
+    private final File cacheDir;
+    private final KitLogger log;
+    // Parsed fragments by key when there is no cache directory
+    private final Map<String, String> parsed = new ConcurrentHashMap<>();
+
+    /**
+     * Parses a single (filtered) fragment
+     */
+    @FunctionalInterface
+    public interface FragmentParser {
+        List<HasMetadata> parse(File fragment) throws IOException;
+    }
+
+    /**
+     * Create a cache
+     *
+     * @param cacheDir directory for keeping the parsed fragments across builds, null for keeping them only in this object
+     * @param log logger
+     */
+    public ResourceFragmentCache(File cacheDir, KitLogger log) {
+        this.cacheDir = cacheDir;
+        this.log = log;
+    }
+
+    /**
+     * Read fragments from the cache, parsing the ones not cached yet
+     *
+     * @param fragments filtered fragment files
+     * @param context everything besides the fragment which influences the parsing, like the platform mode
+     * @param parser parser for fragments not cached yet
+     * @return builder holding the resources of all fragments in the order of the fragments
+     * @throws IOException if a fragment cannot be read or parsed
+     */
+    public KubernetesListBuilder read(File[] fragments, String context, FragmentParser parser) throws IOException {
+        String[] keys = new String[fragments.length];
+        String[] resources = new String[fragments.length];
+        List<Integer> uncached = new ArrayList<>();
+        for (int i = 0; i < fragments.length; i++) {
+            keys[i] = new BuildFingerprint()
+                .add("context", context)
+                .add("name", fragments[i].getName())
+                .addFile(fragments[i])
+                .get();
+            resources[i] = lookup(keys[i]);
+            if (resources[i] == null) {
+                uncached.add(i);
+            }
+        }
+        log.verbose("Resource fragments: %d cached, %d to parse", fragments.length - uncached.size(), uncached.size());
+
+        if (uncached.size() == 1) {
+            int index = uncached.get(0);
+            resources[index] = store(keys[index], parser.parse(fragments[index]));
+        } else if (uncached.size() > 1) {
+            parseInParallel(fragments, keys, resources, uncached, parser);
+        }
+
+        KubernetesListBuilder ret = new KubernetesListBuilder();
+        for (String json : resources) {
+            for (HasMetadata item : MAPPER.readValue(json, RESOURCE_LIST)) {
+                ret.addToItems(item);
+            }
+        }
+        return ret;
+    }
+
+    private void parseInParallel(File[] fragments, String[] keys, String[] resources, List<Integer> uncached,
+                                 FragmentParser parser) throws IOException {
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        ExecutorService executor =
+            Executors.newFixedThreadPool(Math.min(uncached.size(), Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "jshift-fragment-parser");
+                thread.setContextClassLoader(contextClassLoader);
+                thread.setDaemon(true);
+                return thread;
+            });
+        try {
+            List<CompletableFuture<Void>> parses = new ArrayList<>();
+            for (int index : uncached) {
+                parses.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        resources[index] = store(keys[index], parser.parse(fragments[index]));
+                    } catch (IOException exp) {
+                        throw new CompletionException(exp);
+                    }
+                }, executor));
+            }
+            // join() also makes the results written by the parser threads visible
+            CompletableFuture.allOf(parses.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException exp) {
+            if (exp.getCause() instanceof IOException) {
+                throw (IOException) exp.getCause();
+            }
+            if (exp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exp.getCause();
+            }
+            throw exp;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // JSON of the cached resources, from memory or from the cache directory
+    private String lookup(String key) throws IOException {
+        if (cacheDir == null) {
+            return parsed.get(key);
+        }
+        return PluginCacheRegistry.getInstance().get(REGION, key, key, () -> {
+            File file = new File(cacheDir, key + ".json");
+            return file.exists() ? new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8) : null;
+        });
+    }
+
+    private String store(String key, List<HasMetadata> items) throws IOException {
+        String json = MAPPER.writeValueAsString(items);
+        if (cacheDir == null) {
+            parsed.put(key, json);
+            return json;
+        }
+        PluginCacheRegistry.getInstance().put(REGION, key, key, json);
+        Files.createDirectories(cacheDir.toPath());
+        // Written atomically, as modules built in parallel may share fragments
+        Path tmp = Files.createTempFile(cacheDir.toPath(), key, ".tmp");
+        try {
+            Files.write(tmp, json.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, new File(cacheDir, key + ".json").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return json;
+    }
+}
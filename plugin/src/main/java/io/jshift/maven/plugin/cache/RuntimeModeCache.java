@@ -0,0 +1,96 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.cache;
+
+import io.jshift.kit.common.KitLogger;
+import io.jshift.kit.config.access.ClusterAccess;
+import io.jshift.kit.config.resource.RuntimeMode;
+import io.jshift.maven.plugin.build.BuildFingerprint;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Remembers the runtime mode detected for a cluster, so that repeated builds do not need to ask
+ * the cluster whether it is OpenShift. The detected mode is reused as long as the cluster
+ * related properties, the kube config and the project's POM are unchanged.
+ */
+public class RuntimeModeCache {
+
+    static final String REGION = "runtimeMode";
+
+    private RuntimeModeCache() { }
+
+    /**
+     * Resolve the runtime mode, using the mode detected by an earlier build if still valid
+     *
+     * @param clusterAccess access to the cluster for the detection
+     * @param mode configured mode
+     * @param project current project
+     * @param log logger
+     * @return the resolved runtime mode
+     */
+    public static RuntimeMode resolveRuntimeMode(ClusterAccess clusterAccess, RuntimeMode mode, MavenProject project,
+                                                 KitLogger log) {
+        String key;
+        String validationKey;
+        try {
+            key = getKey(mode, project);
+            validationKey = new BuildFingerprint()
+                .addFile(getKubeConfig())
+                .addFile(project.getFile())
+                .get();
+        } catch (IOException exp) {
+            log.verbose("Cannot cache runtime mode: %s", exp.getMessage());
+            return clusterAccess.resolveRuntimeMode(mode, log);
+        }
+        return PluginCacheRegistry.getInstance().get(REGION, key, validationKey,
+                                                     () -> clusterAccess.resolveRuntimeMode(mode, log));
+    }
+
+    // Configured mode and all properties which can select or configure the cluster
+    private static String getKey(RuntimeMode mode, MavenProject project) {
+        Map<String, String> clusterProperties = new TreeMap<>();
+        addClusterProperties(clusterProperties, project.getProperties());
+        addClusterProperties(clusterProperties, System.getProperties());
+        return new BuildFingerprint()
+            .add("mode", mode != null ? mode.name() : null)
+            .add("properties", clusterProperties)
+            .add("KUBECONFIG", System.getenv("KUBECONFIG"))
+            .add("KUBERNETES_MASTER", System.getenv("KUBERNETES_MASTER"))
+            .get();
+    }
+
+    private static void addClusterProperties(Map<String, String> target, Properties properties) {
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith("jshift.") || name.startsWith("kubernetes.") || name.startsWith("fabric8.")) {
+                target.put(name, properties.getProperty(name));
+            }
+        }
+    }
+
+    private static File getKubeConfig() {
+        String kubeConfig = System.getenv("KUBECONFIG");
+        if (kubeConfig != null && !kubeConfig.isEmpty()) {
+            return new File(kubeConfig.split(File.pathSeparator)[0]);
+        }
+        return new File(System.getProperty("user.home"), ".kube/config");
+    }
+}
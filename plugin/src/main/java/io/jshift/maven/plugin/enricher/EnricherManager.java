@@ -9,6 +9,7 @@ import io.jshift.kit.config.resource.ProcessorConfig;
 import io.jshift.kit.config.resource.ResourceConfig;
 import io.jshift.maven.enricher.api.Enricher;
 import io.jshift.maven.enricher.api.EnricherContext;
+import io.jshift.maven.plugin.trace.Tracer;
 
 import java.util.List;
 import java.util.Optional;
@@ -54,7 +55,7 @@ public class EnricherManager {
 
     public void createDefaultResources(PlatformMode platformMode, ProcessorConfig enricherConfig, final KubernetesListBuilder builder) {
         // Add default resources
-        loop(enricherConfig, enricher -> {
+        loop("create", enricherConfig, enricher -> {
             enricher.create(platformMode, builder);
             return null;
         });
@@ -75,7 +76,7 @@ public class EnricherManager {
      * @param enricherList list of enrichers
      */
     private void enrich(PlatformMode platformMode, final ProcessorConfig enricherConfig, final KubernetesListBuilder builder, final List<Enricher> enricherList) {
-        loop(enricherConfig, enricher -> {
+        loop("enrich", enricherConfig, enricher -> {
                 enricher.enrich(platformMode, builder);
                 return null;
             });
@@ -89,9 +90,11 @@ public class EnricherManager {
         }
     }
 
-    private void loop(ProcessorConfig config, Function<Enricher, Void> function) {
+    private void loop(String phase, ProcessorConfig config, Function<Enricher, Void> function) {
         for (Enricher enricher : filterEnrichers(config, enrichers)) {
-            function.apply(enricher);
+            try (Tracer.Span span = Tracer.span("enricher", "enricher", enricher.getName(), "phase", phase)) {
+                function.apply(enricher);
+            }
         }
     }
 }
\ No newline at end of file
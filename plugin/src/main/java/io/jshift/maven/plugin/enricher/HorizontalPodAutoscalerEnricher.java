@@ -0,0 +1,249 @@
+package io.jshift.maven.plugin.enricher;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
+import io.fabric8.kubernetes.api.model.PodTemplateSpec;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceRequirements;
+import io.fabric8.kubernetes.api.model.apps.Deployment;
+import io.fabric8.kubernetes.api.model.autoscaling.v2beta1.HorizontalPodAutoscaler;
+import io.fabric8.kubernetes.api.model.autoscaling.v2beta1.HorizontalPodAutoscalerBuilder;
+import io.fabric8.kubernetes.api.model.autoscaling.v2beta1.MetricSpec;
+import io.fabric8.kubernetes.api.model.autoscaling.v2beta1.MetricSpecBuilder;
+import io.fabric8.openshift.api.model.DeploymentConfig;
+import io.jshift.kit.common.Configs;
+import io.jshift.kit.config.resource.PlatformMode;
+import io.jshift.maven.enricher.api.BaseEnricher;
+import io.jshift.maven.enricher.api.MavenEnricherContext;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Enricher which adds a <code>HorizontalPodAutoscaler</code> (<code>autoscaling/v2beta1</code>) for
+ * every Deployment and DeploymentConfig. The autoscaler targets the average CPU and/or memory
+ * utilization of the pods, which the cluster calculates relative to the container requests. A
+ * utilization target is therefore only used when all containers of the pod request the resource.
+ * <p>
+ * Without configuration, the targets are derived from the requests and limits of the containers. A
+ * CPU target is derived when all containers request CPU: 80% of the request, or 80% of the limit if
+ * all containers have a CPU limit above their request, taking the container with the lowest limit
+ * relative to its request, so that the pods are scaled before they are throttled. A derived target
+ * never exceeds 100% of the request. Memory is only targeted by default when the containers request
+ * no CPU but memory, since the memory of a JVM rarely shrinks after a load peak so that the
+ * controller would scale down late.
+ * The minimum number of replicas defaults to the replicas of the controller, the maximum to three
+ * times the minimum. The autoscaler gets the labels of its controller.
+ * <p>
+ * Controllers already targeted by an autoscaler, e.g. from a fragment in
+ * <code>src/main/jshift</code>, are left alone. This is checked by name only, since a Deployment
+ * targeted by a fragment may have been converted to a DeploymentConfig, and a controller is also
+ * skipped when an autoscaler of its name exists already.
+ */
+public class HorizontalPodAutoscalerEnricher extends BaseEnricher {
+
+    static final String ENRICHER_NAME = "jshift-hpa";
+
+    // Percentage of the request, or of the lowest limit, at which pods are scaled by default
+    private static final int DEFAULT_UTILIZATION = 80;
+    // Highest derived target in percent of the request, which is all the scheduler reserves for a pod
+    private static final int MAX_DEFAULT_UTILIZATION = 100;
+    private static final int DEFAULT_MAX_REPLICAS_FACTOR = 3;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private enum Config implements Configs.Key {
+        // Minimum number of replicas, the replicas of the controller if not set
+        minReplicas,
+        // Maximum number of replicas, three times the minimum if not set
+        maxReplicas,
+        // Average CPU utilization in percent of the requests. If not set, 80% of the lowest limit relative to
+        // the request, or of the request when a container has no limit above its request. The derived target is
+        // capped at 100%, since a node only reserves the request and pods above it compete for spare CPU, so
+        // with generous limits the pods are scaled at their request and not only shortly before throttling.
+        targetCpuUtilization,
+        // Average memory utilization in percent of the requests, derived like the CPU target if not set and
+        // the containers request no CPU
+        targetMemoryUtilization;
+
+        public String def() { return d; } protected String d;
+    }
+
+    public HorizontalPodAutoscalerEnricher(MavenEnricherContext buildContext) {
+        super(buildContext, ENRICHER_NAME);
+    }
+
+    // Called in the enrich phase, so that Deployments have already been converted to DeploymentConfigs where requested
+    @Override
+    public void enrich(PlatformMode platformMode, KubernetesListBuilder builder) {
+        List<HasMetadata> items = builder.buildItems();
+        if (items == null) {
+            return;
+        }
+        Set<String> scaledControllers = getScaledControllers(items);
+        for (HasMetadata item : items) {
+            PodTemplateSpec template;
+            Integer replicas;
+            if (item instanceof Deployment && ((Deployment) item).getSpec() != null) {
+                template = ((Deployment) item).getSpec().getTemplate();
+                replicas = ((Deployment) item).getSpec().getReplicas();
+            } else if (item instanceof DeploymentConfig && ((DeploymentConfig) item).getSpec() != null) {
+                template = ((DeploymentConfig) item).getSpec().getTemplate();
+                replicas = ((DeploymentConfig) item).getSpec().getReplicas();
+            } else {
+                continue;
+            }
+            String name = item.getMetadata() != null ? item.getMetadata().getName() : null;
+            if (name == null || scaledControllers.contains(name)) {
+                continue;
+            }
+            HorizontalPodAutoscaler autoscaler = createAutoscaler(item, template, replicas);
+            if (autoscaler != null) {
+                log.verbose("Adding HorizontalPodAutoscaler for %s %s", item.getKind(), name);
+                builder.addToItems(autoscaler);
+            }
+        }
+    }
+
+    private HorizontalPodAutoscaler createAutoscaler(HasMetadata controller, PodTemplateSpec template, Integer replicas) {
+        String name = controller.getMetadata().getName();
+        List<Container> containers = template != null && template.getSpec() != null ? template.getSpec().getContainers() : null;
+        if (containers == null || containers.isEmpty()) {
+            return null;
+        }
+
+        List<MetricSpec> metrics = new ArrayList<>();
+        boolean cpuRequested = isRequested(containers, "cpu");
+        String cpuUtilization = getConfig(Config.targetCpuUtilization);
+        if (cpuUtilization == null && cpuRequested) {
+            cpuUtilization = getDefaultUtilization(containers, "cpu");
+        }
+        String memoryUtilization = getConfig(Config.targetMemoryUtilization);
+        if (memoryUtilization == null && !cpuRequested && isRequested(containers, "memory")) {
+            memoryUtilization = getDefaultUtilization(containers, "memory");
+        }
+        addMetric(metrics, name, containers, "cpu", cpuUtilization);
+        addMetric(metrics, name, containers, "memory", memoryUtilization);
+        if (metrics.isEmpty()) {
+            log.verbose("No HorizontalPodAutoscaler for %s, its containers request neither CPU nor memory", name);
+            return null;
+        }
+
+        int minReplicas = parseInt(getConfig(Config.minReplicas), replicas != null && replicas > 0 ? replicas : 1);
+        int maxReplicas = parseInt(getConfig(Config.maxReplicas), minReplicas * DEFAULT_MAX_REPLICAS_FACTOR);
+        if (minReplicas < 1 || maxReplicas < minReplicas) {
+            log.warn("No HorizontalPodAutoscaler for %s, invalid replicas %d to %d", name, minReplicas, maxReplicas);
+            return null;
+        }
+
+        return new HorizontalPodAutoscalerBuilder()
+            .withNewMetadata()
+              .withName(name)
+              .withLabels(controller.getMetadata().getLabels() != null ? new HashMap<>(controller.getMetadata().getLabels()) : null)
+            .endMetadata()
+            .withNewSpec()
+              .withNewScaleTargetRef()
+                .withApiVersion(controller.getApiVersion())
+                .withKind(controller.getKind())
+                .withName(name)
+              .endScaleTargetRef()
+              .withMinReplicas(minReplicas)
+              .withMaxReplicas(maxReplicas)
+              .withMetrics(metrics)
+            .endSpec()
+            .build();
+    }
+
+    // Utilization is relative to the requests, so all containers have to request the resource
+    private void addMetric(List<MetricSpec> metrics, String name, List<Container> containers, String resource, String utilization) {
+        if (utilization == null || utilization.trim().isEmpty()) {
+            return;
+        }
+        if (!isRequested(containers, resource)) {
+            log.warn("Not scaling %s on %s utilization, not all containers request %s", name, resource, resource);
+            return;
+        }
+        int percentage = parseInt(utilization, -1);
+        if (percentage <= 0) {
+            log.warn("Not scaling %s on %s utilization, invalid target %s", name, resource, utilization);
+            return;
+        }
+        metrics.add(new MetricSpecBuilder()
+                        .withType("Resource")
+                        .withNewResource()
+                          .withName(resource)
+                          .withTargetAverageUtilization(percentage)
+                        .endResource()
+                        .build());
+    }
+
+    private static boolean isRequested(List<Container> containers, String resource) {
+        for (Container container : containers) {
+            Map<String, Quantity> requests = container.getResources() != null ? container.getResources().getRequests() : null;
+            if (requests == null || requests.get(resource) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Default percentage of the limit if all containers have one, taking the lowest limit relative to the
+    // request, and of the request otherwise. Never more than the request.
+    static String getDefaultUtilization(List<Container> containers, String resource) {
+        BigDecimal lowestRatio = null;
+        for (Container container : containers) {
+            ResourceRequirements resources = container.getResources();
+            BigDecimal request = JvmTuningEnricher.toAmount(resources.getRequests().get(resource));
+            BigDecimal limit = resources.getLimits() != null ? JvmTuningEnricher.toAmount(resources.getLimits().get(resource)) : null;
+            if (request == null || request.signum() <= 0 || limit == null) {
+                return Integer.toString(DEFAULT_UTILIZATION);
+            }
+            BigDecimal ratio = limit.divide(request, 2, RoundingMode.DOWN);
+            lowestRatio = lowestRatio == null ? ratio : lowestRatio.min(ratio);
+        }
+        if (lowestRatio == null || lowestRatio.compareTo(BigDecimal.ONE) <= 0) {
+            return Integer.toString(DEFAULT_UTILIZATION);
+        }
+        return Integer.toString(Math.min(MAX_DEFAULT_UTILIZATION,
+                                         lowestRatio.multiply(BigDecimal.valueOf(DEFAULT_UTILIZATION)).intValue()));
+    }
+
+    // Names of the controllers targeted by the autoscalers given as fragments, which may use any autoscaling
+    // API version and still refer to a Deployment which has been converted to a DeploymentConfig. The names of
+    // the autoscalers are included, since a second autoscaler of the same name can't be added.
+    private static Set<String> getScaledControllers(List<HasMetadata> items) {
+        Set<String> ret = new HashSet<>();
+        for (HasMetadata item : items) {
+            if (!"HorizontalPodAutoscaler".equals(item.getKind())) {
+                continue;
+            }
+            if (item.getMetadata() != null && item.getMetadata().getName() != null) {
+                ret.add(item.getMetadata().getName());
+            }
+            String name = MAPPER.valueToTree(item).path("spec").path("scaleTargetRef").path("name").asText(null);
+            if (name != null) {
+                ret.add(name);
+            }
+        }
+        return ret;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException exp) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package io.jshift.maven.plugin.enricher;
+
+import io.fabric8.kubernetes.api.builder.TypedVisitor;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerBuilder;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.EnvVarBuilder;
+import io.fabric8.kubernetes.api.model.KubernetesListBuilder;
+import io.fabric8.kubernetes.api.model.PodSpec;
+import io.fabric8.kubernetes.api.model.PodTemplateSpecBuilder;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceRequirements;
+import io.jshift.kit.common.Configs;
+import io.jshift.kit.config.resource.PlatformMode;
+import io.jshift.maven.enricher.api.BaseEnricher;
+import io.jshift.maven.enricher.api.MavenEnricherContext;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Enricher which sizes the JVM of a container for the memory and CPU resources of the container.
+ * From the memory limit (or request) it derives the maximum heap, the garbage collector, the thread
+ * stack size and the metaspace cap. From the CPU limit (or request) it derives the number of
+ * processors the JVM assumes. The options are added to the environment variable
+ * <code>JAVA_OPTIONS</code>, which is picked up by the start scripts of the Java base images, and
+ * recorded in an annotation of the pod template.
+ * <p>
+ * The heap is given as <code>-Xmx</code> instead of <code>-XX:MaxRAMPercentage</code>, since the
+ * <code>run-java.sh</code> start script of the base images adds an <code>-Xmx</code> of its own
+ * unless the options contain one, which would override a percentage.
+ * <p>
+ * Options which are already given by the user take precedence, whether they are configured for the
+ * enricher or set in <code>JAVA_TOOL_OPTIONS</code>, <code>JAVA_OPTS</code>,
+ * <code>JAVA_OPTIONS</code> or the configured environment variable. A heap size chosen with
+ * <code>JAVA_MAX_MEM_RATIO</code> is kept as well. Containers without resources are left untouched,
+ * and so are containers which take one of these variables from a ConfigMap or Secret, since the
+ * options given there are unknown at build time.
+ * The options need a JVM which is container aware, i.e. Java 10 or Java 8u191 and newer.
+ */
+public class JvmTuningEnricher extends BaseEnricher {
+
+    static final String ENRICHER_NAME = "jshift-jvm-tuning";
+    static final String ANNOTATION_PREFIX = "jshift.io/jvm-tuning.";
+
+    private static final long MI = 1024L * 1024L;
+    private static final long GI = 1024L * MI;
+
+    // Environment variables in which users give JVM options, read by the JVM itself or by the start scripts
+    private static final List<String> OPTION_ENV_NAMES = Arrays.asList("JAVA_TOOL_OPTIONS", "JAVA_OPTS", "JAVA_OPTIONS");
+    // Heap percentage of run-java.sh
+    private static final String MAX_MEM_RATIO_ENV_NAME = "JAVA_MAX_MEM_RATIO";
+
+    private static final Pattern QUANTITY = Pattern.compile("^([+-]?[0-9.]+(?:[eE][+-]?[0-9]+)?)([a-zA-Z]*)$");
+
+    private static final Map<String, BigDecimal> QUANTITY_SUFFIXES = new LinkedHashMap<>();
+    static {
+        QUANTITY_SUFFIXES.put("", BigDecimal.ONE);
+        QUANTITY_SUFFIXES.put("m", new BigDecimal("0.001"));
+        QUANTITY_SUFFIXES.put("k", BigDecimal.valueOf(1000L));
+        QUANTITY_SUFFIXES.put("M", BigDecimal.valueOf(1000L * 1000L));
+        QUANTITY_SUFFIXES.put("G", BigDecimal.valueOf(1000L * 1000L * 1000L));
+        QUANTITY_SUFFIXES.put("T", BigDecimal.valueOf(1000L * 1000L * 1000L * 1000L));
+        QUANTITY_SUFFIXES.put("Ki", BigDecimal.valueOf(1024L));
+        QUANTITY_SUFFIXES.put("Mi", BigDecimal.valueOf(MI));
+        QUANTITY_SUFFIXES.put("Gi", BigDecimal.valueOf(GI));
+        QUANTITY_SUFFIXES.put("Ti", BigDecimal.valueOf(1024L * GI));
+    }
+
+    private enum Config implements Configs.Key {
+        // Environment variable to add the options to
+        envName {{ d = "JAVA_OPTIONS"; }},
+        // Comma separated names of the containers to tune, all containers with resources if empty
+        containers,
+        // Fixed values instead of the derived ones, the heap as percentage of the memory
+        maxRamPercentage,
+        gc,
+        activeProcessorCount,
+        threadStackSize,
+        maxMetaspaceSize;
+
+        public String def() { return d; } protected String d;
+    }
+
+    public JvmTuningEnricher(MavenEnricherContext buildContext) {
+        super(buildContext, ENRICHER_NAME);
+    }
+
+    @Override
+    public void enrich(PlatformMode platformMode, KubernetesListBuilder builder) {
+        builder.accept(new TypedVisitor<PodTemplateSpecBuilder>() {
+            @Override
+            public void visit(PodTemplateSpecBuilder template) {
+                PodSpec spec = template.buildSpec();
+                if (spec == null || spec.getContainers() == null) {
+                    return;
+                }
+                List<Container> containers = new ArrayList<>();
+                Map<String, String> annotations = new LinkedHashMap<>();
+                boolean changed = false;
+                for (Container container : spec.getContainers()) {
+                    List<String> options = isSelected(container) ? getOptions(container) : null;
+                    if (options == null || options.isEmpty()) {
+                        containers.add(container);
+                        continue;
+                    }
+                    containers.add(addOptions(container, options));
+                    annotations.put(ANNOTATION_PREFIX + container.getName(), String.join(" ", options));
+                    changed = true;
+                }
+                if (changed) {
+                    template.editOrNewSpec().withContainers(containers).endSpec();
+                    template.editOrNewMetadata().addToAnnotations(annotations).endMetadata();
+                }
+            }
+        });
+    }
+
+    private boolean isSelected(Container container) {
+        String selected = getConfig(Config.containers);
+        return selected == null || selected.trim().isEmpty() ||
+               Arrays.asList(selected.trim().split("\\s*,\\s*")).contains(container.getName());
+    }
+
+    // The options to add, without the ones already given by the user
+    private List<String> getOptions(Container container) {
+        Long memory = toBytes(getResource(container.getResources(), "memory"));
+        BigDecimal cpu = toAmount(getResource(container.getResources(), "cpu"));
+        if (memory == null && cpu == null) {
+            return null;
+        }
+        String envName = getConfig(Config.envName);
+        if (hasReferencedOptions(container.getEnv(), envName)) {
+            log.verbose("Not tuning the JVM of container %s, its options are taken from a ConfigMap or Secret", container.getName());
+            return null;
+        }
+        int percentage = memory != null ? parsePercentage(getConfigOrNull(Config.maxRamPercentage), getMaxRamPercentage(memory)) : 0;
+        Map<String, String> fixedValues = new HashMap<>();
+        for (Config key : Arrays.asList(Config.gc, Config.activeProcessorCount, Config.threadStackSize, Config.maxMetaspaceSize)) {
+            String value = getConfigOrNull(key);
+            if (value != null) {
+                fixedValues.put(key.name(), value);
+            }
+        }
+        return deriveOptions(memory, cpu, percentage, fixedValues, getUserOptions(container.getEnv(), envName),
+                             getEnv(container.getEnv(), MAX_MEM_RATIO_ENV_NAME) != null);
+    }
+
+    /**
+     * Derive the JVM options for the resources of a container
+     *
+     * @param memory memory in bytes, null if not set
+     * @param cpu number of CPUs, null if not set
+     * @param maxRamPercentage percentage of the memory to use for the heap
+     * @param fixedValues configured values by option name (<code>gc</code>, <code>activeProcessorCount</code>,
+     *                    <code>threadStackSize</code>, <code>maxMetaspaceSize</code>) to use instead of derived ones
+     * @param userOptions options given by the user, which are not overridden
+     * @param maxMemRatioSet whether the heap is sized with <code>JAVA_MAX_MEM_RATIO</code>
+     * @return the options to add
+     */
+    static List<String> deriveOptions(Long memory, BigDecimal cpu, int maxRamPercentage, Map<String, String> fixedValues,
+                                      String userOptions, boolean maxMemRatioSet) {
+        List<String> ret = new ArrayList<>();
+        if (memory != null && !userOptions.contains("-Xmx") && !userOptions.contains("MaxRAMPercentage") &&
+            !userOptions.contains("MaxRAMFraction") && !maxMemRatioSet) {
+            ret.add("-Xmx" + Math.max(1, memory * maxRamPercentage / 100 / MI) + "m");
+        }
+
+        String gc = getFixedOrDerived(fixedValues, Config.gc,
+                                      memory != null ? selectGarbageCollector(memory * maxRamPercentage / 100, cpu) : null);
+        if (gc != null && !userOptions.matches(".*-XX:\\+Use\\w*GC.*")) {
+            ret.add("-XX:+Use" + gc + "GC");
+        }
+
+        String activeProcessorCount = getFixedOrDerived(fixedValues, Config.activeProcessorCount,
+                                                        cpu != null ? Integer.toString(Math.max(1, cpu.setScale(0, RoundingMode.CEILING).intValue())) : null);
+        if (activeProcessorCount != null && !userOptions.contains("ActiveProcessorCount")) {
+            ret.add("-XX:ActiveProcessorCount=" + activeProcessorCount);
+        }
+
+        String threadStackSize = getFixedOrDerived(fixedValues, Config.threadStackSize, memory != null ? (memory <= GI ? "512k" : "1m") : null);
+        if (threadStackSize != null && !userOptions.contains("-Xss") && !userOptions.contains("ThreadStackSize")) {
+            ret.add("-Xss" + threadStackSize);
+        }
+
+        String maxMetaspaceSize = getFixedOrDerived(fixedValues, Config.maxMetaspaceSize, memory != null ? getMaxMetaspaceSize(memory) : null);
+        if (maxMetaspaceSize != null && !userOptions.contains("MaxMetaspaceSize")) {
+            ret.add("-XX:MaxMetaspaceSize=" + maxMetaspaceSize);
+        }
+        return ret;
+    }
+
+    private static String getFixedOrDerived(Map<String, String> fixedValues, Config key, String derived) {
+        String value = fixedValues.get(key.name());
+        return value != null ? value : derived;
+    }
+
+    private String getConfigOrNull(Config key) {
+        String value = getConfig(key);
+        return value != null && !value.trim().isEmpty() ? value.trim() : null;
+    }
+
+    private int parsePercentage(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int ret = Integer.parseInt(value);
+            if (ret > 0 && ret <= 100) {
+                return ret;
+            }
+        } catch (NumberFormatException exp) {
+            // fall through
+        }
+        log.warn("Invalid maxRamPercentage %s, using %d", value, defaultValue);
+        return defaultValue;
+    }
+
+    // Small containers need a larger share for everything besides the heap
+    private static int getMaxRamPercentage(long memory) {
+        if (memory < 256 * MI) {
+            return 50;
+        }
+        if (memory < 512 * MI) {
+            return 60;
+        }
+        if (memory < 4 * GI) {
+            return 70;
+        }
+        return 75;
+    }
+
+    // Serial for small heaps or a single processor, parallel for medium heaps and G1 for large heaps
+    private static String selectGarbageCollector(long heap, BigDecimal cpu) {
+        if (heap < 512 * MI || (cpu != null && cpu.compareTo(BigDecimal.valueOf(2)) < 0)) {
+            return "Serial";
+        }
+        if (heap < 4 * GI) {
+            return "Parallel";
+        }
+        return "G1";
+    }
+
+    private static String getMaxMetaspaceSize(long memory) {
+        if (memory <= 512 * MI) {
+            return "128m";
+        }
+        if (memory <= 2 * GI) {
+            return "256m";
+        }
+        return "512m";
+    }
+
+    /**
+     * Check whether the options or the heap ratio are given in a variable which is read from a
+     * ConfigMap or Secret
+     *
+     * @param env environment of the container, may be null
+     * @param envName variable the options are added to
+     * @return true if one of the variables has a <code>valueFrom</code>
+     */
+    static boolean hasReferencedOptions(List<EnvVar> env, String envName) {
+        if (env != null) {
+            for (EnvVar var : env) {
+                if (var.getValueFrom() != null &&
+                    (envName.equals(var.getName()) || OPTION_ENV_NAMES.contains(var.getName()) ||
+                     MAX_MEM_RATIO_ENV_NAME.equals(var.getName()))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // All options given by the user in one of the environment variables read by the JVM or the start scripts
+    private static String getUserOptions(List<EnvVar> env, String envName) {
+        String existing = getEnv(env, envName);
+        StringBuilder ret = new StringBuilder(existing != null ? existing : "");
+        for (String name : OPTION_ENV_NAMES) {
+            String value = getEnv(env, name);
+            if (value != null && !name.equals(envName)) {
+                ret.append(' ').append(value);
+            }
+        }
+        return ret.toString();
+    }
+
+    private static String getEnv(List<EnvVar> env, String envName) {
+        if (env != null) {
+            for (EnvVar var : env) {
+                if (envName.equals(var.getName()) && var.getValue() != null) {
+                    return var.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private Container addOptions(Container container, List<String> options) {
+        return new ContainerBuilder(container).withEnv(mergeOptions(container.getEnv(), getConfig(Config.envName), options)).build();
+    }
+
+    /**
+     * Add options to an environment variable. The derived options come first, so that options set
+     * by the user in the variable still win. Must not be called for a variable with a
+     * <code>valueFrom</code>.
+     *
+     * @param env environment of the container, may be null
+     * @param envName variable to add the options to
+     * @param options options to add
+     * @return the new environment, with the variable at its end
+     */
+    static List<EnvVar> mergeOptions(List<EnvVar> env, String envName, List<String> options) {
+        String existing = getEnv(env, envName);
+        String value = existing == null || existing.trim().isEmpty() ?
+            String.join(" ", options) : String.join(" ", options) + " " + existing.trim();
+        List<EnvVar> ret = new ArrayList<>();
+        if (env != null) {
+            for (EnvVar var : env) {
+                if (!envName.equals(var.getName())) {
+                    ret.add(var);
+                }
+            }
+        }
+        ret.add(new EnvVarBuilder().withName(envName).withValue(value).build());
+        return ret;
+    }
+
+    // The limit if set, the request otherwise
+    private static Quantity getResource(ResourceRequirements resources, String name) {
+        if (resources == null) {
+            return null;
+        }
+        if (resources.getLimits() != null && resources.getLimits().get(name) != null) {
+            return resources.getLimits().get(name);
+        }
+        return resources.getRequests() != null ? resources.getRequests().get(name) : null;
+    }
+
+    private static Long toBytes(Quantity quantity) {
+        BigDecimal amount = toAmount(quantity);
+        return amount != null ? amount.longValue() : null;
+    }
+
+    // Depending on the model version the suffix is part of the amount or held as format
+    static BigDecimal toAmount(Quantity quantity) {
+        if (quantity == null || quantity.getAmount() == null) {
+            return null;
+        }
+        String value = quantity.getAmount().trim() + (quantity.getFormat() != null ? quantity.getFormat().trim() : "");
+        Matcher matcher = QUANTITY.matcher(value);
+        if (!matcher.matches() || !QUANTITY_SUFFIXES.containsKey(matcher.group(2))) {
+            return null;
+        }
+        return new BigDecimal(matcher.group(1)).multiply(QUANTITY_SUFFIXES.get(matcher.group(2)));
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.enricher;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import io.jshift.maven.enricher.api.util.KubernetesResourceUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Kind/filename mappings of a single project, in addition to the default mappings of
+ * {@link KubernetesResourceUtil}. The mappings are applied to the fragments before they are parsed:
+ * a fragment whose file name has a mapped type is rewritten with its kind and name in the content,
+ * into a directory of the project. The name is the one the parser would take from the file name,
+ * or the default resource name for a file name which is the type only. The global mappings of
+ * {@link KubernetesResourceUtil} are never changed, so that modules built in parallel can use
+ * different mappings.
+ */
+public class KindFilenameMapping {
+
+    // Same file name layout as expected by KubernetesResourceUtil: <name>-<type>.<ext>
+    private static final Pattern FILENAME_PATTERN = Pattern.compile("^(?<name>.*?)(-(?<type>[^-]+))?\\.(?<ext>yaml|yml|json)$",
+                                                                    Pattern.CASE_INSENSITIVE);
+
+    private static final String MAPPED_DIR = "mapped";
+
+    private static final ObjectMapper YAML_MAPPER = new ObjectMapper(new YAMLFactory());
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+    private final Map<String, String> kindByType = new HashMap<>();
+    private final Map<String, String> typeByKind = new HashMap<>();
+
+    /**
+     * Create the mappings
+     *
+     * @param filenameTypesByKind file name types for each kind, null or empty for no own mappings
+     */
+    public KindFilenameMapping(Map<String, List<String>> filenameTypesByKind) {
+        if (filenameTypesByKind != null) {
+            for (Map.Entry<String, List<String>> entry : filenameTypesByKind.entrySet()) {
+                for (String type : entry.getValue()) {
+                    kindByType.put(type.trim().toLowerCase(), entry.getKey());
+                    // Like KubernetesResourceUtil, the last type is used for writing
+                    typeByKind.put(entry.getKey(), type.trim());
+                }
+            }
+        }
+    }
+
+    /**
+     * Prepare fragments for parsing
+     *
+     * @param fragments filtered fragments
+     * @param workDir directory of the project for the rewritten fragments
+     * @param defaultName name of resources given by a fragment without name, like the parser uses it
+     * @return the fragments to parse, with a fragment of a mapped type replaced by its rewritten copy
+     * @throws IOException if a fragment cannot be read or written
+     */
+    public File[] apply(File[] fragments, File workDir, String defaultName) throws IOException {
+        if (kindByType.isEmpty()) {
+            return fragments;
+        }
+        File[] ret = new File[fragments.length];
+        for (int i = 0; i < fragments.length; i++) {
+            ret[i] = apply(fragments[i], new File(workDir, MAPPED_DIR), defaultName);
+        }
+        return ret;
+    }
+
+    /**
+     * Get the file name for writing a single resource
+     *
+     * @param name name of the resource
+     * @param kind kind of the resource
+     * @return the file name without extension
+     */
+    public String getNameWithSuffix(String name, String kind) {
+        String type = typeByKind.get(kind);
+        return type != null ? name + "-" + type : KubernetesResourceUtil.getNameWithSuffix(name, kind);
+    }
+
+    @SuppressWarnings("unchecked")
+    private File apply(File fragment, File mappedDir, String defaultName) throws IOException {
+        Matcher matcher = FILENAME_PATTERN.matcher(fragment.getName());
+        if (!matcher.matches()) {
+            return fragment;
+        }
+        String name = matcher.group("name");
+        String type = matcher.group("type");
+        String ext = matcher.group("ext").toLowerCase();
+        String kind = type != null ? kindByType.get(type.toLowerCase()) : null;
+        if (type == null) {
+            // A file name without type can be the type only, which the parser would take as name
+            kind = kindByType.get(name.toLowerCase());
+            name = defaultName;
+        }
+        if (kind == null) {
+            return fragment;
+        }
+
+        ObjectMapper mapper = "json".equals(ext) ? JSON_MAPPER : YAML_MAPPER;
+        Map<String, Object> content = Files.size(fragment.toPath()) > 0 ?
+            mapper.readValue(fragment, LinkedHashMap.class) : null;
+        if (content == null) {
+            content = new LinkedHashMap<>();
+        }
+        content.putIfAbsent("kind", kind);
+        if (name != null && !name.isEmpty()) {
+            Object metadata = content.get("metadata");
+            if (!(metadata instanceof Map)) {
+                metadata = new LinkedHashMap<String, Object>();
+                content.put("metadata", metadata);
+            }
+            ((Map<String, Object>) metadata).putIfAbsent("name", name);
+        }
+
+        // The original file name without dash, so that no part of the name is taken as type. The name of
+        // the resource is in the content. Written atomically, since the fragments may be mapped for several
+        // platform modes at the same time.
+        File ret = new File(mappedDir, fragment.getName().substring(0, matcher.start("ext") - 1).replace('-', '_') + "." + ext);
+        Files.createDirectories(mappedDir.toPath());
+        File tmp = File.createTempFile(ret.getName(), ".tmp", mappedDir);
+        try {
+            mapper.writeValue(tmp, content);
+            Files.move(tmp.toPath(), ret.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+        return ret;
+    }
+}
@@ -22,10 +22,15 @@ import io.jshift.kit.common.KitLogger;
 import io.jshift.kit.common.util.ClassUtil;
 import io.jshift.kit.common.util.PluginServiceFactory;
 import io.jshift.kit.config.resource.ProcessorConfig;
+import io.jshift.maven.plugin.trace.Tracer;
 import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.plugin.MojoExecutionException;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Manager responsible for finding and calling generators
@@ -37,6 +42,24 @@ public class GeneratorManager {
     public static List<ImageConfiguration> generate(List<ImageConfiguration> imageConfigs,
                                                     GeneratorContext genCtx,
                                                     boolean prePackagePhase) throws MojoExecutionException {
+        return generate(imageConfigs, genCtx, prePackagePhase, null);
+    }
+
+    /**
+     * Run the generators, recording which generator has created or customized which image
+     *
+     * @param imageConfigs configured images
+     * @param genCtx generator context
+     * @param prePackagePhase whether called before the package phase
+     * @param generatorsByImage filled with the name of the last generator which returned a new
+     *                          configuration for an image, by image name. Can be null.
+     * @return the generated images
+     * @throws MojoExecutionException if the generators cannot be created
+     */
+    public static List<ImageConfiguration> generate(List<ImageConfiguration> imageConfigs,
+                                                    GeneratorContext genCtx,
+                                                    boolean prePackagePhase,
+                                                    Map<String, String> generatorsByImage) throws MojoExecutionException {
 
         List<ImageConfiguration> ret = imageConfigs;
 
@@ -58,13 +81,40 @@ public class GeneratorManager {
         KitLogger log = genCtx.getLogger();
         List<Generator> usableGenerators = config.prepareProcessors(generators, "generator");
         log.verbose("Generators:");
-        for (Generator generator : usableGenerators) {
-            log.verbose(" - %s",generator.getName());
-            if (generator.isApplicable(ret)) {
-                log.info("Running generator %s", generator.getName());
-                ret = generator.customize(ret, prePackagePhase);
+        // The resource and the build goal of a project may run at the same time (see the resource-build goal).
+        // Generators read and change the project, like its properties, so they never run concurrently for a project.
+        synchronized (genCtx.getProject()) {
+            for (Generator generator : usableGenerators) {
+                log.verbose(" - %s",generator.getName());
+                if (generator.isApplicable(ret)) {
+                    log.info("Running generator %s", generator.getName());
+                    List<ImageConfiguration> previous = ret;
+                    try (Tracer.Span span = Tracer.span("generator", "generator", generator.getName())) {
+                        ret = generator.customize(ret, prePackagePhase);
+                    }
+                    if (generatorsByImage != null) {
+                        recordGenerator(generator.getName(), previous, ret, generatorsByImage);
+                    }
+                }
             }
         }
         return ret;
     }
+
+    // Generators return new configuration objects for the images they add or customize
+    private static void recordGenerator(String generator, List<ImageConfiguration> previous,
+                                        List<ImageConfiguration> current, Map<String, String> generatorsByImage) {
+        if (current == null) {
+            return;
+        }
+        Set<ImageConfiguration> unchanged = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (previous != null) {
+            unchanged.addAll(previous);
+        }
+        for (ImageConfiguration image : current) {
+            if (!unchanged.contains(image) && image.getName() != null) {
+                generatorsByImage.put(image.getName(), generator);
+            }
+        }
+    }
 }
@@ -1,8 +1,13 @@
 package io.jshift.maven.plugin.mojo.build;
 
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.openshift.api.model.ImageStreamTag;
+import io.fabric8.openshift.client.OpenShiftClient;
 import io.jshift.generator.api.GeneratorContext;
 import io.jshift.kit.build.maven.GavLabel;
 import io.jshift.kit.build.maven.MavenBuildContext;
+import io.jshift.kit.build.maven.assembly.DockerAssemblyManager;
 import io.jshift.kit.build.service.docker.BuildService;
 import io.jshift.kit.build.service.docker.DockerAccessFactory;
 import io.jshift.kit.build.service.docker.ImageConfiguration;
@@ -10,6 +15,7 @@ import io.jshift.kit.build.service.docker.ImagePullManager;
 import io.jshift.kit.build.service.docker.RegistryService;
 import io.jshift.kit.build.service.docker.ServiceHub;
 import io.jshift.kit.build.service.docker.ServiceHubFactory;
+import io.jshift.kit.build.service.docker.access.AuthConfig;
 import io.jshift.kit.build.service.docker.access.DockerAccess;
 import io.jshift.kit.build.service.docker.access.DockerAccessException;
 import io.jshift.kit.build.service.docker.access.log.LogDispatcher;
@@ -27,6 +33,7 @@ import io.jshift.kit.common.util.EnvUtil;
 import io.jshift.kit.common.util.ResourceUtil;
 import io.jshift.kit.config.access.ClusterAccess;
 import io.jshift.kit.config.access.ClusterConfiguration;
+import io.jshift.kit.config.image.build.AssemblyConfiguration;
 import io.jshift.kit.config.image.build.BuildConfiguration;
 import io.jshift.kit.config.image.build.OpenShiftBuildStrategy;
 import io.jshift.kit.config.image.build.RegistryAuthConfiguration;
@@ -38,14 +45,39 @@ import io.jshift.kit.config.service.JshiftServiceHub;
 import io.jshift.kit.profile.ProfileUtil;
 import io.jshift.maven.enricher.api.EnricherContext;
 import io.jshift.maven.enricher.api.MavenEnricherContext;
+import io.jshift.maven.plugin.build.BaseImagePrefetcher;
+import io.jshift.maven.plugin.build.BuildFingerprint;
+import io.jshift.maven.plugin.build.ContentAddressedStore;
+import io.jshift.maven.plugin.build.BuildReport;
+import io.jshift.maven.plugin.build.CachingAuthConfigFactory;
+import io.jshift.maven.plugin.build.ClassDataSharingTrainer;
+import io.jshift.maven.plugin.build.DockerAccessPool;
+import io.jshift.maven.plugin.build.ImageBuildScheduler;
+import io.jshift.maven.plugin.build.LayeredDockerFile;
+import io.jshift.maven.plugin.build.ModuleAnalyzer;
+import io.jshift.maven.plugin.build.OpenShiftBinaryBuild;
+import io.jshift.maven.plugin.build.PersistentImagePullCacheStore;
+import io.jshift.maven.plugin.build.RegistryClient;
+import io.jshift.maven.plugin.build.archive.BuildContextArchiver;
+import io.jshift.maven.plugin.build.oci.OciImageBuilder;
+import io.jshift.maven.plugin.cache.ProfileRegistry;
+import io.jshift.maven.plugin.cache.RuntimeModeCache;
 import io.jshift.maven.plugin.generator.GeneratorManager;
+import io.jshift.maven.plugin.trace.Tracer;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
 import org.apache.maven.archiver.MavenArchiveConfiguration;
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.assembly.model.Assembly;
+import org.apache.maven.plugins.assembly.model.FileItem;
+import org.apache.maven.plugins.assembly.model.FileSet;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
 import org.apache.maven.repository.RepositorySystem;
@@ -63,15 +95,36 @@ import java.io.LineNumberReader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigHelper.Customizer, Contextualizable {
     public static final String DMP_PLUGIN_DESCRIPTOR = "META-INF/maven/io.jshift/k8s-plugin";
     public static final String DOCKER_EXTRA_DIR = "docker-extra";
+    public static final String DOCKER_LAYERED_DIR = "docker-layered";
+    public static final String CONTENT_STORE_DIR = "jshift-store";
+    public static final String CDS_DIR = "jshift-cds";
+    // First Java version which creates dynamic archives with -XX:ArchiveClassesAtExit
+    private static final int MIN_CDS_JAVA_VERSION = 13;
+    public static final String DOCKER_OCI_DIR = "docker-oci";
+    public static final String BUILD_REPORT = "jshift/build-report.json";
+    public static final String BUILD_REPORT_AGGREGATE = "jshift/build-report-aggregate.json";
+    public static final String BUILD_REPORT_CLASSIFIER = "build-report";
+
+    // Modes of the image pull cache
+    public static final String PULL_CACHE_SESSION = "session";
+    public static final String PULL_CACHE_PERSISTENT = "persistent";
 
     // Key for indicating that a "start" goal has run
     public static final String CONTEXT_KEY_START_CALLED = "CONTEXT_KEY_DOCKER_START_CALLED";
@@ -82,6 +135,9 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
     // Key under which the build timestamp is stored so that other mojos can reuse it
     public static final String CONTEXT_KEY_BUILD_TIMESTAMP = "CONTEXT_KEY_BUILD_TIMESTAMP";
 
+    // Key holding a future which the resource goal completes as soon as it has resolved the images
+    public static final String CONTEXT_KEY_IMAGES_RESOLVED = "CONTEXT_KEY_IMAGES_RESOLVED";
+
     // Filename for holding the build timestamp
     public static final String DOCKER_BUILD_TIMESTAMP = "docker/build.timestamp";
 
@@ -171,6 +227,29 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
     @Parameter(property = "docker.pull.registry")
     protected String pullRegistry;
 
+    /**
+     * Where to remember which images have already been pulled for <code>autoPull=once</code>:
+     * <ul>
+     * <li><strong>session</strong> : only for the current Maven invocation (default)</li>
+     * <li><strong>persistent</strong> : in a file shared by all builds of the user, see
+     * <code>docker.pullCache.file</code> and <code>docker.pullCache.ttl</code></li>
+     * </ul>
+     */
+    @Parameter(property = "docker.pullCache", defaultValue = "session")
+    protected String pullCacheMode;
+
+    /**
+     * File of the persistent image pull cache
+     */
+    @Parameter(property = "docker.pullCache.file", defaultValue = "${user.home}/.jshift/image-pull-cache.properties")
+    protected File pullCacheFile;
+
+    /**
+     * Time in minutes after which an image in the persistent image pull cache is checked again
+     */
+    @Parameter(property = "docker.pullCache.ttl", defaultValue = "60")
+    protected long pullCacheTtl;
+
     /**
      * Profile to use. A profile contains the enrichers and generators to
      * use as well as their configuration. Profiles are looked up
@@ -253,6 +332,227 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
     @Parameter(property = "docker.skip.build", defaultValue = "false")
     protected boolean skipBuild;
 
+    /**
+     * Number of images to build in parallel. With a value greater than one, images which
+     * do not depend on each other via their <code>from</code> are built concurrently, and an
+     * image is built as soon as the image it is based on has been built.
+     */
+    @Parameter(property = "jshift.build.threads", defaultValue = "1")
+    protected int buildThreads;
+
+    /**
+     * Skip the build of an image when all its inputs (assembly files, build configuration,
+     * build args and base image) are the same as for the last successful build and the
+     * resulting image or ImageStreamTag still exists. The base image is compared by the id of the
+     * local image, the digest in its registry or the image an ImageStreamTag points to. Never skipped
+     * when the base image cannot be resolved or a recreation of the build config or image stream is
+     * requested with <code>jshift.build.recreate</code>.
+     */
+    @Parameter(property = "jshift.build.skipUnchanged", defaultValue = "false")
+    protected boolean skipUnchangedBuilds;
+
+    /**
+     * Write a JSON report with the duration, context and layer sizes, cache hits and transferred
+     * bytes of every image build to <code>target/jshift/build-report.json</code> and attach it to
+     * the project. The reports of all modules are also collected in
+     * <code>target/jshift/build-report-aggregate.json</code> of the top level project.
+     */
+    @Parameter(property = "jshift.build.report", defaultValue = "true")
+    protected boolean buildReportEnabled;
+
+    // Metrics of the images built by this execution
+    protected BuildReport buildReport;
+
+    // Generator which has created or customized an image configuration, by image name
+    protected final Map<String, String> imageGenerators = new ConcurrentHashMap<>();
+
+    /**
+     * Pull the base images of all images concurrently in the background when the build starts,
+     * according to <code>docker.autoPull</code> and <code>docker.imagePullPolicy</code>. The
+     * assembly of the build contexts overlaps with the pulls, a build waits for its base image only
+     * when it is sent to the daemon. Only applies to Kubernetes mode builds against a Docker daemon.
+     */
+    @Parameter(property = "jshift.build.prefetch", defaultValue = "true")
+    protected boolean prefetchBaseImages;
+
+    /**
+     * Use a layered assembly for images created with the <code>artifact-with-dependencies</code> or
+     * <code>hawt-app</code> assembly. Release dependencies, snapshot dependencies and the application
+     * are then copied in separate Dockerfile steps, so that a code change only rebuilds and pushes
+     * the application layer. Only applies to Docker builds, not to the S2I build strategy.
+     */
+    @Parameter(property = "jshift.build.layered", defaultValue = "false")
+    protected boolean layeredBuild;
+
+    /**
+     * Create an application class data sharing archive for images of the <code>java-exec</code> and
+     * <code>spring-boot</code> generators which use the <code>artifact-with-dependencies</code>
+     * assembly, and add it as own layer to the image. The application is started once during the
+     * build to record the classes it loads, which needs a JDK 13 or newer. The JVM in the image
+     * picks up the archive via <code>JAVA_TOOL_OPTIONS</code> and starts without it if the archive
+     * does not match, so the training JDK should be the one of the base image. The base image needs
+     * Java 13 or newer, see <code>jshift.build.cds.baseImageJavaVersion</code>, which has to be set.
+     * Implies a layered assembly.
+     */
+    @Parameter(property = "jshift.build.cds", defaultValue = "false")
+    protected boolean classDataSharing;
+
+    /**
+     * JDK used for creating the class data sharing archive. The JDK running Maven by default.
+     */
+    @Parameter(property = "jshift.build.cds.javaHome")
+    protected File classDataSharingJavaHome;
+
+    /**
+     * Java feature version of the base images, e.g. <code>17</code>. Older JVMs refuse to start with
+     * the options using the archive, so the archive is only added for base images with Java 13 or
+     * newer, and not at all when this is not set.
+     */
+    @Parameter(property = "jshift.build.cds.baseImageJavaVersion")
+    protected Integer classDataSharingBaseImageJavaVersion;
+
+    /**
+     * Seconds after which the application started for creating the class data sharing archive is
+     * stopped if it does not exit on its own.
+     */
+    @Parameter(property = "jshift.build.cds.timeout", defaultValue = "120")
+    protected long classDataSharingTimeout;
+
+    // Outcome of the class data sharing training, which is done once per execution
+    private ClassDataSharingTrainer.Result classDataSharingResult;
+    private boolean classDataSharingTrained;
+
+    // Images which use the class data sharing archive
+    protected final Set<String> classDataSharingImages = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Replace the full Java base image of images of the <code>java-exec</code> and
+     * <code>spring-boot</code> generators which use the <code>artifact-with-dependencies</code>
+     * assembly by a Java runtime trimmed with jlink to the JDK modules the application needs.
+     * The modules are determined with jdeps, the runtime is created in a build stage of a
+     * multi-stage Dockerfile and copied onto <code>jshift.build.jlink.baseImage</code>. The image
+     * starts the jar with <code>java -jar</code> if its manifest has a <code>Main-Class</code> and a
+     * flat <code>Class-Path</code>, otherwise the class given by the <code>JAVA_MAIN_CLASS</code>
+     * environment variable with all jars on the class path. Without either the base image is kept.
+     * Only applies to Docker builds. Implies a layered assembly.
+     */
+    @Parameter(property = "jshift.build.jlink", defaultValue = "false")
+    protected boolean jlinkRuntime;
+
+    /**
+     * Image with a JDK for the jlink build stage, which should have the Java version of the base
+     * image it replaces.
+     */
+    @Parameter(property = "jshift.build.jlink.jdkImage", defaultValue = "eclipse-temurin:17-jdk")
+    protected String jlinkJdkImage;
+
+    /**
+     * Slim image the trimmed Java runtime is copied into.
+     */
+    @Parameter(property = "jshift.build.jlink.baseImage", defaultValue = "debian:12-slim")
+    protected String jlinkBaseImage;
+
+    /**
+     * Comma separated JDK modules to add to the ones found by jdeps, for modules which are only
+     * loaded at runtime like <code>jdk.crypto.ec</code> or <code>jdk.localedata</code>.
+     */
+    @Parameter(property = "jshift.build.jlink.addModules")
+    protected String jlinkAddModules;
+
+    /**
+     * JDK providing jdeps, 11 or newer. The JDK running Maven by default.
+     */
+    @Parameter(property = "jshift.build.jlink.javaHome")
+    protected File jlinkJavaHome;
+
+    /**
+     * Warn about runtime dependencies which are not referenced by the application or other
+     * dependencies. Dependencies which are only loaded via reflection are reported, too.
+     */
+    @Parameter(property = "jshift.build.jlink.reportUnused", defaultValue = "false")
+    protected boolean jlinkReportUnused;
+
+    // Outcome of the module analysis, which is done once per execution
+    private List<String> jlinkModules;
+    private boolean jlinkAnalyzed;
+
+    /**
+     * Compression of the build context archive: <code>none</code>, <code>fast</code>,
+     * <code>default</code>, <code>best</code> or a level between 0 and 9. <code>none</code> avoids
+     * spending time in compression for a cluster on a fast network. When not set, the compression
+     * configured for each image is used.
+     * In OpenShift mode the plugin then runs the binary build itself: the build context is
+     * compressed in parallel while it is uploaded, and the ImageStream and the BuildConfig are
+     * created or updated as needed.
+     */
+    @Parameter(property = "jshift.build.compression")
+    protected String buildCompression;
+
+    /**
+     * Hard link the jars in the build contexts below <code>target/docker</code> into a content addressed
+     * store shared by all modules of the reactor once the images are built, so that each jar occupies
+     * disk space only once. The links are removed before the next assembly.
+     */
+    @Parameter(property = "jshift.build.contentStore", defaultValue = "false")
+    protected boolean useContentStore;
+
+    /**
+     * Directory of the content addressed store. Defaults to <code>jshift-store</code> in the build
+     * directory of the top level project of the reactor. Must be on the same filesystem as the build
+     * contexts, jars are kept as copies otherwise.
+     */
+    @Parameter(property = "jshift.build.contentStoreDir")
+    protected File contentStoreDir;
+
+    /**
+     * Build the images within the JVM, without a Docker daemon or a cluster. The assembly is put as
+     * layer(s) on top of the base image, which is read directly from its registry. Images using a
+     * Dockerfile cannot be built this way.
+     */
+    @Parameter(property = "jshift.build.daemonless", defaultValue = "false")
+    protected boolean daemonlessBuild;
+
+    /**
+     * What to do with an image built with <code>jshift.build.daemonless</code>:
+     * <ul>
+     * <li><strong>tar</strong> : save it as OCI image layout in <code>target/docker-oci/&lt;image&gt;.tar</code></li>
+     * <li><strong>registry</strong> : push it to its registry</li>
+     * </ul>
+     */
+    @Parameter(property = "jshift.build.daemonless.output", defaultValue = "tar")
+    protected String daemonlessOutput;
+
+    /**
+     * Platform to pick from a multi-platform base image when building with <code>jshift.build.daemonless</code>
+     */
+    @Parameter(property = "jshift.build.daemonless.platform", defaultValue = "linux/amd64")
+    protected String daemonlessPlatform;
+
+    /**
+     * Create images whose digest only depends on their content. All files get the same modification
+     * time, owner and normalized permissions, files with local state only are left out and the image
+     * records the same creation date. The date is taken from <code>project.build.outputTimestamp</code>,
+     * then from the environment variable <code>SOURCE_DATE_EPOCH</code> and finally from the stored
+     * build timestamp, which is renewed by a clean build.
+     * Only applies to images built with <code>jshift.build.daemonless</code> and to the build context
+     * streamed to OpenShift when <code>jshift.build.compression</code> is set, which are archived by
+     * the plugin itself. The build archives of the other builds keep the modification times of the
+     * files and a Docker daemon sets its own dates.
+     */
+    @Parameter(property = "jshift.build.reproducible", defaultValue = "false")
+    protected boolean reproducibleBuild;
+
+    /**
+     * File to which spans of the work done by the goals are written, in the Chrome trace format.
+     * A relative path is resolved against the directory Maven has been started in. Tracing is
+     * disabled if not set.
+     */
+    @Parameter(property = "jshift.trace.file")
+    protected String traceFile;
+
+    @Parameter(defaultValue = "${mojoExecution}", readonly = true)
+    protected MojoExecution mojoExecution;
+
     /**
      * OpenShift build mode when an OpenShift build is performed.
      * Can be either "s2i" for an s2i binary build mode or "docker" for a binary
@@ -339,6 +639,7 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
 
     /**
      * Environment name where resources are placed. For example, if you set this property to dev and resourceDir is the default one, Plugin will look at src/main/jshift/dev
+     * Of several comma separated environments the first one is used, the resource goal makes sure they all configure the generators the same.
      */
     @Parameter(property = "jshift.environment")
     protected String environment;
@@ -359,6 +660,12 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
     // Mode which is resolved, also when 'auto' is set
     protected RuntimeMode runtimeMode;
 
+    // Background pulls of base images, only set while executing the build goal
+    private volatile BaseImagePrefetcher baseImagePrefetcher;
+
+    // Image pull cache kept on disk, created on first use when docker.pullCache is 'persistent'
+    private PersistentImagePullCacheStore persistentPullCacheStore;
+
     /**
      * Watching mode for rebuilding images
      */
@@ -404,7 +711,7 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
             log = new AnsiLogger(getLog(), useColorForLogging(), verbose, !settings.getInteractiveMode(), getLogPrefix());
 
             try {
-                authConfigFactory.setLog(log);
+                initAuthConfigFactory();
                 imageConfigResolver.setLog(log);
 
                 LogOutputSpecFactory logSpecFactory = new LogOutputSpecFactory(useColor, logStdout, logDate);
@@ -412,12 +719,12 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
                 ConfigHelper.validateExternalPropertyActivation(project, images);
 
                 DockerAccess access = null;
-                try {
+                try (Tracer.Span span = startGoalSpan()) {
                     // The 'real' images configuration to use (configured images + externally resolved images)
                     this.minimalApiVersion = initImageConfiguration(getBuildTimestamp());
                     if (isDockerAccessRequired()) {
                         DockerAccessFactory.DockerAccessContext dockerAccessContext = getDockerAccessContext();
-                        access = dockerAccessFactory.createDockerAccess(dockerAccessContext);
+                        access = recordImagePulls(DockerAccessPool.getDockerAccess(session, project, dockerAccessFactory, dockerAccessContext));
                     }
                     ServiceHub serviceHub = serviceHubFactory.createServiceHub(project, session, access, log, logSpecFactory);
                     executeInternal(serviceHub);
@@ -427,10 +734,6 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
                 } catch (MojoExecutionException exp) {
                     logException(exp);
                     throw exp;
-                } finally {
-                    if (access != null) {
-                        access.shutdown();
-                    }
                 }
             } finally {
                 Ansi.setEnabled(ansiRestore);
@@ -438,6 +741,11 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
         }
     }
 
+    // Span around the whole goal, which also starts tracing when a trace file is configured
+    protected Tracer.Span startGoalSpan() throws MojoExecutionException {
+        return Tracer.startGoal(traceFile, session, mojoExecution != null ? mojoExecution.getGoal() : getClass().getSimpleName(), project);
+    }
+
     /**
      * Hook for subclass for doing the real job
      *
@@ -489,13 +797,27 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
      * @throws MojoExecutionException
      */
     protected void processImageConfig(ServiceHub hub, ImageConfiguration aImageConfig) throws IOException, MojoExecutionException {
+        processImageConfig(hub, aImageConfig, jshiftServiceHub, log);
+    }
+
+    /**
+     * Helper method to process an ImageConfiguration with a specific service hub and logger,
+     * as used when building images in parallel.
+     *
+     * @param hub             ServiceHub
+     * @param aImageConfig    ImageConfiguration that would be forwarded to build and tag
+     * @param imageServiceHub Jshift service hub to use for this image
+     * @param imageLog        logger to use for this image
+     */
+    protected void processImageConfig(ServiceHub hub, ImageConfiguration aImageConfig,
+                                      JshiftServiceHub imageServiceHub, KitLogger imageLog) throws IOException, MojoExecutionException {
         BuildConfiguration buildConfig = aImageConfig.getBuildConfiguration();
 
         if (buildConfig != null) {
             if (buildConfig.getSkip()) {
-                log.info("%s : Skipped building", aImageConfig.getDescription());
+                imageLog.info("%s : Skipped building", aImageConfig.getDescription());
             } else {
-                buildAndTag(hub, aImageConfig);
+                buildAndTag(hub, aImageConfig, imageServiceHub, imageLog);
             }
         }
     }
@@ -522,6 +844,36 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
         return now;
     }
 
+    /**
+     * Get the date to use for all files and the creation date of images in a reproducible build
+     * @return timestamp to use
+     */
+    protected Date getReproducibleTimestamp() throws IOException, MojoExecutionException {
+        String outputTimestamp = project.getProperties().getProperty("project.build.outputTimestamp");
+        if (outputTimestamp != null && outputTimestamp.length() > 1) {
+            return parseOutputTimestamp("project.build.outputTimestamp", outputTimestamp);
+        }
+        String sourceDateEpoch = System.getenv("SOURCE_DATE_EPOCH");
+        if (sourceDateEpoch != null && !sourceDateEpoch.trim().isEmpty()) {
+            return parseOutputTimestamp("SOURCE_DATE_EPOCH", sourceDateEpoch);
+        }
+        return getBuildTimestamp();
+    }
+
+    // Same formats as accepted by the Maven archiver: seconds since the epoch or an ISO-8601 date
+    private Date parseOutputTimestamp(String source, String value) throws MojoExecutionException {
+        String timestamp = value.trim();
+        try {
+            if (timestamp.matches("\\d+")) {
+                return new Date(Long.parseLong(timestamp) * 1000);
+            }
+            return Date.from(OffsetDateTime.parse(timestamp).toInstant());
+        } catch (NumberFormatException | DateTimeParseException exp) {
+            throw new MojoExecutionException("Invalid " + source + " '" + value +
+                                             "'. Must be seconds since the epoch or an ISO-8601 date like 2019-10-02T08:04:00Z");
+        }
+    }
+
     protected void processDmpPluginDescription(URL pluginDesc, File outputDir) throws IOException {
         String line = null;
         try (LineNumberReader reader =
@@ -544,6 +896,14 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
         }
     }
 
+    // Credentials are cached for the whole session when the factory supports it
+    protected void initAuthConfigFactory() {
+        authConfigFactory.setLog(log);
+        if (authConfigFactory instanceof CachingAuthConfigFactory) {
+            ((CachingAuthConfigFactory) authConfigFactory).setSession(session);
+        }
+    }
+
     protected RegistryService.RegistryConfig getRegistryConfig(String specificRegistry) throws MojoExecutionException {
         return new RegistryService.RegistryConfig.Builder()
                 .settings(settings)
@@ -636,15 +996,97 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
             return;
         }
 
+        if (reproducibleBuild && !daemonlessBuild && !isStreamingOpenShiftBuild()) {
+            log.warn("jshift.build.reproducible only applies to images built with jshift.build.daemonless " +
+                     "and to OpenShift builds with jshift.build.compression");
+        }
+        buildImages(hub, getResolvedImages());
+        logImagePullCacheStatistics();
+    }
+
+    /**
+     * Start pulling the base images of the resolved images in the background
+     *
+     * @param access Docker connection to pull with
+     * @param logSpecFactory log spec factory for the service hub of the prefetch
+     * @return the connection to build with, which waits for a base image only when building on top of it
+     */
+    protected DockerAccess startBaseImagePrefetch(DockerAccess access, LogOutputSpecFactory logSpecFactory)
+        throws MojoExecutionException {
+        if (!prefetchBaseImages || skipBuild || access == null) {
+            return access;
+        }
+        ServiceHub prefetchHub = serviceHubFactory.createServiceHub(project, session, access, log, logSpecFactory);
+        baseImagePrefetcher = new BaseImagePrefetcher(prefetchHub, getImagePullManager(imagePullPolicy, autoPull),
+                                                      getRegistryConfig(pullRegistry), log, Math.max(2, buildThreads));
+        baseImagePrefetcher.start(getResolvedImages());
+        return baseImagePrefetcher.wrap(access);
+    }
+
+    protected void stopBaseImagePrefetch() {
+        if (baseImagePrefetcher != null) {
+            baseImagePrefetcher.shutdown();
+            baseImagePrefetcher = null;
+        }
+    }
+
+    private void buildImages(ServiceHub hub, List<ImageConfiguration> imageConfigs) throws IOException, MojoExecutionException {
         // Check for build plugins
         executeBuildPlugins();
 
-        // Iterate over all the ImageConfigurations and process one by one
-        for (ImageConfiguration imageConfig : getResolvedImages()) {
-            processImageConfig(hub, imageConfig);
+        // Jars linked into the content store by the last build must not be overwritten in place by the
+        // assembly. Also done without the store, which may have been used by the last build.
+        ContentAddressedStore.unlink(getDockerOutputDirectory());
+
+        if (buildThreads > 1 && imageConfigs.size() > 1) {
+            // Build independent images concurrently, each with its own service hub and log prefix
+            log.info("Building %d images with up to %d threads", imageConfigs.size(), buildThreads);
+            new ImageBuildScheduler(buildThreads, log).build(imageConfigs, imageConfig -> {
+                KitLogger imageLog = createImageLogger(imageConfig);
+                processImageConfig(hub, imageConfig, createJshiftServiceHub(hub, imageLog), imageLog);
+            });
+        } else {
+            // Iterate over all the ImageConfigurations and process one by one
+            for (ImageConfiguration imageConfig : imageConfigs) {
+                processImageConfig(hub, imageConfig);
+            }
+        }
+
+        if (useContentStore) {
+            linkIntoContentStore();
         }
     }
 
+    private void linkIntoContentStore() throws IOException {
+        ContentAddressedStore store = getContentStore();
+        ContentAddressedStore.Statistics statistics;
+        try (Tracer.Span span = Tracer.span("contentStore")) {
+            statistics = store.link(getDockerOutputDirectory());
+        }
+        log.info("Linked %d jars (%d kB) into %s, saving %d kB already stored by other build contexts",
+                 statistics.getLinkedFiles(), statistics.getLinkedBytes() / 1024, store.getStoreDir(),
+                 statistics.getStoredBytes() / 1024);
+        if (buildReport != null) {
+            buildReport.setContentStore(statistics.getLinkedFiles(), statistics.getLinkedBytes(), statistics.getStoredBytes());
+        }
+    }
+
+    protected ContentAddressedStore getContentStore() {
+        File storeDir = contentStoreDir;
+        if (storeDir == null) {
+            MavenProject topLevelProject = session.getTopLevelProject() != null ? session.getTopLevelProject() : project;
+            storeDir = new File(topLevelProject.getBuild().getDirectory(), CONTENT_STORE_DIR);
+        }
+        return ContentAddressedStore.getInstance(storeDir);
+    }
+
+    // Logger which prefixes every line with the alias or name of the image
+    protected KitLogger createImageLogger(ImageConfiguration imageConfig) {
+        String label = imageConfig.getAlias() != null ? imageConfig.getAlias() : imageConfig.getName();
+        return new AnsiLogger(getLog(), useColorForLogging(), verbose, !settings.getInteractiveMode(),
+                              getLogPrefix() + "[" + label + "] ");
+    }
+
     protected boolean shouldSkipBecauseOfPomPackaging() {
         if (!project.getPackaging().equals("pom")) {
             // No pom packaging
@@ -666,18 +1108,440 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
 
     protected void buildAndTag(ServiceHub hub, ImageConfiguration imageConfig)
             throws MojoExecutionException, DockerAccessException {
+        buildAndTag(hub, imageConfig, jshiftServiceHub, log);
+    }
 
-        try {
+    protected void buildAndTag(ServiceHub hub, ImageConfiguration imageConfig, JshiftServiceHub imageServiceHub,
+                               KitLogger imageLog) throws MojoExecutionException, DockerAccessException {
+
+        long start = System.currentTimeMillis();
+        BuildReport.Image report = new BuildReport.Image();
+        report.setName(imageConfig.getName());
+        report.setGenerator(imageGenerators.get(imageConfig.getName()));
+        report.setBuildMode(getBuildMode());
+        try (Tracer.Span span = Tracer.span("build", Tracer.IMAGE, imageConfig.getName())) {
             // TODO need to refactor d-m-p to avoid this call
-            EnvUtil.storeTimestamp(getBuildTimestampFile(), getBuildTimestamp());
+            storeBuildTimestamp();
+
+            String fingerprint = skipUnchangedBuilds ? calculateBuildFingerprint(hub, imageConfig) : null;
+            File fingerprintFile = getBuildFingerprintFile(imageConfig);
+            if (fingerprint != null &&
+                fingerprint.equals(BuildFingerprint.load(fingerprintFile)) &&
+                isBuildResultAvailable(hub, imageConfig)) {
+                imageLog.info("%s : Skipped building, inputs unchanged since last build", imageConfig.getDescription());
+                report.setSkipped(true);
+                addToBuildReport(report, start);
+                return;
+            }
 
-            jshiftServiceHub.getBuildService().build(imageConfig);
+            if (daemonlessBuild) {
+                buildDaemonless(imageConfig, report, imageLog);
+            } else if (isStreamingOpenShiftBuild()) {
+                buildOpenShiftStreaming(imageConfig, report, imageLog);
+            } else {
+                imageServiceHub.getBuildService().build(imageConfig);
+                report.setContextSize(getBuildContextSize(imageConfig, start));
+            }
+
+            if (fingerprint != null) {
+                BuildFingerprint.store(fingerprintFile, fingerprint);
+            }
+            if (classDataSharingImages.contains(imageConfig.getName()) && classDataSharingResult != null) {
+                report.setStartupMillis(classDataSharingResult.getStartupMillis());
+                report.setStartupMillisWithCds(classDataSharingResult.getStartupMillisWithArchive());
+            }
+            addToBuildReport(report, start);
 
         } catch (Exception ex) {
             throw new MojoExecutionException("Failed to execute the build", ex);
         }
     }
 
+    // Fingerprint over everything which goes into an image build. Returns null if
+    // rebuilds are requested anyways or the base image cannot be resolved.
+    protected String calculateBuildFingerprint(ServiceHub hub, ImageConfiguration imageConfig) throws IOException {
+        BuildRecreateMode recreateMode = BuildRecreateMode.fromParameter(buildRecreate);
+        if (recreateMode.isBuildConfig() || recreateMode.isImageStream()) {
+            return null;
+        }
+        BuildConfiguration buildConfig = imageConfig.getBuildConfiguration();
+        BuildFingerprint fingerprint = new BuildFingerprint()
+            .add("name", imageConfig.getName())
+            .add("mode", String.valueOf(runtimeMode))
+            .add("strategy", String.valueOf(buildStrategy))
+            .addObject("buildConfig", buildConfig)
+            .add("buildArgs", buildArgs);
+        String baseImageDigest = getBaseImageDigest(hub, buildConfig);
+        if (baseImageDigest == null) {
+            log.verbose("%s : Base image cannot be resolved, not skipping the build", imageConfig.getDescription());
+            return null;
+        }
+        fingerprint.add("from", baseImageDigest);
+
+        // Assembly inputs
+        fingerprint.addFile(project.getArtifact() != null ? project.getArtifact().getFile() : null);
+        for (Artifact artifact : project.getArtifacts()) {
+            fingerprint.add("artifact", artifact.getId()).addFile(artifact.getFile());
+        }
+        fingerprint.addFile(new File(project.getBasedir(), sourceDirectory))
+                   .addFile(new File(project.getBuild().getDirectory(), DOCKER_EXTRA_DIR))
+                   .addFile(getLayeredDockerFile(imageConfig))
+                   .addFile(getClassDataSharingLayerDir());
+        addDockerFileSources(fingerprint, buildConfig);
+        addAssemblySources(fingerprint, buildConfig.getAssemblyConfiguration());
+        return fingerprint.get();
+    }
+
+    // Dockerfile and context directory, which may lie outside of the source directory, e.g. the
+    // project directory for a top-level Dockerfile. The build contexts written by this plugin are
+    // left out, they change with every build.
+    private void addDockerFileSources(BuildFingerprint fingerprint, BuildConfiguration buildConfig) throws IOException {
+        if (!buildConfig.isDockerFileMode()) {
+            return;
+        }
+        String baseDir = project.getBasedir().getAbsolutePath();
+        File dockerOutputDir = getDockerOutputDirectory().getAbsoluteFile();
+        fingerprint.add("source", "dockerFile")
+                   .addFile(buildConfig.getAbsoluteDockerFilePath(sourceDirectory, baseDir))
+                   .add("source", "contextDir")
+                   .addFile(buildConfig.getAbsoluteContextDirPath(sourceDirectory, baseDir),
+                            file -> !file.getAbsoluteFile().equals(dockerOutputDir));
+    }
+
+    // Files and directories copied by the assembly, given inline or in a descriptor. Dependency sets are
+    // covered by the artifacts of the project.
+    private void addAssemblySources(BuildFingerprint fingerprint, AssemblyConfiguration assembly) throws IOException {
+        if (assembly == null) {
+            return;
+        }
+        List<String> sources = new ArrayList<>();
+        Assembly inline = assembly.getInline();
+        if (inline != null) {
+            for (FileSet fileSet : inline.getFileSets()) {
+                sources.add(fileSet.getDirectory());
+            }
+            for (FileItem file : inline.getFiles()) {
+                sources.add(file.getSource());
+            }
+        }
+        if (assembly.getDescriptor() != null) {
+            File descriptor = EnvUtil.prepareAbsoluteSourceDirPath(sourceDirectory, project.getBasedir().getAbsolutePath(),
+                                                                   assembly.getDescriptor());
+            fingerprint.add("source", "descriptor").addFile(descriptor);
+            if (descriptor.isFile()) {
+                sources.addAll(BuildFingerprint.getAssemblySources(descriptor));
+            }
+        }
+        File dockerOutputDir = getDockerOutputDirectory().getAbsoluteFile();
+        for (String source : sources) {
+            fingerprint.add("assemblySource", source)
+                       .addFile(resolveAssemblySource(source), file -> !file.getAbsoluteFile().equals(dockerOutputDir));
+        }
+    }
+
+    // Paths in assemblies are relative to the project directory, which is also taken for file sets without
+    // directory. Descriptors are not interpolated by Maven, so the common project expressions are resolved here.
+    private File resolveAssemblySource(String source) {
+        if (source == null) {
+            return project.getBasedir();
+        }
+        String path = source.replace("${project.build.directory}", project.getBuild().getDirectory())
+                            .replace("${project.basedir}", project.getBasedir().getAbsolutePath())
+                            .replace("${basedir}", project.getBasedir().getAbsolutePath());
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(project.getBasedir(), path);
+    }
+
+    // Identity of the base image: the image behind an ImageStreamTag in OpenShift mode, the id of the
+    // local image or the digest of its manifest in the registry. An empty string for images without
+    // configured base image, null if the base image cannot be resolved.
+    private String getBaseImageDigest(ServiceHub hub, BuildConfiguration buildConfig) throws IOException {
+        Map<String, String> fromExt = buildConfig.getFromExt();
+        if (runtimeMode == RuntimeMode.openshift && fromExt != null && "ImageStreamTag".equals(fromExt.get("kind"))) {
+            String namespace = fromExt.get("namespace") != null ? fromExt.get("namespace") : clusterAccess.getNamespace();
+            try (KubernetesClient client = clusterAccess.createDefaultClient(log)) {
+                ImageStreamTag tag = client.adapt(OpenShiftClient.class).imageStreamTags()
+                                           .inNamespace(namespace).withName(fromExt.get("name")).get();
+                return tag != null && tag.getImage() != null ? tag.getImage().getDockerImageReference() : null;
+            } catch (KubernetesClientException exp) {
+                log.verbose("Cannot look up the ImageStreamTag %s: %s", fromExt.get("name"), exp.getMessage());
+                return null;
+            }
+        }
+        String from = buildConfig.getFrom();
+        if (from == null) {
+            return "";
+        }
+        if (runtimeMode != RuntimeMode.openshift && hub.getDockerAccess() != null) {
+            try {
+                String imageId = hub.getDockerAccess().getImageId(from);
+                if (imageId != null) {
+                    return imageId;
+                }
+            } catch (DockerAccessException exp) {
+                log.verbose("Cannot look up the local image %s: %s", from, exp.getMessage());
+            }
+        }
+        RegistryClient.ImageReference reference = RegistryClient.parse(from, pullRegistry != null ? pullRegistry : registry);
+        try {
+            return createRegistryClient(reference.getRegistry(), null, false).getManifestDigest(reference);
+        } catch (IOException exp) {
+            log.verbose("Cannot look up the digest of %s: %s", from, exp.getMessage());
+            return null;
+        }
+    }
+
+    protected File getBuildFingerprintFile(ImageConfiguration imageConfig) {
+        return new File(getDockerOutputDirectory(), imageConfig.getName().replaceAll("[^a-zA-Z0-9._-]", "_") + ".fingerprint");
+    }
+
+    // Absolute directory holding the build contexts of the images
+    protected File getDockerOutputDirectory() {
+        File dockerDir = new File(outputDirectory);
+        return dockerDir.isAbsolute() ? dockerDir : new File(project.getBasedir(), outputDirectory);
+    }
+
+    // Check whether the result of a previous build is still present. If the registry, the cluster or the
+    // daemon cannot be asked, the result is taken as missing, so that the image is rebuilt.
+    protected boolean isBuildResultAvailable(ServiceHub hub, ImageConfiguration imageConfig) {
+        try {
+            return checkBuildResult(hub, imageConfig);
+        } catch (IOException | KubernetesClientException exp) {
+            log.verbose("%s : Cannot check the result of the last build, rebuilding: %s",
+                        imageConfig.getDescription(), exp.getMessage());
+            return false;
+        }
+    }
+
+    private boolean checkBuildResult(ServiceHub hub, ImageConfiguration imageConfig) throws IOException {
+        if (daemonlessBuild) {
+            if (!OciImageBuilder.OUTPUT_REGISTRY.equals(daemonlessOutput)) {
+                return getOciImageFile(imageConfig).exists();
+            }
+            RegistryClient.ImageReference reference =
+                RegistryClient.parse(imageConfig.getName(), imageConfig.getRegistry() != null ? imageConfig.getRegistry() : registry);
+            return createRegistryClient(reference.getRegistry(), null, true).getManifestDigest(reference) != null;
+        }
+        if (runtimeMode == RuntimeMode.openshift) {
+            String name = imageConfig.getName();
+            int lastSlash = name.lastIndexOf('/');
+            String imageStreamTag = name.substring(lastSlash + 1);
+            if (imageStreamTag.indexOf(':') < 0) {
+                imageStreamTag += ":latest";
+            }
+            try (KubernetesClient client = clusterAccess.createDefaultClient(log)) {
+                return client.adapt(OpenShiftClient.class).imageStreamTags()
+                             .inNamespace(clusterAccess.getNamespace())
+                             .withName(imageStreamTag).get() != null;
+            }
+        }
+        return hub.getDockerAccess() != null && hub.getDockerAccess().hasImage(imageConfig.getName());
+    }
+
+    private String getBuildMode() {
+        if (daemonlessBuild) {
+            return "daemonless";
+        }
+        return runtimeMode == RuntimeMode.openshift ? "openshift-" + buildStrategy : "docker";
+    }
+
+    private void addToBuildReport(BuildReport.Image report, long start) {
+        if (buildReport != null) {
+            report.setDurationMillis(System.currentTimeMillis() - start);
+            buildReport.add(report);
+        }
+    }
+
+    // Size of the archive created by this build. Archives with another compression may be left over from
+    // earlier builds, so the newest one written since the build started is taken. File times may only have
+    // a precision of seconds.
+    private Long getBuildContextSize(ImageConfiguration imageConfig, long buildStart) {
+        File tmpDir = new File(getImageOutputDirectory(imageConfig), "tmp");
+        long earliest = buildStart - buildStart % 1000;
+        File[] archives = tmpDir.listFiles((dir, name) -> name.startsWith("docker-build."));
+        File ret = null;
+        if (archives != null) {
+            for (File archive : archives) {
+                if (archive.lastModified() >= earliest && (ret == null || archive.lastModified() > ret.lastModified())) {
+                    ret = archive;
+                }
+            }
+        }
+        return ret != null ? ret.length() : null;
+    }
+
+    /**
+     * Write the build report of this module, attach it to the project and add it to the aggregate
+     * report of the reactor
+     *
+     * @throws IOException if a report cannot be written
+     */
+    protected void writeBuildReport() throws IOException {
+        if (buildReport == null || buildReport.isEmpty()) {
+            return;
+        }
+        File reportFile = new File(project.getBuild().getDirectory(), BUILD_REPORT);
+        buildReport.write(reportFile);
+        synchronized (projectHelper) {
+            projectHelper.attachArtifact(project, "json", BUILD_REPORT_CLASSIFIER, reportFile);
+        }
+        MavenProject topLevelProject = session.getTopLevelProject() != null ? session.getTopLevelProject() : project;
+        Date buildStart = session.getRequest() != null ? session.getRequest().getStartTime() : null;
+        buildReport.addToAggregate(new File(topLevelProject.getBuild().getDirectory(), BUILD_REPORT_AGGREGATE),
+                                   buildStart != null ? Long.toString(buildStart.getTime()) : "");
+        log.info("Build report written to %s", reportFile);
+    }
+
+    // Build an image without Docker daemon, from the same build archive as used for a Docker build
+    protected void buildDaemonless(ImageConfiguration imageConfig, BuildReport.Image report, KitLogger imageLog)
+        throws IOException, MojoExecutionException {
+        BuildConfiguration buildConfig = imageConfig.getBuildConfiguration();
+        if (buildConfig.isDockerFileMode()) {
+            throw new MojoExecutionException(imageConfig.getDescription() +
+                                             " : Images using a Dockerfile need a Docker daemon and cannot be built daemonless");
+        }
+        List<String> unsupported = new ArrayList<>();
+        if (buildConfig.getRunCmds() != null && !buildConfig.getRunCmds().isEmpty()) {
+            unsupported.add("runCmds");
+        }
+        if (buildConfig.getVolumes() != null && !buildConfig.getVolumes().isEmpty()) {
+            unsupported.add("volumes");
+        }
+        if (buildConfig.getHealthCheck() != null) {
+            unsupported.add("healthCheck");
+        }
+        if (!unsupported.isEmpty()) {
+            throw new MojoExecutionException(imageConfig.getDescription() + " : " + String.join(", ", unsupported) +
+                                             " need a Docker daemon and cannot be built daemonless");
+        }
+        if (!OciImageBuilder.OUTPUT_TAR.equals(daemonlessOutput) && !OciImageBuilder.OUTPUT_REGISTRY.equals(daemonlessOutput)) {
+            throw new MojoExecutionException("Invalid jshift.build.daemonless.output '" + daemonlessOutput +
+                                             "'. Must be '" + OciImageBuilder.OUTPUT_TAR + "' or '" + OciImageBuilder.OUTPUT_REGISTRY + "'");
+        }
+        File archive;
+        try (Tracer.Span span = Tracer.span("assembly")) {
+            archive = DockerAssemblyManager.getInstance()
+                .createDockerTarArchive(imageConfig.getName(), createMojoParameters(), buildConfig, imageLog, null);
+        }
+        OciImageBuilder builder =
+            new OciImageBuilder(getOciWorkDirectory(imageConfig), (reg, push) -> createRegistryClient(reg, null, push), imageLog,
+                                BuildContextArchiver.parseCompressionLevel(buildCompression),
+                                Runtime.getRuntime().availableProcessors(), daemonlessPlatform, reproducibleBuild);
+        Date created = reproducibleBuild ? getReproducibleTimestamp() : getBuildTimestamp();
+        File imageFile = builder.build(imageConfig, archive, created, daemonlessOutput,
+                                       imageConfig.getRegistry() != null ? imageConfig.getRegistry() : registry);
+        OciImageBuilder.Statistics statistics = builder.getStatistics();
+        report.setContextSize(archive.length());
+        report.setBaseLayers(statistics.getBaseLayers());
+        report.setLayers(statistics.getLayers());
+        report.setReusedLayers(statistics.getReusedLayers());
+        report.setBaseImageSize(statistics.getBaseImageSize());
+        report.setCompressedLayerSize(statistics.getCompressedSize());
+        report.setUncompressedLayerSize(statistics.getUncompressedSize() >= 0 ? statistics.getUncompressedSize() : null);
+        report.setPulledBytes(statistics.getPulledBytes());
+        report.setPushedBytes(statistics.getPushedBytes());
+        if (imageFile != null) {
+            imageLog.info("%s : Saved image to %s", imageConfig.getDescription(), imageFile);
+        }
+    }
+
+    // The plugin streams the build context to OpenShift itself when a compression is configured
+    private boolean isStreamingOpenShiftBuild() {
+        return runtimeMode == RuntimeMode.openshift && buildCompression != null;
+    }
+
+    // OpenShift binary build uploading the build context while it is archived and compressed
+    protected void buildOpenShiftStreaming(ImageConfiguration imageConfig, BuildReport.Image report, KitLogger imageLog)
+        throws IOException, MojoExecutionException {
+        BuildConfiguration buildConfig = imageConfig.getBuildConfiguration();
+        try (Tracer.Span span = Tracer.span("assembly")) {
+            // Only the build directory is uploaded, so don't spend time compressing the kit's archive
+            DockerAssemblyManager.getInstance()
+                .createDockerTarArchive(imageConfig.getName(), createMojoParameters(),
+                                        new BuildConfiguration.Builder(buildConfig).compression("none").build(), imageLog, null);
+        }
+        File contextDir = new File(getImageOutputDirectory(imageConfig), "build");
+        BuildContextArchiver archiver =
+            new BuildContextArchiver(BuildContextArchiver.parseCompressionLevel(buildCompression),
+                                     Runtime.getRuntime().availableProcessors(),
+                                     reproducibleBuild ? getReproducibleTimestamp() : null);
+        File imageStreamFile = new File(project.getBuild().getDirectory(), project.getArtifactId() + "-is.yml");
+        String baseImageRegistry = getBaseImageRegistry(buildConfig);
+        AuthConfig pullAuth = baseImageRegistry != null ? getPullAuthConfig(baseImageRegistry) : null;
+        try (KubernetesClient client = clusterAccess.createDefaultClient(imageLog)) {
+            OpenShiftBinaryBuild build =
+                new OpenShiftBinaryBuild(client.adapt(OpenShiftClient.class), clusterAccess.getNamespace(), archiver, imageLog)
+                    .strategy(buildStrategy)
+                    .buildNameSuffix(s2iBuildNameSuffix)
+                    .lookupPolicyLocal(s2iImageStreamLookupPolicyLocal)
+                    .pullSecret(openshiftPullSecret, baseImageRegistry, pullAuth)
+                    .forcePull(forcePull)
+                    .recreateMode(BuildRecreateMode.fromParameter(buildRecreate))
+                    .imageStreamFile(imageStreamFile);
+            build.build(imageConfig.getName(), buildConfig, contextDir);
+            report.setContextSize(build.getUploadedBytes() >= 0 ? build.getUploadedBytes() : null);
+        }
+        // Attached like the kit's build service does, images built concurrently share the file
+        synchronized (projectHelper) {
+            if (imageStreamFile.exists()) {
+                projectHelper.attachArtifact(project, "yml", "is", imageStreamFile);
+            }
+        }
+    }
+
+    // Registry the base image is pulled from, null for an ImageStreamTag or no base image
+    private String getBaseImageRegistry(BuildConfiguration buildConfig) {
+        Map<String, String> fromExt = buildConfig.getFromExt();
+        if (buildConfig.getFrom() == null || (fromExt != null && "ImageStreamTag".equals(fromExt.get("kind")))) {
+            return null;
+        }
+        return RegistryClient.parse(buildConfig.getFrom(), pullRegistry != null ? pullRegistry : registry).getRegistry();
+    }
+
+    // Credentials for pulling the base image into the cluster, from which the pull secret is created like the
+    // kit's build service does. Null if none are configured.
+    private AuthConfig getPullAuthConfig(String registryName) {
+        try {
+            return authConfigFactory.createAuthConfig(false, skipExtendedAuth, authConfig != null ? authConfig.toMap() : null,
+                                                      settings, null, registryName);
+        } catch (MojoExecutionException exp) {
+            log.verbose("Cannot get credentials for %s, not creating a pull secret: %s", registryName, exp.getMessage());
+            return null;
+        }
+    }
+
+    // Directory below target/docker in which the kit assembles an image
+    private File getImageOutputDirectory(ImageConfiguration imageConfig) {
+        return new File(getDockerOutputDirectory(), imageConfig.getName().replace(':', File.separatorChar)
+                                                              .replace('/', File.separatorChar));
+    }
+
+    protected File getOciWorkDirectory(ImageConfiguration imageConfig) {
+        return new File(new File(project.getBuild().getDirectory(), DOCKER_OCI_DIR),
+                        imageConfig.getName().replaceAll("[^a-zA-Z0-9._-]", "_"));
+    }
+
+    protected File getOciImageFile(ImageConfiguration imageConfig) {
+        File workDir = getOciWorkDirectory(imageConfig);
+        return new File(workDir.getParentFile(), workDir.getName() + ".tar");
+    }
+
+    // Client for the registry API with the credentials configured for the registry
+    protected RegistryClient createRegistryClient(String registry, String user, boolean push) throws IOException {
+        try {
+            AuthConfig auth = authConfigFactory.createAuthConfig(push, skipExtendedAuth, authConfig != null ? authConfig.toMap() : null,
+                                                                 settings, user, registry);
+            return auth != null ? new RegistryClient(auth.getUsername(), auth.getPassword()) : new RegistryClient(null, null);
+        } catch (MojoExecutionException exp) {
+            throw new IOException("Cannot get credentials for " + registry + ": " + exp.getMessage(), exp);
+        }
+    }
+
+    // Images built in parallel share the same timestamp file
+    private synchronized void storeBuildTimestamp() throws IOException {
+        EnvUtil.storeTimestamp(getBuildTimestampFile(), getBuildTimestamp());
+    }
+
     protected io.jshift.kit.config.service.BuildService.BuildServiceConfig getBuildServiceConfig() throws MojoExecutionException {
         return new io.jshift.kit.config.service.BuildService.BuildServiceConfig.Builder()
                 .dockerBuildContext(getBuildContext())
@@ -691,8 +1555,11 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
                 .imagePullManager(getImagePullManager(imagePullPolicy, autoPull))
                 .buildDirectory(project.getBuild().getDirectory())
                 .attacher((classifier, destFile) -> {
-                    if (destFile.exists()) {
-                        projectHelper.attachArtifact(project, "yml", classifier, destFile);
+                    // Images are built concurrently, and the resource goal may attach at the same time
+                    synchronized (projectHelper) {
+                        if (destFile.exists()) {
+                            projectHelper.attachArtifact(project, "yml", classifier, destFile);
+                        }
                     }
                 })
                 .build();
@@ -705,7 +1572,7 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
      * @return the configuration customized by our generators.
      */
     public List<ImageConfiguration> customizeConfig(List<ImageConfiguration> configs) {
-        runtimeMode = clusterAccess.resolveRuntimeMode(mode, log);
+        runtimeMode = RuntimeModeCache.resolveRuntimeMode(clusterAccess, mode, project, log);
         log.info("Running in [[B]]%s[[B]] mode", runtimeMode.getLabel());
         if (runtimeMode == RuntimeMode.openshift) {
             log.info("Using [[B]]OpenShift[[B]] build with strategy [[B]]%s[[B]]", buildStrategy.getLabel());
@@ -714,10 +1581,253 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
         }
 
         try {
-            return GeneratorManager.generate(configs, getGeneratorContext(), false);
+            return applyLayeredAssembly(applyBuildCompression(GeneratorManager.generate(configs, getGeneratorContext(), false, imageGenerators)));
         } catch (MojoExecutionException e) {
             throw new IllegalArgumentException("Cannot extract generator config: " + e, e);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot create layered Dockerfile: " + e, e);
+        }
+    }
+
+    // Set the compression of the build context archive for all images
+    protected List<ImageConfiguration> applyBuildCompression(List<ImageConfiguration> configs) {
+        if (buildCompression == null) {
+            return configs;
+        }
+        String compression =
+            BuildContextArchiver.parseCompressionLevel(buildCompression) == BuildContextArchiver.COMPRESSION_NONE ? "none" : "gzip";
+        List<ImageConfiguration> ret = new ArrayList<>();
+        for (ImageConfiguration imageConfig : configs) {
+            BuildConfiguration buildConfig = imageConfig.getBuildConfiguration();
+            if (buildConfig == null) {
+                ret.add(imageConfig);
+            } else {
+                ret.add(new ImageConfiguration.Builder(imageConfig)
+                            .buildConfig(new BuildConfiguration.Builder(buildConfig).compression(compression).build())
+                            .build());
+            }
+        }
+        return ret;
+    }
+
+    // Switch images using a supported assembly to its layered variant, built with an own Dockerfile
+    protected List<ImageConfiguration> applyLayeredAssembly(List<ImageConfiguration> configs) throws IOException {
+        File cdsArchive = new File(getClassDataSharingLayerDir(), ClassDataSharingTrainer.ARCHIVE_NAME);
+        if (!classDataSharing) {
+            // The layered assembly picks up any archive, so remove the one of an earlier build
+            Files.deleteIfExists(cdsArchive.toPath());
+        }
+        if (!layeredBuild && !classDataSharing && !jlinkRuntime) {
+            return configs;
+        }
+        if (!daemonlessBuild && runtimeMode == RuntimeMode.openshift && buildStrategy == OpenShiftBuildStrategy.s2i) {
+            log.warn("Layered assemblies need a Docker build and are not used with the S2I build strategy");
+            return configs;
+        }
+        List<ImageConfiguration> ret = new ArrayList<>();
+        for (ImageConfiguration imageConfig : configs) {
+            BuildConfiguration buildConfig = imageConfig.getBuildConfiguration();
+            AssemblyConfiguration assembly = buildConfig != null ? buildConfig.getAssemblyConfiguration() : null;
+            String layeredRef = assembly != null ? LayeredDockerFile.getLayeredDescriptorRef(assembly.getDescriptorRef()) : null;
+            if (layeredRef == null || buildConfig.isDockerFileMode()) {
+                ret.add(imageConfig);
+                continue;
+            }
+
+            AssemblyConfiguration layeredAssembly = new AssemblyConfiguration.Builder()
+                .name(assembly.getName())
+                .targetDir(assembly.getTargetDir())
+                .user(assembly.getUser())
+                .descriptorRef(layeredRef)
+                .build();
+            log.verbose("%s : Using layered assembly %s", imageConfig.getDescription(), layeredRef);
+            boolean flatJar = isFlatJarImage(imageConfig, assembly);
+            boolean executableJar = flatJar && LayeredDockerFile.isFlatExecutableJar(project.getArtifact().getFile());
+            if (classDataSharing && executableJar && isClassDataSharingSupported(imageConfig) && trainClassDataSharing() != null) {
+                String targetDir = LayeredDockerFile.getTargetDir(assembly);
+                Map<String, String> env = new HashMap<>();
+                if (buildConfig.getEnv() != null) {
+                    env.putAll(buildConfig.getEnv());
+                }
+                String options = "-XX:SharedArchiveFile=" + targetDir + "/" + ClassDataSharingTrainer.ARCHIVE_NAME + " -Xshare:auto";
+                String existing = env.get("JAVA_TOOL_OPTIONS");
+                env.put("JAVA_TOOL_OPTIONS", existing != null && !existing.trim().isEmpty() ? options + " " + existing.trim() : options);
+                buildConfig = new BuildConfiguration.Builder(buildConfig).env(env).build();
+                classDataSharingImages.add(imageConfig.getName());
+                log.info("%s : Adding class data sharing archive", imageConfig.getDescription());
+            } else {
+                classDataSharingImages.remove(imageConfig.getName());
+            }
+            if (daemonlessBuild) {
+                if (jlinkRuntime && flatJar) {
+                    log.warn("%s : A jlink runtime needs a Docker build, keeping the base image", imageConfig.getDescription());
+                }
+                // Each layer directory becomes an image layer directly, no Dockerfile needed
+                ret.add(new ImageConfiguration.Builder(imageConfig)
+                            .buildConfig(new BuildConfiguration.Builder(buildConfig).assembly(layeredAssembly).build())
+                            .build());
+                continue;
+            }
+
+            File dockerFile = getLayeredDockerFile(imageConfig);
+            if (!dockerFile.getParentFile().exists() && !dockerFile.getParentFile().mkdirs()) {
+                throw new IOException("Cannot create directory " + dockerFile.getParentFile());
+            }
+            LayeredDockerFile.JlinkRuntime runtime =
+                jlinkRuntime && flatJar ? createJlinkRuntime(imageConfig, buildConfig, executableJar) : null;
+            Files.write(dockerFile.toPath(),
+                        LayeredDockerFile.create(buildConfig, getNonEmptyLayers(), runtime).getBytes(StandardCharsets.UTF_8));
+
+            BuildConfiguration layeredBuildConfig = new BuildConfiguration.Builder(buildConfig)
+                .dockerFile(dockerFile.getPath())
+                .assembly(layeredAssembly)
+                .build();
+            ret.add(new ImageConfiguration.Builder(imageConfig).buildConfig(layeredBuildConfig).build());
+        }
+        return ret;
+    }
+
+    // A COPY of a non existing directory fails, so only include layers which get some content
+    private List<String> getNonEmptyLayers() {
+        boolean hasReleases = false;
+        boolean hasSnapshots = false;
+        for (Artifact artifact : project.getArtifacts()) {
+            if (Artifact.SCOPE_COMPILE.equals(artifact.getScope()) || Artifact.SCOPE_RUNTIME.equals(artifact.getScope())) {
+                if (artifact.isSnapshot()) {
+                    hasSnapshots = true;
+                } else {
+                    hasReleases = true;
+                }
+            }
+        }
+        List<String> ret = new ArrayList<>();
+        if (hasReleases) {
+            ret.add(LayeredDockerFile.DEPENDENCIES_LAYER);
+        }
+        if (hasSnapshots) {
+            ret.add(LayeredDockerFile.SNAPSHOT_DEPENDENCIES_LAYER);
+        }
+        ret.add(LayeredDockerFile.APPLICATION_LAYER);
+        if (classDataSharing && new File(getClassDataSharingLayerDir(), ClassDataSharingTrainer.ARCHIVE_NAME).exists()) {
+            ret.add(LayeredDockerFile.CDS_LAYER);
+        }
+        return ret;
+    }
+
+    // The application jar with its dependencies in the flat layout of artifact-with-dependencies
+    private boolean isFlatJarImage(ImageConfiguration imageConfig, AssemblyConfiguration assembly) {
+        String generator = imageGenerators.get(imageConfig.getName());
+        return ("java-exec".equals(generator) || "spring-boot".equals(generator)) &&
+               "artifact-with-dependencies".equals(assembly.getDescriptorRef()) &&
+               project.getArtifact() != null && project.getArtifact().getFile() != null &&
+               project.getArtifact().getFile().getName().endsWith(".jar");
+    }
+
+    // The JVM of the base image has to accept the options pointing to the archive
+    private boolean isClassDataSharingSupported(ImageConfiguration imageConfig) {
+        if (classDataSharingBaseImageJavaVersion == null) {
+            log.warn("%s : No class data sharing archive added, jshift.build.cds.baseImageJavaVersion is not set",
+                     imageConfig.getDescription());
+            return false;
+        }
+        if (classDataSharingBaseImageJavaVersion < MIN_CDS_JAVA_VERSION) {
+            log.warn("%s : No class data sharing archive added, the base image has Java %d but needs Java %d or newer",
+                     imageConfig.getDescription(), classDataSharingBaseImageJavaVersion, MIN_CDS_JAVA_VERSION);
+            return false;
+        }
+        return true;
+    }
+
+    // Train once, all images of a module contain the same application
+    private synchronized ClassDataSharingTrainer.Result trainClassDataSharing() throws IOException {
+        if (!classDataSharingTrained) {
+            classDataSharingTrained = true;
+            List<File> dependencies = getRuntimeDependencyFiles();
+            File javaHome = classDataSharingJavaHome != null ? classDataSharingJavaHome : new File(System.getProperty("java.home"));
+            try (Tracer.Span span = Tracer.span("cds-training")) {
+                classDataSharingResult =
+                    new ClassDataSharingTrainer(javaHome, new File(project.getBuild().getDirectory(), CDS_DIR),
+                                                getClassDataSharingLayerDir(), classDataSharingTimeout, log)
+                        .train(project.getArtifact().getFile(), dependencies);
+            }
+        }
+        return classDataSharingResult;
+    }
+
+    // Runtime starting the executable jar, or else the main class the base image would start. Null for keeping the base image.
+    private LayeredDockerFile.JlinkRuntime createJlinkRuntime(ImageConfiguration imageConfig, BuildConfiguration buildConfig,
+                                                              boolean executableJar) {
+        String mainClass = buildConfig.getEnv() != null ? buildConfig.getEnv().get("JAVA_MAIN_CLASS") : null;
+        if (!executableJar && (mainClass == null || mainClass.trim().isEmpty())) {
+            log.warn("%s : %s has no Main-Class with a flat Class-Path and JAVA_MAIN_CLASS is not set, keeping the base image",
+                     imageConfig.getDescription(), project.getArtifact().getFile().getName());
+            return null;
+        }
+        if (analyzeModules() == null) {
+            return null;
+        }
+        if (classDataSharingImages.contains(imageConfig.getName())) {
+            log.warn("%s : The class data sharing archive is only used if jshift.build.jlink.jdkImage has the JDK it has been created with",
+                     imageConfig.getDescription());
+        }
+        log.info("%s : Using a Java runtime with the modules %s on %s",
+                 imageConfig.getDescription(), String.join(",", jlinkModules), jlinkBaseImage);
+        // The assembly names the application jar after the final name
+        return executableJar ?
+            new LayeredDockerFile.JlinkRuntime(jlinkJdkImage, jlinkBaseImage, jlinkModules, project.getBuild().getFinalName() + ".jar", null) :
+            new LayeredDockerFile.JlinkRuntime(jlinkJdkImage, jlinkBaseImage, jlinkModules, null, mainClass.trim());
+    }
+
+    // Analyze once, all images of a module contain the same application
+    private synchronized List<String> analyzeModules() {
+        if (!jlinkAnalyzed) {
+            jlinkAnalyzed = true;
+            List<File> dependencies = getRuntimeDependencyFiles();
+            File javaHome = jlinkJavaHome != null ? jlinkJavaHome : new File(System.getProperty("java.home"));
+            ModuleAnalyzer analyzer = new ModuleAnalyzer(javaHome, log);
+            File jar = project.getArtifact().getFile();
+            try (Tracer.Span span = Tracer.span("jdeps")) {
+                Set<String> modules = analyzer.getRequiredModules(jar, dependencies);
+                if (jlinkAddModules != null) {
+                    for (String module : jlinkAddModules.split(",")) {
+                        if (!module.trim().isEmpty()) {
+                            modules.add(module.trim());
+                        }
+                    }
+                }
+                jlinkModules = new ArrayList<>(modules);
+                if (jlinkReportUnused) {
+                    for (File unused : analyzer.getUnreferencedDependencies(jar, dependencies)) {
+                        log.warn("Dependency %s is not referenced by the application (unless loaded via reflection)", unused.getName());
+                    }
+                }
+            } catch (IOException exp) {
+                log.warn("Cannot determine the JDK modules with jdeps of %s, keeping the base image: %s", javaHome, exp.getMessage());
+            }
+        }
+        return jlinkModules;
+    }
+
+    private List<File> getRuntimeDependencyFiles() {
+        List<File> ret = new ArrayList<>();
+        for (Artifact artifact : project.getArtifacts()) {
+            if ((Artifact.SCOPE_COMPILE.equals(artifact.getScope()) || Artifact.SCOPE_RUNTIME.equals(artifact.getScope())) &&
+                artifact.getFile() != null) {
+                ret.add(artifact.getFile());
+            }
         }
+        return ret;
+    }
+
+    // Dockerfile created for an image using a layered assembly
+    private File getLayeredDockerFile(ImageConfiguration imageConfig) {
+        return new File(new File(project.getBuild().getDirectory(), DOCKER_LAYERED_DIR),
+                        imageConfig.getName().replaceAll("[^a-zA-Z0-9._-]", "_") + "/Dockerfile");
+    }
+
+    // Directory picked up by the layered assembly
+    private File getClassDataSharingLayerDir() {
+        return new File(new File(project.getBuild().getDirectory(), CDS_DIR), LayeredDockerFile.CDS_LAYER);
     }
 
     protected String getLogPrefix() {
@@ -739,20 +1849,45 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
                 .build();
     }
 
-    protected JshiftServiceHub getJshiftServiceHub() {
+    // Create the Jshift service hub used for building images
+    protected JshiftServiceHub createJshiftServiceHub(ServiceHub hub, KitLogger log) throws MojoExecutionException {
         return new JshiftServiceHub.Builder()
                 .log(log)
                 .clusterAccess(clusterAccess)
                 .platformMode(mode)
+                .dockerServiceHub(hub)
+                .buildServiceConfig(getBuildServiceConfig())
                 .repositorySystem(repositorySystem)
                 .mavenProject(project)
                 .build();
     }
 
+    // Service hub without Docker access, shared by the goals of a module in the session and replaced by
+    // the build goal with a full one. Goals only share a hub if they log the same way and talk to the same
+    // cluster with the same credentials and namespace.
+    protected synchronized JshiftServiceHub getJshiftServiceHub() {
+        if (jshiftServiceHub == null) {
+            String key = project.getId() + "|" + mode + "|" + runtimeMode +
+                         "|" + getLogPrefix() + "|" + verbose + "|" + useColorForLogging() +
+                         "|" + (clusterAccess != null ? clusterAccess.getNamespace() : null) +
+                         "|" + ReflectionToStringBuilder.toString(getClusterConfiguration(), ToStringStyle.SHORT_PREFIX_STYLE);
+            jshiftServiceHub = DockerAccessPool.getJshiftServiceHub(
+                session, key,
+                () -> new JshiftServiceHub.Builder()
+                    .log(log)
+                    .clusterAccess(clusterAccess)
+                    .platformMode(mode)
+                    .repositorySystem(repositorySystem)
+                    .mavenProject(project)
+                    .build());
+        }
+        return jshiftServiceHub;
+    }
+
     // Get generator config
     protected ProcessorConfig extractGeneratorConfig() {
         try {
-            return ProfileUtil.blendProfileWithConfiguration(ProfileUtil.GENERATOR_CONFIG, profile, ResourceUtil.getFinalResourceDir(resourceDir, environment), generator);
+            return ProfileRegistry.blendProfileWithConfiguration(ProfileUtil.GENERATOR_CONFIG, profile, getEnvironmentResourceDir(), generator);
         } catch (IOException e) {
             throw new IllegalArgumentException("Cannot extract generator config: " + e, e);
         }
@@ -771,17 +1906,54 @@ public abstract class AbstractDockerMojo extends AbstractMojo implements ConfigH
                 .build();
     }
 
+    // Resource directory of the first environment
+    private File getEnvironmentResourceDir() {
+        if (environment != null) {
+            for (String env : environment.split(",")) {
+                if (!env.trim().isEmpty()) {
+                    return ResourceUtil.getFinalResourceDir(resourceDir, env.trim());
+                }
+            }
+        }
+        return ResourceUtil.getFinalResourceDir(resourceDir, null);
+    }
+
     // Get enricher config
     protected ProcessorConfig extractEnricherConfig() {
         try {
-            return ProfileUtil.blendProfileWithConfiguration(ProfileUtil.ENRICHER_CONFIG, profile, ResourceUtil.getFinalResourceDir(resourceDir, environment), enricher);
+            return ProfileRegistry.blendProfileWithConfiguration(ProfileUtil.ENRICHER_CONFIG, profile, getEnvironmentResourceDir(), enricher);
         } catch (IOException e) {
             throw new IllegalArgumentException("Cannot extract enricher config: " + e, e);
         }
     }
 
     public ImagePullManager getImagePullManager(String imagePullPolicy, String autoPull) {
-        return new ImagePullManager(getSessionCacheStore(), imagePullPolicy, autoPull);
+        return new ImagePullManager(getImagePullCacheStore(), imagePullPolicy, autoPull);
+    }
+
+    protected synchronized ImagePullManager.CacheStore getImagePullCacheStore() {
+        if (PULL_CACHE_PERSISTENT.equalsIgnoreCase(pullCacheMode)) {
+            if (persistentPullCacheStore == null) {
+                persistentPullCacheStore = new PersistentImagePullCacheStore(pullCacheFile, pullCacheTtl);
+            }
+            return persistentPullCacheStore;
+        } else if (pullCacheMode != null && !PULL_CACHE_SESSION.equalsIgnoreCase(pullCacheMode)) {
+            throw new IllegalArgumentException("Invalid docker.pullCache '" + pullCacheMode + "'. Must be '" +
+                                               PULL_CACHE_SESSION + "' or '" + PULL_CACHE_PERSISTENT + "'");
+        }
+        return getSessionCacheStore();
+    }
+
+    // Record the ids of pulled images when the pull cache is kept on disk
+    protected DockerAccess recordImagePulls(DockerAccess access) {
+        ImagePullManager.CacheStore store = getImagePullCacheStore();
+        return store instanceof PersistentImagePullCacheStore ? ((PersistentImagePullCacheStore) store).wrap(access) : access;
+    }
+
+    protected void logImagePullCacheStatistics() {
+        if (persistentPullCacheStore != null) {
+            log.info("Image pull cache: %s", persistentPullCacheStore.getStatistics());
+        }
     }
 
     protected ImagePullManager.CacheStore getSessionCacheStore() {
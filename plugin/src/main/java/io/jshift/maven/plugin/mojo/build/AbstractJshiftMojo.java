@@ -18,8 +18,10 @@ package io.jshift.maven.plugin.mojo.build;
 import io.jshift.kit.build.service.docker.helper.AnsiLogger;
 import io.jshift.kit.common.KitLogger;
 import io.jshift.kit.config.access.ClusterConfiguration;
+import io.jshift.maven.plugin.trace.Tracer;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Parameter;
@@ -53,6 +55,17 @@ public abstract class AbstractJshiftMojo extends AbstractMojo {
     @Parameter
     protected ClusterConfiguration access;
 
+    /**
+     * File to which spans of the work done by the goals are written, in the Chrome trace format.
+     * A relative path is resolved against the directory Maven has been started in. Tracing is
+     * disabled if not set.
+     */
+    @Parameter(property = "jshift.trace.file")
+    protected String traceFile;
+
+    @Parameter(defaultValue = "${mojoExecution}", readonly = true)
+    protected MojoExecution mojoExecution;
+
     protected KitLogger log;
 
     @Override
@@ -61,7 +74,14 @@ public abstract class AbstractJshiftMojo extends AbstractMojo {
             return;
         }
         log = createLogger(" ");
-        executeInternal();
+        try (Tracer.Span span = startGoalSpan()) {
+            executeInternal();
+        }
+    }
+
+    // Span around the whole goal, which also starts tracing when a trace file is configured
+    protected Tracer.Span startGoalSpan() throws MojoExecutionException {
+        return Tracer.startGoal(traceFile, session, mojoExecution != null ? mojoExecution.getGoal() : getClass().getSimpleName(), project);
     }
 
     public abstract void executeInternal() throws MojoExecutionException, MojoFailureException;
@@ -4,11 +4,14 @@ import io.jshift.kit.build.service.docker.DockerAccessFactory;
 import io.jshift.kit.build.service.docker.ServiceHub;
 import io.jshift.kit.build.service.docker.access.DockerAccess;
 import io.jshift.kit.build.service.docker.access.log.LogOutputSpecFactory;
-import io.jshift.kit.build.service.docker.auth.AuthConfigFactory;
 import io.jshift.kit.build.service.docker.config.ConfigHelper;
 import io.jshift.kit.build.service.docker.helper.AnsiLogger;
 import io.jshift.kit.config.access.ClusterAccess;
-import io.jshift.kit.config.service.JshiftServiceHub;
+import io.jshift.kit.config.resource.RuntimeMode;
+import io.jshift.maven.plugin.build.BuildReport;
+import io.jshift.maven.plugin.build.CachingAuthConfigFactory;
+import io.jshift.maven.plugin.build.DockerAccessPool;
+import io.jshift.maven.plugin.trace.Tracer;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
@@ -28,12 +31,9 @@ import java.io.IOException;
  * @author roland
  * @since 16/03/16
  */
-@Mojo(name = "build", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST, requiresDependencyResolution = ResolutionScope.COMPILE)
+@Mojo(name = "build", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
 public class BuildMojo extends AbstractDockerMojo implements Contextualizable {
 
-    // Handler dealing with authentication credentials
-    private AuthConfigFactory authConfigFactory;
-
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         if (skip || skipBuild) {
@@ -46,7 +46,7 @@ public class BuildMojo extends AbstractDockerMojo implements Contextualizable {
 
     @Override
     public void contextualize(Context context) throws ContextException {
-        authConfigFactory = new AuthConfigFactory((PlexusContainer) context.get(PlexusConstants.PLEXUS_KEY));
+        authConfigFactory = new CachingAuthConfigFactory((PlexusContainer) context.get(PlexusConstants.PLEXUS_KEY));
     }
 
     @Override
@@ -64,19 +64,13 @@ public class BuildMojo extends AbstractDockerMojo implements Contextualizable {
             }
 
             // Build the Jshift service hub
-            jshiftServiceHub = new JshiftServiceHub.Builder()
-                    .log(log)
-                    .clusterAccess(clusterAccess)
-                    .platformMode(mode)
-                    .dockerServiceHub(hub)
-                    .buildServiceConfig(getBuildServiceConfig())
-                    .repositorySystem(repositorySystem)
-                    .mavenProject(project)
-                    .build();
+            jshiftServiceHub = createJshiftServiceHub(hub, log);
 
+            buildReport = buildReportEnabled ? new BuildReport(project.getGroupId() + ":" + project.getArtifactId()) : null;
             executeBuildGoal(hub);
 
             jshiftServiceHub.getBuildService().postProcess(getBuildServiceConfig());
+            writeBuildReport();
         } catch (IOException exception) {
             throw new MojoExecutionException(exception.getMessage());
         }
@@ -85,7 +79,7 @@ public class BuildMojo extends AbstractDockerMojo implements Contextualizable {
     public void executeDockerBuild() throws MojoExecutionException, MojoFailureException {
         if (!skip) {
             log = new AnsiLogger(getLog(), useColor, verbose, !settings.getInteractiveMode(), getLogPrefix());
-            authConfigFactory.setLog(log);
+            initAuthConfigFactory();
             imageConfigResolver.setLog(log);
 
             LogOutputSpecFactory logSpecFactory = new LogOutputSpecFactory(useColor, logStdout, logDate);
@@ -93,13 +87,15 @@ public class BuildMojo extends AbstractDockerMojo implements Contextualizable {
             ConfigHelper.validateExternalPropertyActivation(project, images);
 
             DockerAccess access = null;
-            try {
+            try (Tracer.Span span = startGoalSpan()) {
                 // The 'real' images configuration to use (configured images + externally resolved images)
                 this.minimalApiVersion = initImageConfiguration(getBuildTimestamp());
                 if (isDockerAccessRequired()) {
                     DockerAccessFactory.DockerAccessContext dockerAccessContext = getDockerAccessContext();
-                    access = dockerAccessFactory.createDockerAccess(dockerAccessContext);
+                    access = recordImagePulls(DockerAccessPool.getDockerAccess(session, project, dockerAccessFactory, dockerAccessContext));
                 }
+                // Pull while build plugins and assemblies are prepared
+                access = startBaseImagePrefetch(access, logSpecFactory);
                 ServiceHub serviceHub = serviceHubFactory.createServiceHub(project, session, access, log, logSpecFactory);
                 executeInternal(serviceHub);
             } catch (IOException exp) {
@@ -109,10 +105,14 @@ public class BuildMojo extends AbstractDockerMojo implements Contextualizable {
                 logException(exp);
                 throw exp;
             } finally {
-                if (access != null) {
-                    access.shutdown();
-                }
+                stopBaseImagePrefetch();
             }
         }
     }
+
+    // Images are built by the Docker daemon in Kubernetes mode, whether or not base images are prefetched into it
+    @Override
+    protected boolean isDockerAccessRequired() {
+        return !daemonlessBuild && runtimeMode == RuntimeMode.kubernetes;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package io.jshift.maven.plugin.mojo.build;
+
+import io.jshift.maven.plugin.cache.PluginCacheRegistry;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.util.List;
+
+/**
+ * Shows the statistics of the caches which are kept across builds in the same JVM, e.g. when
+ * running in a Maven daemon. Optionally clears all caches afterwards.
+ */
+@Mojo(name = "cache-stats", requiresProject = false, threadSafe = true)
+public class CacheStatsMojo extends AbstractJshiftMojo {
+
+    /**
+     * Clear all caches after showing their statistics
+     */
+    @Parameter(property = "jshift.cache.clear", defaultValue = "false")
+    private boolean clearCaches;
+
+    @Override
+    public void executeInternal() throws MojoExecutionException, MojoFailureException {
+        PluginCacheRegistry registry = PluginCacheRegistry.getInstance();
+        List<String> statistics = registry.getStatistics();
+        if (statistics.isEmpty()) {
+            log.info("No caches in use yet");
+        }
+        for (String line : statistics) {
+            log.info("%s", line);
+        }
+        if (clearCaches) {
+            registry.invalidateAll();
+            log.info("Cleared all caches");
+        }
+    }
+}
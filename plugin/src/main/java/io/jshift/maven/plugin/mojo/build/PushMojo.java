@@ -0,0 +1,206 @@
+package io.jshift.maven.plugin.mojo.build;
+
+import io.jshift.kit.build.service.docker.ImageConfiguration;
+import io.jshift.kit.build.service.docker.RegistryService;
+import io.jshift.kit.build.service.docker.ServiceHub;
+import io.jshift.kit.config.access.ClusterAccess;
+import io.jshift.kit.config.image.build.BuildConfiguration;
+import io.jshift.kit.config.resource.RuntimeMode;
+import io.jshift.maven.plugin.build.CachingAuthConfigFactory;
+import io.jshift.maven.plugin.build.DockerImageInspector;
+import io.jshift.maven.plugin.build.RegistryClient;
+import io.jshift.maven.plugin.trace.Tracer;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.codehaus.plexus.PlexusConstants;
+import org.codehaus.plexus.PlexusContainer;
+import org.codehaus.plexus.context.Context;
+import org.codehaus.plexus.context.ContextException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pushes the docker images built for this project to a registry. Images whose manifest in the
+ * registry already refers to the same image as the local one are not pushed again.
+ * In OpenShift mode nothing is pushed, since the images have already been pushed to the
+ * ImageStream by the OpenShift build.
+ */
+@Mojo(name = "push", defaultPhase = LifecyclePhase.DEPLOY, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class PushMojo extends AbstractDockerMojo {
+
+    @Parameter(property = "docker.push.registry")
+    private String pushRegistry;
+
+    @Parameter(property = "docker.skip.push", defaultValue = "false")
+    private boolean skipPush;
+
+    /**
+     * Skip pushing the additional tags of the images
+     */
+    @Parameter(property = "docker.skip.tag", defaultValue = "false")
+    private boolean skipTag;
+
+    @Parameter(property = "docker.push.retries", defaultValue = "0")
+    private int retries;
+
+    /**
+     * Skip the push of an image when its name and all its tags already refer to the same image
+     * in the registry. This costs a manifest request per tag instead of an upload. The full id of
+     * the local image is looked up with the <code>docker</code> command line client, images are
+     * always pushed when it is not available.
+     */
+    @Parameter(property = "docker.push.skipExisting", defaultValue = "true")
+    private boolean skipExisting;
+
+    /**
+     * Number of images to push in parallel
+     */
+    @Parameter(property = "docker.push.threads", defaultValue = "1")
+    private int pushThreads;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip || skipPush) {
+            return;
+        }
+        clusterAccess = new ClusterAccess(getClusterConfiguration());
+        super.execute();
+    }
+
+    @Override
+    public void contextualize(Context context) throws ContextException {
+        authConfigFactory = new CachingAuthConfigFactory((PlexusContainer) context.get(PlexusConstants.PLEXUS_KEY));
+    }
+
+    // The runtime mode has already been resolved when customizing the images, before docker access is created
+    @Override
+    protected boolean isDockerAccessRequired() {
+        return runtimeMode == RuntimeMode.kubernetes && !daemonlessBuild;
+    }
+
+    @Override
+    protected void executeInternal(ServiceHub hub) throws MojoExecutionException {
+        if (runtimeMode == RuntimeMode.openshift) {
+            log.info("Images have already been pushed to the ImageStream by the OpenShift build");
+            return;
+        }
+        if (daemonlessBuild) {
+            log.info("Images built daemonless are pushed by the build itself with jshift.build.daemonless.output=registry");
+            return;
+        }
+        if (shouldSkipBecauseOfPomPackaging()) {
+            log.info("Disabling docker push for pom packaging");
+            return;
+        }
+
+        RegistryService.RegistryConfig registryConfig = getRegistryConfig(pushRegistry);
+        DockerImageInspector imageInspector = new DockerImageInspector(dockerHost, certPath, log);
+        int skipped = 0;
+        long bytesSaved = 0;
+        List<ImageConfiguration> imagesToPush = new ArrayList<>();
+        for (ImageConfiguration imageConfig : getResolvedImages()) {
+            BuildConfiguration buildConfig = imageConfig.getBuildConfiguration();
+            if (buildConfig == null || buildConfig.getSkip()) {
+                continue;
+            }
+            long size = skipExisting ? getSizeIfAlreadyPushed(imageInspector, imageConfig, registryConfig) : -1;
+            if (size >= 0) {
+                log.info("%s : Skipped push, registry already contains this image", imageConfig.getDescription());
+                skipped++;
+                bytesSaved += size;
+            } else {
+                imagesToPush.add(imageConfig);
+            }
+        }
+
+        pushImages(hub, imagesToPush, registryConfig);
+
+        if (skipped > 0) {
+            log.info("Pushed %d images, skipped %d unchanged images (%d kB not uploaded)",
+                     imagesToPush.size(), skipped, bytesSaved / 1024);
+        }
+    }
+
+    // Layers which the registry already has are skipped by the Docker daemon itself
+    private void pushImages(ServiceHub hub, List<ImageConfiguration> imageConfigs,
+                            RegistryService.RegistryConfig registryConfig) throws MojoExecutionException {
+        if (pushThreads <= 1 || imageConfigs.size() <= 1) {
+            try (Tracer.Span span = Tracer.span("push", "images", String.valueOf(imageConfigs.size()))) {
+                hub.getRegistryService().pushImages(imageConfigs, retries, registryConfig, skipTag);
+            } catch (Exception exp) {
+                throw new MojoExecutionException(exp.getMessage(), exp);
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(pushThreads, imageConfigs.size()));
+        try {
+            List<Future<Void>> pushes = new ArrayList<>();
+            for (ImageConfiguration imageConfig : imageConfigs) {
+                pushes.add(executor.submit(Tracer.wrap(() -> {
+                    try (Tracer.Span span = Tracer.span("push", Tracer.IMAGE, imageConfig.getName())) {
+                        hub.getRegistryService().pushImages(Collections.singletonList(imageConfig), retries, registryConfig, skipTag);
+                    }
+                    return null;
+                })));
+            }
+            for (Future<Void> push : pushes) {
+                push.get();
+            }
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while pushing images", exp);
+        } catch (ExecutionException exp) {
+            throw new MojoExecutionException(exp.getCause().getMessage(), exp.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Compressed size of the image if the registry already holds the local image under its name and
+    // all its tags, -1 otherwise. The full image id of the Docker daemon is the digest of the image
+    // configuration, which is referenced by the manifest in the registry.
+    private long getSizeIfAlreadyPushed(DockerImageInspector imageInspector, ImageConfiguration imageConfig,
+                                        RegistryService.RegistryConfig registryConfig) {
+        String name = imageConfig.getName();
+        try {
+            String imageId = imageInspector.getImageId(name);
+            if (imageId == null) {
+                return -1;
+            }
+            String defaultRegistry = imageConfig.getRegistry() != null ? imageConfig.getRegistry() : registryConfig.getRegistry();
+            RegistryClient.ImageReference reference = RegistryClient.parse(name, defaultRegistry);
+
+            List<RegistryClient.ImageReference> references = new ArrayList<>();
+            references.add(reference);
+            List<String> tags = imageConfig.getBuildConfiguration().getTags();
+            if (!skipTag && tags != null) {
+                for (String tag : tags) {
+                    references.add(reference.withTag(tag));
+                }
+            }
+
+            String repository = reference.getRepository();
+            String user = repository.contains("/") ? repository.substring(0, repository.indexOf('/')) : null;
+            RegistryClient client = createRegistryClient(reference.getRegistry(), user, true);
+            RegistryClient.Manifest manifest = client.getCommonManifest(references);
+            if (manifest == null || !DockerImageInspector.isSameImage(imageId, manifest.getConfigDigest())) {
+                log.verbose("%s : %s differs from the local image", imageConfig.getDescription(), references);
+                return -1;
+            }
+            return manifest.getSize();
+        } catch (Exception exp) {
+            log.verbose("%s : Cannot compare with registry, pushing: %s", imageConfig.getDescription(), exp.getMessage());
+            return -1;
+        }
+    }
+}
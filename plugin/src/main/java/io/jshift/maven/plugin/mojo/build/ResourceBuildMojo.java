@@ -0,0 +1,146 @@
+package io.jshift.maven.plugin.mojo.build;
+
+import io.jshift.kit.common.util.EnvUtil;
+import org.apache.maven.lifecycle.internal.MojoDescriptorCreator;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.plugin.BuildPluginManager;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Generates the resource descriptors and builds the images of this project in one go. The
+ * generation of the resources runs in the background, the image builds start as soon as the
+ * generators have resolved the images, while the resources are enriched and written.
+ * <p>
+ * Both goals are configured with the configuration of the plugin, as when calling
+ * <code>oc:resource oc:build</code>.
+ * <p>
+ * Both goals work on the same project. Their generators never run at the same time, the generators
+ * of a project are serialised by {@link io.jshift.maven.plugin.generator.GeneratorManager}. The
+ * plugin context of Maven is a concurrent map, and both goals attach their artifacts under the same
+ * lock. The Maven file filter keeps no state between calls, it is shared by the modules of a
+ * parallel reactor build the same way.
+ */
+@Mojo(name = "resource-build", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class ResourceBuildMojo extends BuildMojo {
+
+    private static final String RESOURCE_GOAL = "resource";
+
+    @Component
+    private BuildPluginManager pluginManager;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skip || skipBuild) {
+            return;
+        }
+        MojoDescriptor resourceDescriptor = mojoExecution.getMojoDescriptor().getPluginDescriptor().getMojo(RESOURCE_GOAL);
+        if (resourceDescriptor == null) {
+            throw new MojoExecutionException("No goal '" + RESOURCE_GOAL + "' found in " +
+                                             mojoExecution.getMojoDescriptor().getPluginDescriptor().getId());
+        }
+
+        CompletableFuture<Void> imagesResolved = new CompletableFuture<>();
+        getPluginContext().put(CONTEXT_KEY_IMAGES_RESOLVED, imagesResolved);
+        ExecutorService executor = Executors.newSingleThreadExecutor(createThreadFactory());
+        try {
+            // Both goals must pick up the same timestamp for the image names
+            EnvUtil.storeTimestamp(getBuildTimestampFile(), getBuildTimestamp());
+
+            MojoExecution resourceExecution = new MojoExecution(resourceDescriptor, getResourceConfiguration(resourceDescriptor));
+            CompletableFuture<Void> resourceTask = new CompletableFuture<>();
+            executor.execute(() -> {
+                try {
+                    pluginManager.executeMojo(session, resourceExecution);
+                    resourceTask.complete(null);
+                } catch (Throwable exp) {
+                    resourceTask.completeExceptionally(exp);
+                }
+            });
+
+            // The resource goal may end without resolving the images, e.g. when it fails to be configured
+            CompletableFuture.anyOf(imagesResolved, resourceTask).exceptionally(exp -> null).get();
+            if (resourceTask.isDone()) {
+                // Resource generation already failed or finished, don't build when it failed
+                waitForResources(resourceTask);
+            }
+            try {
+                super.execute();
+            } finally {
+                waitForResources(resourceTask);
+            }
+        } catch (IOException exp) {
+            throw new MojoExecutionException("Cannot store build timestamp: " + exp.getMessage(), exp);
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting for the images to be resolved", exp);
+        } catch (ExecutionException exp) {
+            // Failures of the resource goal are exceptionally completed and reported by waitForResources
+            throw new MojoExecutionException(exp.getMessage(), exp.getCause());
+        } finally {
+            executor.shutdown();
+            getPluginContext().remove(CONTEXT_KEY_IMAGES_RESOLVED);
+        }
+    }
+
+    private void waitForResources(Future<Void> resourceTask) throws MojoExecutionException, MojoFailureException {
+        try {
+            resourceTask.get();
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while generating resources", exp);
+        } catch (ExecutionException exp) {
+            Throwable cause = exp.getCause();
+            if (cause instanceof MojoFailureException) {
+                throw (MojoFailureException) cause;
+            }
+            if (cause instanceof MojoExecutionException) {
+                throw (MojoExecutionException) cause;
+            }
+            throw new MojoExecutionException("Failed to generate resources: " + cause.getMessage(), cause);
+        }
+    }
+
+    // Configuration of the plugin with the defaults of the resource goal, restricted to its parameters
+    private Xpp3Dom getResourceConfiguration(MojoDescriptor resourceDescriptor) {
+        Xpp3Dom config = null;
+        Plugin plugin = project.getPlugin(resourceDescriptor.getPluginDescriptor().getPluginLookupKey());
+        if (plugin != null && plugin.getConfiguration() != null) {
+            config = new Xpp3Dom((Xpp3Dom) plugin.getConfiguration());
+        }
+        config = Xpp3Dom.mergeXpp3Dom(config, MojoDescriptorCreator.convert(resourceDescriptor));
+
+        Xpp3Dom ret = new Xpp3Dom("configuration");
+        for (Xpp3Dom child : config.getChildren()) {
+            if (resourceDescriptor.getParameterMap().containsKey(child.getName())) {
+                ret.addChild(child);
+            }
+        }
+        return ret;
+    }
+
+    private ThreadFactory createThreadFactory() {
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "jshift-resource");
+            thread.setContextClassLoader(contextClassLoader);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -46,11 +46,19 @@ import io.jshift.kit.profile.ProfileUtil;
 import io.jshift.maven.enricher.api.MavenEnricherContext;
 import io.jshift.maven.enricher.api.util.KubernetesResourceUtil;
 import io.jshift.maven.enricher.handler.HandlerHub;
+import io.jshift.maven.plugin.cache.ProfileRegistry;
+import io.jshift.maven.plugin.cache.ResourceFragmentCache;
+import io.jshift.maven.plugin.cache.RuntimeModeCache;
 import io.jshift.maven.plugin.enricher.EnricherManager;
+import io.jshift.maven.plugin.enricher.KindFilenameMapping;
 import io.jshift.maven.plugin.generator.GeneratorManager;
+import io.jshift.maven.plugin.trace.Tracer;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -67,9 +75,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static io.jshift.kit.common.ResourceFileType.yaml;
 
@@ -78,13 +93,18 @@ import static io.jshift.kit.common.ResourceFileType.yaml;
  * Generates or copies the Kubernetes JSON file and attaches it to the build so its
  * installed and released to maven repositories like other build artifacts.
  */
-@Mojo(name = "resource", defaultPhase = LifecyclePhase.PROCESS_RESOURCES, requiresDependencyResolution = ResolutionScope.COMPILE)
+@Mojo(name = "resource", defaultPhase = LifecyclePhase.PROCESS_RESOURCES, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
 public class ResourceMojo extends AbstractJshiftMojo {
 
     // Filename for holding the build timestamp
     public static final String DOCKER_BUILD_TIMESTAMP = "docker/build.timestamp";
 
     private static final String DOCKER_IMAGE_USER = "docker.image.user";
+
+    private static final String FRAGMENT_CACHE_DIR = "fragment-cache";
+    // Parser versions when they cannot be determined, so that fragments are only reused within this JVM
+    private static final String UNKNOWN_PARSER_VERSIONS = "unknown-" + System.currentTimeMillis();
+
     /**
      * The generated kubernetes and openshift manifests
      */
@@ -112,10 +132,21 @@ public class ResourceMojo extends AbstractJshiftMojo {
     /**
      * Environment name where resources are placed. For example, if you set this property to dev and resourceDir is the default one, plugin will look at src/main/jshift/dev
      * Same applies for resourceDirOpenShiftOverride property.
+     * Several environments can be given as comma separated list. They are then generated one after the other, each into its own
+     * subdirectory of targetDir and attached with the environment appended to the classifier, like <code>openshift-dev</code>.
+     * Images are resolved once for all environments, so their profiles have to configure the generators the same.
      */
     @Parameter(property = "jshift.environment")
     private String environment;
 
+    /**
+     * Comma separated platforms to generate resources for, <code>openshift</code> and/or <code>kubernetes</code>.
+     * Each platform is written to its own file (openshift.yml, kubernetes.yml) and attached with its own classifier.
+     * Several platforms are generated concurrently. The fragments are parsed once, for the first platform.
+     */
+    @Parameter(property = "jshift.resource.platforms", defaultValue = "openshift")
+    private String platforms;
+
     /**
      * Should we use the project's compile-time classpath to scan for additional enrichers/generators?
      */
@@ -134,6 +165,14 @@ public class ResourceMojo extends AbstractJshiftMojo {
     @Parameter(property = "jshift.workDirOpenShiftOverride", defaultValue = "${project.build.directory}/jshift-openshift-override")
     private File workDirOpenShiftOverride;
 
+    /**
+     * Keep the parsed resource fragments in memory and below the working directory, so that unchanged
+     * fragments are not parsed again by the next build. Parsed fragments are reused only with the same
+     * version of the plugin and of jshift-kit.
+     */
+    @Parameter(property = "jshift.resourceFragmentCache", defaultValue = "false")
+    private boolean useFragmentCache;
+
     // Resource specific configuration for this plugin
     @Parameter
     private ResourceConfig resources;
@@ -195,6 +234,12 @@ public class ResourceMojo extends AbstractJshiftMojo {
     @Parameter
     private List<MappingConfig> mappings;
 
+    // The mappings of this project, used instead of changing the global ones of KubernetesResourceUtil
+    private KindFilenameMapping kindFilenameMapping = new KindFilenameMapping(null);
+
+    // Parsed fragments, shared by all environments. Null for parsing every fragment when read.
+    private ResourceFragmentCache fragmentCache;
+
     // Services
     private HandlerHub handlerHub;
 
@@ -287,6 +332,13 @@ public class ResourceMojo extends AbstractJshiftMojo {
 
     public static File writeResourcesIndividualAndComposite(KubernetesList resources, File resourceFileBase,
         ResourceFileType resourceFileType, KitLogger log, Boolean generateRoute) throws MojoExecutionException {
+        return writeResourcesIndividualAndComposite(resources, resourceFileBase, resourceFileType, log, generateRoute,
+                                                    new KindFilenameMapping(null));
+    }
+
+    private static File writeResourcesIndividualAndComposite(KubernetesList resources, File resourceFileBase,
+        ResourceFileType resourceFileType, KitLogger log, Boolean generateRoute, KindFilenameMapping kindFilenameMapping)
+        throws MojoExecutionException {
 
         //Creating a new items list. This will be used to generate openshift.yml
         List<HasMetadata> newItemList = new ArrayList<>();
@@ -322,19 +374,20 @@ public class ResourceMojo extends AbstractJshiftMojo {
 
         // write separate files, one for each resource item
         // resources passed to writeIndividualResources is also new one.
-        writeIndividualResources(resources, resourceFileBase, resourceFileType, log, generateRoute);
+        writeIndividualResources(resources, resourceFileBase, resourceFileType, log, generateRoute, kindFilenameMapping);
         return file;
     }
 
     private static void writeIndividualResources(KubernetesList resources, File targetDir,
-        ResourceFileType resourceFileType, KitLogger log, Boolean generateRoute) throws MojoExecutionException {
+        ResourceFileType resourceFileType, KitLogger log, Boolean generateRoute, KindFilenameMapping kindFilenameMapping)
+        throws MojoExecutionException {
         for (HasMetadata item : resources.getItems()) {
             String name = KubernetesHelper.getName(item);
             if (StringUtils.isBlank(name)) {
                 log.error("No name for generated item %s", item);
                 continue;
             }
-            String itemFile = KubernetesResourceUtil.getNameWithSuffix(name, item.getKind());
+            String itemFile = kindFilenameMapping.getNameWithSuffix(name, item.getKind());
 
             // Here we are writing individual file for all the resources.
             // if generateRoute is false and resource is route, we should not generate it.
@@ -357,36 +410,187 @@ public class ResourceMojo extends AbstractJshiftMojo {
 
     public void executeInternal() throws MojoExecutionException, MojoFailureException {
         if (skipResource) {
+            // No images to wait for, a pipelined build can start right away
+            signalImagesResolved();
             return;
         }
 
-        realResourceDir = ResourceUtil.getFinalResourceDir(resourceDir, environment);
-        updateKindFilenameMappings();
+        List<EnvironmentLayout> layouts = getEnvironmentLayouts();
+        realResourceDir = layouts.get(0).resourceDir;
         try {
+            kindFilenameMapping = createKindFilenameMapping();
+            fragmentCache = createFragmentCache(layouts);
             lateInit();
             // Resolve the Docker image build configuration
-            resolvedImages = getResolvedImages(images, log);
-            if (!skip && (!isPomProject() || hasFabric8Dir())) {
-                // Extract and generate resources which can be a mix of Kubernetes and OpenShift resources
-                KubernetesList resources;
-                for(PlatformMode platformMode : new PlatformMode[] { PlatformMode.openshift }) {
-                    ResourceClassifier resourceClassifier = platformMode == PlatformMode.kubernetes ? ResourceClassifier.KUBERNETES
-                            : ResourceClassifier.OPENSHIFT;
-
-                    resources = generateResources(platformMode, resolvedImages);
-                    writeResources(resources, resourceClassifier, generateRoute);
-                    File resourceDir = new File(this.targetDir, resourceClassifier.getValue());
-                    validateIfRequired(resourceDir, resourceClassifier);
+            resolvedImages = getResolvedImages(images, extractGeneratorConfig(layouts), log);
+            signalImagesResolved();
+            if (!skip) {
+                if (namespace != null && !namespace.isEmpty()) {
+                    resources = new ResourceConfig.Builder(resources).withNamespace(namespace).build();
                 }
+                generateEnvironments(layouts);
             }
         } catch (IOException e) {
             throw new MojoExecutionException("Failed to generate fabric8 descriptor", e);
+        } finally {
+            // Never let a waiting build hang, also when failing before the images are resolved
+            signalImagesResolved();
+        }
+    }
+
+    // Let a concurrently running build (see the resource-build goal) start building the images
+    private void signalImagesResolved() {
+        Object imagesResolved = getPluginContext().get(AbstractDockerMojo.CONTEXT_KEY_IMAGES_RESOLVED);
+        if (imagesResolved instanceof CompletableFuture) {
+            ((CompletableFuture<?>) imagesResolved).complete(null);
+        }
+    }
+
+    // Generate and write the resources of a single environment for all platforms. All fragments are filtered
+    // and parsed before any platform is generated, so the MavenFileFilter and the mapped fragments are never
+    // used concurrently. Several platforms are then generated concurrently. Each platform has its own parsed
+    // fragments, builder, enrichers, list of images and copy of the project properties, and writes into its own
+    // files. What the platforms still share is only read: the project model, the resolved image configurations,
+    // the resource configuration and the kind/filename mappings. Attaching the results is synchronized.
+    private void generateEnvironment(EnvironmentLayout layout) throws IOException, MojoExecutionException, MojoFailureException {
+        List<PlatformMode> platformModes = getPlatformModes();
+        Map<PlatformMode, ResourceFragments> fragments = readResourceFragments(platformModes, layout);
+        if (platformModes.size() == 1) {
+            generatePlatform(platformModes.get(0), layout, fragments.get(platformModes.get(0)));
+            return;
+        }
+        List<Callable<Void>> generations = new ArrayList<>();
+        for (PlatformMode platformMode : platformModes) {
+            generations.add(() -> {
+                generatePlatform(platformMode, layout, fragments.get(platformMode));
+                return null;
+            });
+        }
+        runConcurrently(generations);
+    }
+
+    private void generatePlatform(PlatformMode platformMode, EnvironmentLayout layout, ResourceFragments fragments)
+        throws IOException, MojoExecutionException, MojoFailureException {
+        // Extract and generate resources which can be a mix of Kubernetes and OpenShift resources
+        ResourceClassifier resourceClassifier = platformMode == PlatformMode.kubernetes ? ResourceClassifier.KUBERNETES
+                : ResourceClassifier.OPENSHIFT;
+
+        KubernetesList resources = generateResources(platformMode, new ArrayList<>(resolvedImages), fragments);
+        writeResources(resources, resourceClassifier, generateRoute, layout);
+        File resourceDir = new File(layout.targetDir, resourceClassifier.getValue());
+        validateIfRequired(resourceDir, resourceClassifier);
+    }
+
+    // Generate the environments one after the other, reusing the images resolved for all of them. Only
+    // the platforms of an environment are generated concurrently, so that environments with different
+    // configurations never share the state of the mojo and the project. A pom project only gets the
+    // environments which have a resource directory.
+    private void generateEnvironments(List<EnvironmentLayout> layouts) throws IOException, MojoExecutionException, MojoFailureException {
+        if (layouts.size() > 1) {
+            log.info("Generating resources for environments %s", getEnvironments());
+        }
+        for (EnvironmentLayout layout : layouts) {
+            if (!isPomProject() || layout.resourceDir.isDirectory()) {
+                generateEnvironment(layout);
+            }
+        }
+    }
+
+    // Layout of every environment. A single environment, or none, is read from and written to the
+    // configured directories, several environments are written into a directory each.
+    private List<EnvironmentLayout> getEnvironmentLayouts() {
+        List<String> environments = getEnvironments();
+        List<EnvironmentLayout> ret = new ArrayList<>();
+        if (environments.size() == 1) {
+            ret.add(new EnvironmentLayout(null, ResourceUtil.getFinalResourceDir(resourceDir, environments.get(0)), workDir, targetDir));
+            return ret;
+        }
+        for (String env : environments) {
+            ret.add(new EnvironmentLayout(env, ResourceUtil.getFinalResourceDir(resourceDir, env),
+                                          new File(workDir, env), new File(targetDir, env)));
         }
+        return ret;
     }
 
-    private void updateKindFilenameMappings() {
+    // Fragments with the same content in several environments are parsed once, also without the
+    // persistent cache
+    private ResourceFragmentCache createFragmentCache(List<EnvironmentLayout> layouts) {
+        if (useFragmentCache) {
+            return new ResourceFragmentCache(new File(workDir, FRAGMENT_CACHE_DIR), log);
+        }
+        return layouts.size() > 1 ? new ResourceFragmentCache(null, log) : null;
+    }
+
+    // Run generations on their own threads and rethrow the first failure
+    private void runConcurrently(List<Callable<Void>> generations) throws IOException, MojoExecutionException, MojoFailureException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(generations.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (Callable<Void> generation : generations) {
+                results.add(executor.submit(Tracer.wrap(generation)));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while generating resources", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MojoFailureException) {
+                throw (MojoFailureException) cause;
+            } else if (cause instanceof MojoExecutionException) {
+                throw (MojoExecutionException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new MojoExecutionException("Failed to generate resources: " + cause, cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<PlatformMode> getPlatformModes() throws MojoExecutionException {
+        List<PlatformMode> ret = new ArrayList<>();
+        for (String platform : platforms.split(",")) {
+            if (platform.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                PlatformMode platformMode = PlatformMode.valueOf(platform.trim().toLowerCase());
+                if (!ret.contains(platformMode)) {
+                    ret.add(platformMode);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException("Invalid platform '" + platform.trim() + "' in jshift.resource.platforms. " +
+                                                 "Must be 'openshift' or 'kubernetes'");
+            }
+        }
+        if (ret.isEmpty()) {
+            ret.add(PlatformMode.openshift);
+        }
+        return ret;
+    }
+
+    // Environments from the comma separated configuration, a single null entry if none is set
+    private List<String> getEnvironments() {
+        List<String> ret = new ArrayList<>();
+        if (environment != null) {
+            for (String env : environment.split(",")) {
+                if (!env.trim().isEmpty() && !ret.contains(env.trim())) {
+                    ret.add(env.trim());
+                }
+            }
+        }
+        if (ret.isEmpty()) {
+            ret.add(null);
+        }
+        return ret;
+    }
+
+    private KindFilenameMapping createKindFilenameMapping() {
+        final Map<String, List<String>> mappingKindFilename = new HashMap<>();
         if (mappings != null) {
-            final Map<String, List<String>> mappingKindFilename = new HashMap<>();
             for (MappingConfig mappingConfig : this.mappings) {
                 if (mappingConfig.isValid()) {
                     mappingKindFilename.put(mappingConfig.getKind(), Arrays.asList(mappingConfig.getFilenamesAsArray()));
@@ -395,13 +599,13 @@ public class ResourceMojo extends AbstractJshiftMojo {
                         mappingConfig.getKind(), mappingConfig.getFilenameTypes()));
                 }
             }
-            KubernetesResourceUtil.updateKindFilenameMapper(mappingKindFilename);
         }
+        return new KindFilenameMapping(mappingKindFilename);
     }
 
     private void validateIfRequired(File resourceDir, ResourceClassifier classifier)
         throws MojoExecutionException, MojoFailureException {
-        try {
+        try (Tracer.Span span = Tracer.span("validate", "classifier", classifier.getValue())) {
             if (!skipResourceValidation) {
                 new ResourceValidator(resourceDir, classifier, log).validate();
             }
@@ -423,82 +627,76 @@ public class ResourceMojo extends AbstractJshiftMojo {
     }
 
     private void lateInit() {
-        ClusterAccess clusterAccess = new ClusterAccess(getClusterConfiguration());
-        runtimeMode = new ClusterAccess(getClusterConfiguration()).resolveRuntimeMode(runtimeMode, log);
-        if (runtimeMode.equals(RuntimeMode.openshift)) {
-            Properties properties = project.getProperties();
-            if (!properties.contains(DOCKER_IMAGE_USER)) {
-                String namespace = this.namespace != null && !this.namespace.isEmpty() ?
-                        this.namespace: clusterAccess.getNamespace();
-                log.info("Using docker image name of namespace: " + namespace);
-                properties.setProperty(DOCKER_IMAGE_USER, namespace);
-            }
-            if (!properties.contains(RuntimeMode.FABRIC8_EFFECTIVE_PLATFORM_MODE)) {
-                properties.setProperty(RuntimeMode.FABRIC8_EFFECTIVE_PLATFORM_MODE, runtimeMode.toString());
+        try (Tracer.Span span = Tracer.span("lateInit")) {
+            ClusterAccess clusterAccess = new ClusterAccess(getClusterConfiguration());
+            runtimeMode = RuntimeModeCache.resolveRuntimeMode(clusterAccess, runtimeMode, project, log);
+            if (runtimeMode.equals(RuntimeMode.openshift)) {
+                Properties properties = project.getProperties();
+                if (!properties.contains(DOCKER_IMAGE_USER)) {
+                    String namespace = this.namespace != null && !this.namespace.isEmpty() ?
+                            this.namespace: clusterAccess.getNamespace();
+                    log.info("Using docker image name of namespace: " + namespace);
+                    properties.setProperty(DOCKER_IMAGE_USER, namespace);
+                }
+                if (!properties.contains(RuntimeMode.FABRIC8_EFFECTIVE_PLATFORM_MODE)) {
+                    properties.setProperty(RuntimeMode.FABRIC8_EFFECTIVE_PLATFORM_MODE, runtimeMode.toString());
+                }
             }
         }
     }
 
-    private KubernetesList generateResources(PlatformMode platformMode, List<ImageConfiguration> images)
+    private KubernetesList generateResources(PlatformMode platformMode, List<ImageConfiguration> images, ResourceFragments fragments)
         throws IOException, MojoExecutionException {
 
-        if (namespace != null && !namespace.isEmpty()) {
-            resources = new ResourceConfig.Builder(resources).withNamespace(namespace).build();
-        }
         // Manager for calling enrichers.
         MavenEnricherContext.Builder ctxBuilder = new MavenEnricherContext.Builder()
                 .project(project)
                 .session(session)
-                .config(extractEnricherConfig())
+                .config(extractEnricherConfig(fragments.resourceDir))
                 .settings(settings)
-                .properties(project.getProperties())
+                // Enrichers of another platform may run at the same time
+                .properties((Properties) project.getProperties().clone())
                 .resources(resources)
-                .images(resolvedImages)
+                .images(images)
                 .log(log);
 
         EnricherManager enricherManager = new EnricherManager(resources, ctxBuilder.build(),
             MavenUtil.getCompileClasspathElementsIfRequested(project, useProjectClasspath));
 
         // Generate all resources from the main resource directory, configuration and create them accordingly
-        KubernetesListBuilder builder = generateAppResources(platformMode, images, enricherManager);
+        KubernetesListBuilder builder = generateAppResources(platformMode, images, enricherManager, fragments);
 
         // Add resources found in subdirectories of resourceDir, with a certain profile
         // applied
-        addProfiledResourcesFromSubirectories(platformMode, builder, realResourceDir, enricherManager);
+        addProfiledResourcesFromSubirectories(platformMode, builder, fragments, enricherManager);
         return builder.build();
     }
 
-    private void addProfiledResourcesFromSubirectories(PlatformMode platformMode, KubernetesListBuilder builder, File resourceDir,
+    private void addProfiledResourcesFromSubirectories(PlatformMode platformMode, KubernetesListBuilder builder, ResourceFragments fragments,
         EnricherManager enricherManager) throws IOException, MojoExecutionException {
-        File[] profileDirs = resourceDir.listFiles((File pathname) -> pathname.isDirectory());
-        if (profileDirs != null) {
-            for (File profileDir : profileDirs) {
-                Profile profile = ProfileUtil.findProfile(profileDir.getName(), resourceDir);
-                if (profile == null) {
-                    throw new MojoExecutionException(String.format("Invalid profile '%s' given as directory in %s. " +
-                            "Please either define a profile of this name or move this directory away",
-                        profileDir.getName(), resourceDir));
-                }
-
-                ProcessorConfig enricherConfig = profile.getEnricherConfig();
-                File[] resourceFiles = KubernetesResourceUtil.listResourceFragments(profileDir);
-                if (resourceFiles.length > 0) {
-                    KubernetesListBuilder profileBuilder = readResourceFragments(platformMode, resourceFiles);
-                    enricherManager.createDefaultResources(platformMode, enricherConfig, profileBuilder);
-                    enricherManager.enrich(platformMode, enricherConfig, profileBuilder);
-                    KubernetesList profileItems = profileBuilder.build();
-                    for (HasMetadata item : profileItems.getItems()) {
-                        builder.addToItems(item);
-                    }
-                }
+        for (Map.Entry<String, List<HasMetadata>> entry : fragments.profileItems.entrySet()) {
+            Profile profile = ProfileRegistry.findProfile(entry.getKey(), fragments.resourceDir);
+            ProcessorConfig enricherConfig = profile.getEnricherConfig();
+            KubernetesListBuilder profileBuilder = new KubernetesListBuilder();
+            for (HasMetadata item : entry.getValue()) {
+                profileBuilder.addToItems(item);
+            }
+            enricherManager.createDefaultResources(platformMode, enricherConfig, profileBuilder);
+            enricherManager.enrich(platformMode, enricherConfig, profileBuilder);
+            KubernetesList profileItems = profileBuilder.build();
+            for (HasMetadata item : profileItems.getItems()) {
+                builder.addToItems(item);
             }
         }
     }
 
-    private KubernetesListBuilder generateAppResources(PlatformMode platformMode, List<ImageConfiguration> images, EnricherManager enricherManager)
-        throws IOException, MojoExecutionException {
+    private KubernetesListBuilder generateAppResources(PlatformMode platformMode, List<ImageConfiguration> images, EnricherManager enricherManager,
+        ResourceFragments fragments) throws IOException, MojoExecutionException {
         try {
-            KubernetesListBuilder builder = processResourceFragments(platformMode);
+            KubernetesListBuilder builder = new KubernetesListBuilder();
+            for (HasMetadata item : fragments.items) {
+                builder.addToItems(item);
+            }
 
             // Create default resources for app resources only
             enricherManager.createDefaultResources(platformMode, builder);
@@ -514,43 +712,143 @@ public class ResourceMojo extends AbstractJshiftMojo {
         }
     }
 
-    private KubernetesListBuilder processResourceFragments(PlatformMode platformMode) throws IOException, MojoExecutionException {
-        File[] resourceFiles = KubernetesResourceUtil.listResourceFragments(realResourceDir, resources !=null ? resources.getRemotes() : null, log);
-        KubernetesListBuilder builder;
+    // Read the fragments of the resource directory and of its profile subdirectories for every platform mode.
+    // The fragments are filtered once, before any platform is generated, and parsed for each platform mode
+    // since the parser depends on it. Profile fragments are filtered into a directory per profile, so that
+    // they never replace a fragment of the same name which has not been parsed yet.
+    private Map<PlatformMode, ResourceFragments> readResourceFragments(List<PlatformMode> platformModes, EnvironmentLayout layout)
+        throws IOException, MojoExecutionException {
+        File[] resourceFiles = KubernetesResourceUtil.listResourceFragments(layout.resourceDir, resources !=null ? resources.getRemotes() : null, log);
+        File[] filteredFiles = new File[0];
 
         // Add resource files found in the fabric8 directory
         if (resourceFiles != null && resourceFiles.length > 0) {
-            log.info("using resource templates from %s", realResourceDir);
-            builder = readResourceFragments(platformMode, resourceFiles);
-        } else {
-            builder = new KubernetesListBuilder();
+            log.info("using resource templates from %s", layout.resourceDir);
+            filteredFiles = filterResourceFragments(resourceFiles, layout.workDir);
         }
-        return builder;
+
+        Map<String, File[]> filteredProfileFiles = new LinkedHashMap<>();
+        File[] profileDirs = layout.resourceDir.listFiles((File pathname) -> pathname.isDirectory());
+        if (profileDirs != null) {
+            for (File profileDir : profileDirs) {
+                Profile profile = ProfileRegistry.findProfile(profileDir.getName(), layout.resourceDir);
+                if (profile == null) {
+                    throw new MojoExecutionException(String.format("Invalid profile '%s' given as directory in %s. " +
+                            "Please either define a profile of this name or move this directory away",
+                        profileDir.getName(), layout.resourceDir));
+                }
+                File[] profileFiles = KubernetesResourceUtil.listResourceFragments(profileDir);
+                if (profileFiles.length > 0) {
+                    filteredProfileFiles.put(profileDir.getName(),
+                                             filterResourceFragments(profileFiles, new File(layout.workDir, profileDir.getName())));
+                }
+            }
+        }
+
+        Map<PlatformMode, ResourceFragments> ret = new LinkedHashMap<>();
+        for (PlatformMode platformMode : platformModes) {
+            List<HasMetadata> items = filteredFiles.length > 0 ? getItems(parseResourceFragments(platformMode, filteredFiles)) : new ArrayList<>();
+            Map<String, List<HasMetadata>> profileItems = new LinkedHashMap<>();
+            for (Map.Entry<String, File[]> entry : filteredProfileFiles.entrySet()) {
+                profileItems.put(entry.getKey(), getItems(parseResourceFragments(platformMode, entry.getValue())));
+            }
+            ret.put(platformMode, new ResourceFragments(layout.resourceDir, items, profileItems));
+        }
+        return ret;
+    }
+
+    private static List<HasMetadata> getItems(KubernetesListBuilder builder) {
+        List<HasMetadata> items = builder.build().getItems();
+        return items != null ? items : new ArrayList<>();
     }
 
-    private KubernetesListBuilder readResourceFragments(PlatformMode platformMode, File[] resourceFiles) throws IOException, MojoExecutionException {
+    // Filter the fragments into the given directory and apply the kind/filename mappings of the project
+    private File[] filterResourceFragments(File[] resourceFiles, File filterDir) throws IOException, MojoExecutionException {
+        String defaultName = MavenUtil.createDefaultResourceName(project.getArtifactId());
+        return kindFilenameMapping.apply(mavenFilterFiles(resourceFiles, filterDir), filterDir, defaultName);
+    }
+
+    private KubernetesListBuilder parseResourceFragments(PlatformMode platformMode, File[] filteredFiles) throws IOException {
         KubernetesListBuilder builder;
         String defaultName = MavenUtil.createDefaultResourceName(project.getArtifactId());
-        builder = KubernetesResourceUtil.readResourceFragmentsFrom(
-            platformMode,
-            KubernetesResourceUtil.DEFAULT_RESOURCE_VERSIONING,
-            defaultName,
-            mavenFilterFiles(resourceFiles, this.workDir));
+        if (fragmentCache == null) {
+            return KubernetesResourceUtil.readResourceFragmentsFrom(
+                platformMode,
+                KubernetesResourceUtil.DEFAULT_RESOURCE_VERSIONING,
+                defaultName,
+                filteredFiles);
+        }
+        builder = fragmentCache.read(
+            filteredFiles,
+            getFragmentParseContext(platformMode, defaultName),
+            fragment -> KubernetesResourceUtil.readResourceFragmentsFrom(
+                platformMode,
+                KubernetesResourceUtil.DEFAULT_RESOURCE_VERSIONING,
+                defaultName,
+                new File[] { fragment }).build().getItems());
         return builder;
     }
 
-    private ProcessorConfig extractEnricherConfig() throws IOException {
-        return ProfileUtil.blendProfileWithConfiguration(ProfileUtil.ENRICHER_CONFIG, profile, realResourceDir, enricher);
+    // Everything besides the content and the name of a fragment which is used when parsing it. The
+    // project's kind/filename mappings are already applied to the content.
+    private String getFragmentParseContext(PlatformMode platformMode, String defaultName) {
+        return platformMode + "|" + defaultName + "|" + getParserVersions();
     }
 
-    private ProcessorConfig extractGeneratorConfig() throws IOException {
-        return ProfileUtil.blendProfileWithConfiguration(ProfileUtil.GENERATOR_CONFIG, profile, realResourceDir, generator);
+    // Versions of the plugin and of jshift-kit, which parses the fragments. Snapshots change without
+    // changing the version, so the jar's size and date are added for them.
+    private String getParserVersions() {
+        StringBuilder ret = new StringBuilder();
+        PluginDescriptor plugin = mojoExecution != null ? mojoExecution.getMojoDescriptor().getPluginDescriptor() : null;
+        if (plugin == null) {
+            return UNKNOWN_PARSER_VERSIONS;
+        }
+        ret.append(getArtifactVersion(plugin.getPluginArtifact()));
+        if (plugin.getArtifacts() != null) {
+            for (Artifact artifact : plugin.getArtifacts()) {
+                if ("io.jshift".equals(artifact.getGroupId()) && artifact.getArtifactId().startsWith("jshift-kit")) {
+                    ret.append('|').append(artifact.getArtifactId()).append(':').append(getArtifactVersion(artifact));
+                }
+            }
+        }
+        return ret.toString();
+    }
+
+    private static String getArtifactVersion(Artifact artifact) {
+        if (artifact == null) {
+            return "";
+        }
+        File file = artifact.getFile();
+        return artifact.getVersion() + (artifact.isSnapshot() && file != null ? "@" + file.length() + "-" + file.lastModified() : "");
+    }
+
+    private ProcessorConfig extractEnricherConfig(File envResourceDir) throws IOException {
+        return ProfileRegistry.blendProfileWithConfiguration(ProfileUtil.ENRICHER_CONFIG, profile, envResourceDir, enricher);
+    }
+
+    // Images are resolved and built once for all environments, so all environments have to configure
+    // the generators the same
+    private ProcessorConfig extractGeneratorConfig(List<EnvironmentLayout> layouts) throws IOException, MojoExecutionException {
+        EnvironmentLayout first = layouts.get(0);
+        ProcessorConfig ret = extractGeneratorConfig(first.resourceDir);
+        for (EnvironmentLayout layout : layouts.subList(1, layouts.size())) {
+            if (!EqualsBuilder.reflectionEquals(ret, extractGeneratorConfig(layout.resourceDir))) {
+                throw new MojoExecutionException(String.format(
+                    "Environments '%s' and '%s' configure the generators differently. Images are built once for all " +
+                    "environments, please generate these environments in separate runs", first.name, layout.name));
+            }
+        }
+        return ret;
+    }
+
+    private ProcessorConfig extractGeneratorConfig(File envResourceDir) throws IOException {
+        return ProfileRegistry.blendProfileWithConfiguration(ProfileUtil.GENERATOR_CONFIG, profile, envResourceDir, generator);
     }
 
     // ==================================================================================
 
-    private List<ImageConfiguration> getResolvedImages(List<ImageConfiguration> images, final KitLogger log)
-        throws MojoExecutionException {
+    private List<ImageConfiguration> getResolvedImages(List<ImageConfiguration> images, ProcessorConfig generatorConfig,
+                                                       final KitLogger log) throws MojoExecutionException {
         List<ImageConfiguration> ret;
         ret = ConfigHelper.resolveImages(
             log,
@@ -560,7 +858,7 @@ public class ResourceMojo extends AbstractJshiftMojo {
                 (List<ImageConfiguration> configs) -> {
                     try {
                         GeneratorContext ctx = new GeneratorContext.Builder()
-                                .config(extractGeneratorConfig())
+                                .config(generatorConfig)
                                 .project(project)
                                 .runtimeMode(runtimeMode)
                                 .logger(log)
@@ -621,24 +919,59 @@ public class ResourceMojo extends AbstractJshiftMojo {
         return ret;
     }
 
-    private boolean hasFabric8Dir() {
-        return realResourceDir.isDirectory();
-    }
-
     private boolean isPomProject() {
         return "pom".equals(project.getPackaging());
     }
 
     protected void writeResources(KubernetesList resources, ResourceClassifier classifier, Boolean generateRoute)
         throws MojoExecutionException {
+        writeResources(resources, classifier, generateRoute, new EnvironmentLayout(null, realResourceDir, workDir, targetDir));
+    }
+
+    private void writeResources(KubernetesList resources, ResourceClassifier classifier, Boolean generateRoute,
+                                EnvironmentLayout layout) throws MojoExecutionException {
         // write kubernetes.yml / openshift.yml
-        File resourceFileBase = new File(this.targetDir, classifier.getValue());
+        File resourceFileBase = new File(layout.targetDir, classifier.getValue());
 
         File file =
-            writeResourcesIndividualAndComposite(resources, resourceFileBase, this.resourceFileType, log, generateRoute);
+            writeResourcesIndividualAndComposite(resources, resourceFileBase, this.resourceFileType, log, generateRoute,
+                                                 kindFilenameMapping);
 
         // Attach it to the Maven reactor so that it will also get deployed
-        projectHelper.attachArtifact(project, this.resourceFileType.getArtifactType(), classifier.getValue(), file);
+        String artifactClassifier = layout.name != null ? classifier.getValue() + "-" + layout.name : classifier.getValue();
+        synchronized (projectHelper) {
+            projectHelper.attachArtifact(project, this.resourceFileType.getArtifactType(), artifactClassifier, file);
+        }
+    }
+
+    // Where to read the resources of an environment from and where to write them to. The name is only
+    // set when several environments are generated, each into its own directory.
+    private static class EnvironmentLayout {
+        private final String name;
+        private final File resourceDir;
+        private final File workDir;
+        private final File targetDir;
+
+        private EnvironmentLayout(String name, File resourceDir, File workDir, File targetDir) {
+            this.name = name;
+            this.resourceDir = resourceDir;
+            this.workDir = workDir;
+            this.targetDir = targetDir;
+        }
+    }
+
+    // Parsed fragments of an environment for a single platform, modified in place by the enrichers
+    private static class ResourceFragments {
+        private final File resourceDir;
+        private final List<HasMetadata> items;
+        // Fragments of the profile subdirectories, by profile name
+        private final Map<String, List<HasMetadata>> profileItems;
+
+        private ResourceFragments(File resourceDir, List<HasMetadata> items, Map<String, List<HasMetadata>> profileItems) {
+            this.resourceDir = resourceDir;
+            this.items = items;
+            this.profileItems = profileItems;
+        }
     }
 
     protected ClusterConfiguration getClusterConfiguration() {
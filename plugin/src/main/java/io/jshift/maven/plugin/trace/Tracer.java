@@ -0,0 +1,352 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.trace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records spans of the work done by the mojos, like generators, enrichers and image builds, in the
+ * Chrome trace event format. The trace can be opened with <code>chrome://tracing</code> or
+ * <a href="https://ui.perfetto.dev">Perfetto</a>. All modules of a reactor build write into the
+ * same file, which holds a JSON array of events. Timestamps are microseconds since the epoch, so
+ * the events of the files of several builds stay in order when put into one array.
+ * <p>
+ * Tracing is disabled until {@link #start(File)} is called. When disabled, creating a span
+ * returns a shared no-op span without recording anything.
+ * <p>
+ * The <code>module</code> and <code>image</code> attributes of a span are inherited by the spans
+ * created within it. Threads don't inherit the current span, since pool threads would keep the span
+ * active when they were created. A task running on another thread gets the span active when it is
+ * submitted by {@link #wrap(Runnable)} or {@link #wrap(Callable)}.
+ */
+public class Tracer {
+
+    /**
+     * Attribute holding the module (groupId:artifactId) a span belongs to
+     */
+    public static final String MODULE = "module";
+
+    /**
+     * Attribute holding the image a span belongs to
+     */
+    public static final String IMAGE = "image";
+
+    private static final String[] INHERITED_ATTRIBUTES = { MODULE, IMAGE };
+
+    private static final Span NOOP = () -> { };
+
+    private static final ThreadLocal<RecordingSpan> CURRENT = new ThreadLocal<>();
+
+    private static volatile TraceWriter writer;
+    private static boolean shutdownHookAdded;
+
+    /**
+     * A running span, finished when closed
+     */
+    public interface Span extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private Tracer() { }
+
+    /**
+     * Start writing spans to the given file. Does nothing if spans are already written to this file.
+     *
+     * @param traceFile file to write to, an existing file is overwritten
+     * @throws IOException if the file cannot be created
+     */
+    public static synchronized void start(File traceFile) throws IOException {
+        File file = traceFile.getAbsoluteFile();
+        if (writer != null) {
+            if (writer.file.equals(file)) {
+                return;
+            }
+            writer.close();
+        }
+        writer = new TraceWriter(file);
+        if (!shutdownHookAdded) {
+            Runtime.getRuntime().addShutdownHook(new Thread(Tracer::stop, "jshift-trace-shutdown"));
+            shutdownHookAdded = true;
+        }
+    }
+
+    /**
+     * Start the span around a goal. When a trace file is given, tracing is started first. A relative
+     * trace file is resolved against the directory Maven has been started in, so that all modules of
+     * a reactor build write into the same file.
+     *
+     * @param traceFile trace file as configured, null or empty for not starting tracing
+     * @param session current session
+     * @param goal name of the goal
+     * @param project project the goal runs for
+     * @return the span of the goal
+     * @throws MojoExecutionException if the trace file cannot be created
+     */
+    public static Span startGoal(String traceFile, MavenSession session, String goal, MavenProject project)
+        throws MojoExecutionException {
+        if (traceFile != null && !traceFile.trim().isEmpty()) {
+            File file = new File(traceFile.trim());
+            if (!file.isAbsolute() && session.getExecutionRootDirectory() != null) {
+                file = new File(session.getExecutionRootDirectory(), file.getPath());
+            }
+            try {
+                start(file);
+            } catch (IOException exp) {
+                throw new MojoExecutionException("Cannot write trace to " + file + ": " + exp.getMessage(), exp);
+            }
+        }
+        return span(goal, MODULE, project.getGroupId() + ":" + project.getArtifactId());
+    }
+
+    /**
+     * Stop tracing and close the trace file
+     */
+    public static synchronized void stop() {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return writer != null;
+    }
+
+    public static Span span(String name) {
+        TraceWriter target = writer;
+        return target != null ? startSpan(target, name) : NOOP;
+    }
+
+    public static Span span(String name, String key, String value) {
+        TraceWriter target = writer;
+        return target != null ? startSpan(target, name, key, value) : NOOP;
+    }
+
+    public static Span span(String name, String key1, String value1, String key2, String value2) {
+        TraceWriter target = writer;
+        return target != null ? startSpan(target, name, key1, value1, key2, value2) : NOOP;
+    }
+
+    /**
+     * Let a task run with the span which is active now as parent, on whatever thread it runs
+     *
+     * @param task task to run on another thread
+     * @return task to submit instead
+     */
+    public static Runnable wrap(Runnable task) {
+        RecordingSpan parent = CURRENT.get();
+        return () -> {
+            RecordingSpan previous = activate(parent);
+            try {
+                task.run();
+            } finally {
+                activate(previous);
+            }
+        };
+    }
+
+    /**
+     * Let a task run with the span which is active now as parent, on whatever thread it runs
+     *
+     * @param task task to run on another thread
+     * @param <T> result type of the task
+     * @return task to submit instead
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        RecordingSpan parent = CURRENT.get();
+        return () -> {
+            RecordingSpan previous = activate(parent);
+            try {
+                return task.call();
+            } finally {
+                activate(previous);
+            }
+        };
+    }
+
+    private static RecordingSpan activate(RecordingSpan span) {
+        RecordingSpan ret = CURRENT.get();
+        if (span != null) {
+            CURRENT.set(span);
+        } else {
+            CURRENT.remove();
+        }
+        return ret;
+    }
+
+    private static Span startSpan(TraceWriter target, String name, String... attributes) {
+        RecordingSpan parent = CURRENT.get();
+        Map<String, String> spanAttributes = new LinkedHashMap<>();
+        if (parent != null) {
+            for (String key : INHERITED_ATTRIBUTES) {
+                if (parent.attributes.containsKey(key)) {
+                    spanAttributes.put(key, parent.attributes.get(key));
+                }
+            }
+        }
+        for (int i = 0; i + 1 < attributes.length; i += 2) {
+            if (attributes[i + 1] != null) {
+                spanAttributes.put(attributes[i], attributes[i + 1]);
+            }
+        }
+        RecordingSpan span = new RecordingSpan(target, name, spanAttributes, parent);
+        CURRENT.set(span);
+        return span;
+    }
+
+    // ==============================================================================================
+
+    private static class RecordingSpan implements Span {
+        private final TraceWriter target;
+        private final String name;
+        private final Map<String, String> attributes;
+        private final RecordingSpan parent;
+        private final Thread thread;
+        private final long startNanos;
+        private boolean closed;
+
+        private RecordingSpan(TraceWriter target, String name, Map<String, String> attributes, RecordingSpan parent) {
+            this.target = target;
+            this.name = name;
+            this.attributes = attributes;
+            this.parent = parent;
+            this.thread = Thread.currentThread();
+            this.startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (CURRENT.get() == this) {
+                CURRENT.set(parent);
+            }
+            target.write(this, System.nanoTime());
+        }
+    }
+
+    // Appends one event per line, the closing bracket is optional for the Chrome trace format
+    private static class TraceWriter {
+        private static final ObjectMapper MAPPER = new ObjectMapper();
+
+        private final File file;
+        private final long epochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        private final long startNanos = System.nanoTime();
+        private final long pid = getPid();
+        private final Set<Long> namedThreads = new HashSet<>();
+        private Writer out;
+        private boolean first = true;
+
+        private TraceWriter(File file) throws IOException {
+            this.file = file;
+            File dir = file.getParentFile();
+            if (dir != null) {
+                Files.createDirectories(dir.toPath());
+            }
+            out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+            out.write("[");
+        }
+
+        private synchronized void write(RecordingSpan span, long endNanos) {
+            if (out == null) {
+                return;
+            }
+            try {
+                long tid = span.thread.getId();
+                if (namedThreads.add(tid)) {
+                    Map<String, Object> threadName = new LinkedHashMap<>();
+                    threadName.put("name", span.thread.getName());
+                    writeEvent(createEvent("thread_name", "M", tid, threadName));
+                }
+                Map<String, Object> event = createEvent(span.name, "X", tid, span.attributes);
+                event.put("ts", epochMicros + TimeUnit.NANOSECONDS.toMicros(span.startNanos - startNanos));
+                event.put("dur", TimeUnit.NANOSECONDS.toMicros(endNanos - span.startNanos));
+                writeEvent(event);
+                out.flush();
+            } catch (IOException exp) {
+                // Tracing must never break the build
+                closeQuietly();
+            }
+        }
+
+        private Map<String, Object> createEvent(String name, String phase, long tid, Map<String, ?> args) {
+            Map<String, Object> ret = new LinkedHashMap<>();
+            ret.put("name", name);
+            ret.put("cat", "jshift");
+            ret.put("ph", phase);
+            ret.put("pid", pid);
+            ret.put("tid", tid);
+            ret.put("args", args);
+            return ret;
+        }
+
+        private void writeEvent(Map<String, Object> event) throws IOException {
+            out.write(first ? "\n" : ",\n");
+            out.write(MAPPER.writeValueAsString(event));
+            first = false;
+        }
+
+        private synchronized void close() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.write("\n]\n");
+            } catch (IOException exp) {
+                // Still a valid trace without the closing bracket
+            }
+            closeQuietly();
+        }
+
+        private void closeQuietly() {
+            try {
+                out.close();
+            } catch (IOException exp) {
+                // Nothing more to write
+            }
+            out = null;
+        }
+
+        // The runtime name is "pid@host" for all common JVMs
+        private static long getPid() {
+            String name = ManagementFactory.getRuntimeMXBean().getName();
+            try {
+                return Long.parseLong(name.substring(0, name.indexOf('@')));
+            } catch (RuntimeException exp) {
+                return 0;
+            }
+        }
+    }
+}
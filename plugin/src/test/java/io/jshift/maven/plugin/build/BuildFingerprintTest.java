@@ -0,0 +1,83 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class BuildFingerprintTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fileContentChangesFingerprint() throws IOException {
+        File dir = folder.newFolder("context");
+        File file = write(new File(dir, "Dockerfile"), "FROM base");
+        String before = new BuildFingerprint().addFile(dir).get();
+        write(file, "FROM other");
+        assertNotEquals(before, new BuildFingerprint().addFile(dir).get());
+    }
+
+    @Test
+    public void filteredFilesAreLeftOut() throws IOException {
+        File dir = folder.newFolder("project");
+        write(new File(dir, "Dockerfile"), "FROM base");
+        File output = new File(dir, "target/docker");
+        File archive = write(new File(output, "tmp/docker-build.tar"), "first");
+        String before = new BuildFingerprint().addFile(dir, file -> !file.equals(output)).get();
+        write(archive, "second");
+        assertEquals(before, new BuildFingerprint().addFile(dir, file -> !file.equals(output)).get());
+        assertNotEquals(before, new BuildFingerprint().addFile(dir).get());
+    }
+
+    @Test
+    public void assemblySourcesOfDescriptor() throws IOException {
+        File descriptor = write(folder.newFile("assembly.xml"),
+                                "<assembly xmlns=\"http://maven.apache.org/ASSEMBLY/2.0.0\">\n" +
+                                "  <fileSets>\n" +
+                                "    <fileSet><directory>src/main/config</directory><outputDirectory>config</outputDirectory></fileSet>\n" +
+                                "    <fileSet><outputDirectory>all</outputDirectory></fileSet>\n" +
+                                "  </fileSets>\n" +
+                                "  <files>\n" +
+                                "    <file><source>${project.build.directory}/app.jar</source></file>\n" +
+                                "  </files>\n" +
+                                "</assembly>\n");
+        assertEquals(Arrays.asList("src/main/config", null, "${project.build.directory}/app.jar"),
+                     BuildFingerprint.getAssemblySources(descriptor));
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidDescriptor() throws IOException {
+        BuildFingerprint.getAssemblySources(write(folder.newFile("assembly.xml"), "<assembly>"));
+    }
+
+    private static File write(File file, String content) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
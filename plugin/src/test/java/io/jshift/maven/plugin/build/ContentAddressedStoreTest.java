@@ -0,0 +1,119 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ContentAddressedStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sameJarsOfSeveralModulesAreStoredOnce() throws IOException {
+        ContentAddressedStore store = ContentAddressedStore.getInstance(folder.newFolder("store"));
+        File first = createJar("first/app/build/maven/lib/shared.jar", "shared content");
+        createJar("first/app/build/maven/app.jar", "first app");
+        File second = createJar("second/app/build/maven/lib/shared.jar", "shared content");
+
+        ContentAddressedStore.Statistics firstStatistics = store.link(new File(folder.getRoot(), "first"));
+        ContentAddressedStore.Statistics secondStatistics = store.link(new File(folder.getRoot(), "second"));
+
+        assertEquals(2, firstStatistics.getLinkedFiles());
+        assertEquals(0, firstStatistics.getStoredBytes());
+        assertEquals(1, secondStatistics.getLinkedFiles());
+        assertEquals(second.length(), secondStatistics.getLinkedBytes());
+        assertEquals(second.length(), secondStatistics.getStoredBytes());
+        assertTrue(Files.isSameFile(first.toPath(), second.toPath()));
+        assertEquals("shared content", read(second));
+    }
+
+    @Test
+    public void unlinkRemovesOnlyLinkedFiles() throws IOException {
+        File storeDir = folder.newFolder("store");
+        ContentAddressedStore store = ContentAddressedStore.getInstance(storeDir);
+        File moduleDir = new File(folder.getRoot(), "module");
+        File jar = createJar("module/app/build/maven/lib/lib.jar", "lib");
+        File other = createJar("module/app/build/maven/other.txt", "other");
+        store.link(moduleDir);
+        String hash = store.hash(jar);
+        // Replaced after linking, so no longer the stored content
+        File replaced = createJar("module/app/build/maven/lib/replaced.jar", "replaced");
+
+        ContentAddressedStore.unlink(moduleDir);
+
+        assertFalse(jar.exists());
+        assertTrue(other.exists());
+        assertTrue(replaced.exists());
+        assertFalse(new File(moduleDir, ContentAddressedStore.LINKS_FILE).exists());
+        // The stored file was linked by the module only
+        try (Stream<Path> stored = Files.walk(storeDir.toPath())) {
+            assertFalse(stored.anyMatch(path -> path.getFileName().toString().equals(hash)));
+        }
+    }
+
+    @Test
+    public void storedContentSurvivesReassembly() throws IOException {
+        ContentAddressedStore store = ContentAddressedStore.getInstance(folder.newFolder("store"));
+        File first = createJar("first/lib/shared.jar", "shared content");
+        File second = createJar("second/lib/shared.jar", "shared content");
+        store.link(new File(folder.getRoot(), "first"));
+        store.link(new File(folder.getRoot(), "second"));
+
+        // Like the next assembly of the first module
+        ContentAddressedStore.unlink(new File(folder.getRoot(), "first"));
+        createJar("first/lib/shared.jar", "changed content");
+
+        assertEquals("shared content", read(second));
+        assertEquals("changed content", read(first));
+    }
+
+    @Test
+    public void hashIsRecalculatedWhenFileChanges() throws IOException {
+        ContentAddressedStore store = ContentAddressedStore.getInstance(folder.newFolder("store"));
+        File jar = createJar("lib.jar", "first");
+        String hash = store.hash(jar);
+
+        assertEquals(hash, store.hash(jar));
+        Files.write(jar.toPath(), "second content".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(hash, store.hash(jar));
+    }
+
+    private File createJar(String path, String content) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
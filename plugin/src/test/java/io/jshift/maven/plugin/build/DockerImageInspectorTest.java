@@ -0,0 +1,70 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DockerImageInspectorTest {
+
+    private static final String IMAGE_ID = "sha256:4e1b3d4e2d9d6a7f8e1c5b7a9d3f2e1c0b9a8d7e6f5a4b3c2d1e0f9a8b7c6d5e";
+
+    @Test
+    public void fullImageId() throws IOException {
+        assertEquals(IMAGE_ID, DockerImageInspector.parseImageId(0, Collections.singletonList(IMAGE_ID)));
+    }
+
+    @Test
+    public void missingImage() throws IOException {
+        assertNull(DockerImageInspector.parseImageId(1, Arrays.asList("", "Error: No such image: example/app:1.0")));
+    }
+
+    @Test(expected = IOException.class)
+    public void failingClient() throws IOException {
+        DockerImageInspector.parseImageId(1, Collections.singletonList("Cannot connect to the Docker daemon"));
+    }
+
+    @Test(expected = IOException.class)
+    public void shortImageId() throws IOException {
+        DockerImageInspector.parseImageId(0, Collections.singletonList(IMAGE_ID.substring(7, 19)));
+    }
+
+    @Test
+    public void sameImage() {
+        assertTrue(DockerImageInspector.isSameImage(IMAGE_ID, IMAGE_ID));
+    }
+
+    @Test
+    public void shortenedIdNeverMatches() {
+        assertFalse(DockerImageInspector.isSameImage(IMAGE_ID.substring(7, 19), IMAGE_ID));
+        assertFalse(DockerImageInspector.isSameImage(IMAGE_ID.substring(0, 19), IMAGE_ID.substring(0, 19)));
+    }
+
+    @Test
+    public void otherImage() {
+        assertFalse(DockerImageInspector.isSameImage(IMAGE_ID, IMAGE_ID.replace('e', 'f')));
+        assertFalse(DockerImageInspector.isSameImage(null, IMAGE_ID));
+        assertFalse(DockerImageInspector.isSameImage(IMAGE_ID, null));
+    }
+}
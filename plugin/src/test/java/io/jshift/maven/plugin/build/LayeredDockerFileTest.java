@@ -0,0 +1,74 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import io.jshift.kit.config.image.build.AssemblyConfiguration;
+import io.jshift.kit.config.image.build.BuildConfiguration;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class LayeredDockerFileTest {
+
+    @Test
+    public void assemblyUserWithRunUser() {
+        assertEquals("FROM base\n" +
+                     "COPY --chown=jboss:root maven/dependencies/ /deployments/\n" +
+                     "COPY --chown=jboss:root maven/application/ /deployments/\n" +
+                     "USER jboss\n",
+                     create("jboss:root:jboss"));
+    }
+
+    @Test
+    public void assemblyUserWithGroup() {
+        assertEquals("FROM base\n" +
+                     "COPY --chown=jboss:root maven/dependencies/ /deployments/\n" +
+                     "COPY --chown=jboss:root maven/application/ /deployments/\n",
+                     create("jboss:root"));
+    }
+
+    @Test
+    public void assemblyUserOnly() {
+        assertEquals("FROM base\n" +
+                     "COPY --chown=jboss maven/dependencies/ /deployments/\n" +
+                     "COPY --chown=jboss maven/application/ /deployments/\n",
+                     create("jboss"));
+    }
+
+    @Test
+    public void noAssemblyUser() {
+        assertEquals("FROM base\n" +
+                     "COPY maven/dependencies/ /deployments/\n" +
+                     "COPY maven/application/ /deployments/\n",
+                     create(null));
+    }
+
+    private static String create(String assemblyUser) {
+        AssemblyConfiguration assembly = new AssemblyConfiguration.Builder()
+            .targetDir("/deployments")
+            .user(assemblyUser)
+            .descriptorRef("artifact-with-dependencies-layered")
+            .build();
+        BuildConfiguration buildConfig = new BuildConfiguration.Builder()
+            .from("base")
+            .assembly(assembly)
+            .build();
+        return LayeredDockerFile.create(buildConfig, Arrays.asList(LayeredDockerFile.DEPENDENCIES_LAYER,
+                                                                   LayeredDockerFile.APPLICATION_LAYER));
+    }
+}
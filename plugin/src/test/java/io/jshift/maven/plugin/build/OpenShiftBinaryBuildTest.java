@@ -0,0 +1,84 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fabric8.openshift.api.model.ImageStream;
+import io.fabric8.openshift.api.model.ImageStreamBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OpenShiftBinaryBuildTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void latestImageOfTag() {
+        ImageStream imageStream = new ImageStreamBuilder()
+            .withNewStatus()
+              .addNewTag().withTag("1.0").addNewItem().withImage("sha256:new").endItem().addNewItem().withImage("sha256:old").endItem().endTag()
+              .addNewTag().withTag("latest").addNewItem().withImage("sha256:other").endItem().endTag()
+            .endStatus()
+            .build();
+        assertEquals("sha256:new", OpenShiftBinaryBuild.getLatestImage(imageStream, "1.0"));
+        assertNull(OpenShiftBinaryBuild.getLatestImage(imageStream, "2.0"));
+        assertNull(OpenShiftBinaryBuild.getLatestImage(new ImageStream(), "1.0"));
+    }
+
+    @Test
+    public void imageStreamFileReplacesEntryOfSameName() throws IOException {
+        File file = new File(folder.getRoot(), "app-is.yml");
+        OpenShiftBinaryBuild.writeImageStreamFile(file, createImageStream("app", "app@sha256:first"));
+        OpenShiftBinaryBuild.writeImageStreamFile(file, createImageStream("worker", "worker@sha256:first"));
+        OpenShiftBinaryBuild.writeImageStreamFile(file, createImageStream("app", "app@sha256:second"));
+
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.contains("worker@sha256:first"));
+        assertTrue(content.contains("app@sha256:second"));
+        assertFalse(content.contains("app@sha256:first"));
+    }
+
+    @Test
+    public void dockerConfigOfPullSecret() throws IOException {
+        String data = OpenShiftBinaryBuild.createDockerConfigJson("registry.example.com", "user", "secret");
+        JsonNode config = new ObjectMapper().readTree(Base64.getDecoder().decode(data));
+        String auth = config.path("auths").path("registry.example.com").path("auth").asText();
+        assertEquals("user:secret", new String(Base64.getDecoder().decode(auth), StandardCharsets.UTF_8));
+    }
+
+    private static ImageStream createImageStream(String name, String image) {
+        return new ImageStreamBuilder()
+            .withNewMetadata().withName(name).endMetadata()
+            .withNewSpec()
+              .addNewTag().withName("latest").withNewFrom().withKind("ImageStreamImage").withName(image).endFrom().endTag()
+            .endSpec()
+            .build();
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PersistentImagePullCacheStoreTest {
+
+    private static final long TTL_MINUTES = 60;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void entriesAreKeptAcrossStores() throws IOException {
+        File cacheFile = new File(folder.getRoot(), "cache/pull.properties");
+        new PersistentImagePullCacheStore(cacheFile, TTL_MINUTES).put("imagesPulled", "{\"app:1\":true}");
+
+        assertEquals("{\"app:1\":true}", new PersistentImagePullCacheStore(cacheFile, TTL_MINUTES).get("imagesPulled"));
+        assertNull(new PersistentImagePullCacheStore(cacheFile, TTL_MINUTES).get("other"));
+    }
+
+    @Test
+    public void imagesExpireOnTheirOwn() throws IOException {
+        File cacheFile = folder.newFile("pull.properties");
+        PersistentImagePullCacheStore store = new PersistentImagePullCacheStore(cacheFile, TTL_MINUTES);
+        store.put("imagesPulled", "{\"old:1\":true,\"new:1\":true}");
+        // Checked longer ago than the time to live
+        long longAgo = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(TTL_MINUTES + 1);
+        updateProperty(cacheFile, "image.old:1.checked", Long.toString(longAgo));
+
+        assertEquals("{\"new:1\":true}", store.get("imagesPulled"));
+        updateProperty(cacheFile, "image.new:1.checked", Long.toString(longAgo));
+        assertNull(store.get("imagesPulled"));
+    }
+
+    @Test
+    public void valuesWhichAreNoImagesExpireAsAWhole() throws IOException {
+        File cacheFile = folder.newFile("pull.properties");
+        PersistentImagePullCacheStore store = new PersistentImagePullCacheStore(cacheFile, TTL_MINUTES);
+        store.put("plain", "value");
+
+        assertEquals("value", store.get("plain"));
+        updateProperty(cacheFile, "key.plain.checked",
+                       Long.toString(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(TTL_MINUTES + 1)));
+        assertNull(store.get("plain"));
+    }
+
+    @Test
+    public void readdingAnImageKeepsItsCheckTime() throws IOException {
+        File cacheFile = folder.newFile("pull.properties");
+        PersistentImagePullCacheStore store = new PersistentImagePullCacheStore(cacheFile, TTL_MINUTES);
+        store.put("imagesPulled", "{\"app:1\":true}");
+        String checked = Long.toString(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(TTL_MINUTES - 1));
+        updateProperty(cacheFile, "image.app:1.checked", checked);
+
+        store.put("imagesPulled", "{\"app:1\":true,\"other:1\":true}");
+
+        assertEquals(checked, loadProperties(cacheFile).getProperty("image.app:1.checked"));
+    }
+
+    @Test
+    public void concurrentStoresLoseNoUpdates() throws Exception {
+        File cacheFile = new File(folder.getRoot(), "pull.properties");
+        int threads = 8;
+        int imagesPerThread = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(executor.submit((Callable<Void>) () -> {
+                    // Each thread has its own store, like modules built in parallel
+                    PersistentImagePullCacheStore store = new PersistentImagePullCacheStore(cacheFile, TTL_MINUTES);
+                    start.await();
+                    for (int i = 0; i < imagesPerThread; i++) {
+                        store.recordDigest("image" + thread + "-" + i, "sha256:" + thread + i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Properties props = loadProperties(cacheFile);
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < imagesPerThread; i++) {
+                assertEquals("sha256:" + t + i, props.getProperty("image.image" + t + "-" + i + ".digest"));
+            }
+        }
+    }
+
+    @Test
+    public void brokenCacheFileIsAMiss() throws IOException {
+        File cacheFile = folder.newFile("pull.properties");
+        Files.write(cacheFile.toPath(), "key.imagesPulled=\\uZZZZ\n".getBytes(StandardCharsets.ISO_8859_1));
+        PersistentImagePullCacheStore store = new PersistentImagePullCacheStore(cacheFile, TTL_MINUTES);
+
+        assertNull(store.get("imagesPulled"));
+        store.put("imagesPulled", "{\"app:1\":true}");
+        assertEquals("{\"app:1\":true}", store.get("imagesPulled"));
+    }
+
+    private static void updateProperty(File file, String key, String value) throws IOException {
+        Properties props = loadProperties(file);
+        props.setProperty(key, value);
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            props.store(out, null);
+        }
+    }
+
+    private static Properties loadProperties(File file) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            props.load(in);
+        }
+        return props;
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RegistryClientTest {
+
+    private static final String MANIFEST_DIGEST = "sha256:1111111111111111111111111111111111111111111111111111111111111111";
+    private static final String OTHER_DIGEST = "sha256:2222222222222222222222222222222222222222222222222222222222222222";
+    private static final String CONFIG_DIGEST = "sha256:3333333333333333333333333333333333333333333333333333333333333333";
+
+    private static final String MANIFEST =
+        "{\"schemaVersion\":2,\"mediaType\":\"application/vnd.docker.distribution.manifest.v2+json\"," +
+        "\"config\":{\"digest\":\"" + CONFIG_DIGEST + "\",\"size\":100}," +
+        "\"layers\":[{\"size\":1000},{\"size\":10000}]}";
+
+    // Digest of each reference known to the registry
+    private final Map<String, String> digests = new HashMap<>();
+    // Method and path of each request received
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    private HttpServer server;
+    private String registry;
+
+    @Before
+    public void startRegistry() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v2/example/app/manifests/", this::handleManifest);
+        server.start();
+        registry = "localhost:" + server.getAddress().getPort();
+
+        digests.put("1.0", MANIFEST_DIGEST);
+        digests.put("latest", MANIFEST_DIGEST);
+        digests.put("snapshot", OTHER_DIGEST);
+        digests.put(MANIFEST_DIGEST, MANIFEST_DIGEST);
+    }
+
+    @After
+    public void stopRegistry() {
+        server.stop(0);
+    }
+
+    @Test
+    public void manifestDigestIsLookedUpWithHead() throws IOException {
+        RegistryClient client = new RegistryClient(null, null);
+        assertEquals(MANIFEST_DIGEST, client.getManifestDigest(reference("1.0")));
+        assertNull(client.getManifestDigest(reference("missing")));
+        assertEquals(Arrays.asList("HEAD /v2/example/app/manifests/1.0", "HEAD /v2/example/app/manifests/missing"),
+                     requests);
+    }
+
+    @Test
+    public void commonManifestIsFetchedOnceAfterHeadChecks() throws IOException {
+        RegistryClient client = new RegistryClient(null, null);
+        RegistryClient.Manifest manifest = client.getCommonManifest(Arrays.asList(reference("1.0"), reference("latest")));
+        assertEquals(MANIFEST_DIGEST, manifest.getDigest());
+        assertEquals(CONFIG_DIGEST, manifest.getConfigDigest());
+        assertEquals(11100, manifest.getSize());
+        assertEquals(Arrays.asList("HEAD /v2/example/app/manifests/1.0",
+                                   "HEAD /v2/example/app/manifests/latest",
+                                   "GET /v2/example/app/manifests/" + MANIFEST_DIGEST),
+                     requests);
+    }
+
+    @Test
+    public void noManifestIsFetchedForMissingTag() throws IOException {
+        RegistryClient client = new RegistryClient(null, null);
+        assertNull(client.getCommonManifest(Arrays.asList(reference("1.0"), reference("missing"))));
+        assertEquals(Arrays.asList("HEAD /v2/example/app/manifests/1.0", "HEAD /v2/example/app/manifests/missing"),
+                     requests);
+    }
+
+    @Test
+    public void noManifestIsFetchedForDifferentTags() throws IOException {
+        RegistryClient client = new RegistryClient(null, null);
+        assertNull(client.getCommonManifest(Arrays.asList(reference("1.0"), reference("snapshot"))));
+        assertEquals(Arrays.asList("HEAD /v2/example/app/manifests/1.0", "HEAD /v2/example/app/manifests/snapshot"),
+                     requests);
+    }
+
+    private RegistryClient.ImageReference reference(String tag) {
+        return RegistryClient.parse(registry + "/example/app:" + tag, null);
+    }
+
+    // Minimal registry: answers HEAD and GET of known manifests, 404 otherwise
+    private void handleManifest(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        requests.add(method + " " + path);
+        String digest = digests.get(path.substring(path.lastIndexOf('/') + 1));
+        if (digest == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = MANIFEST.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/vnd.docker.distribution.manifest.v2+json");
+        exchange.getResponseHeaders().add("Docker-Content-Digest", digest);
+        if ("HEAD".equals(method)) {
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+}
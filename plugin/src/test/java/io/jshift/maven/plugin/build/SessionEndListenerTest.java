@@ -0,0 +1,75 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build;
+
+import org.apache.maven.execution.AbstractExecutionListener;
+import org.apache.maven.execution.ExecutionEvent;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SessionEndListenerTest {
+
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    public void runsActionAfterDelegate() {
+        SessionEndListener listener = new SessionEndListener(new RecordingListener(), () -> calls.add("closed"));
+        listener.projectSkipped(null);
+        listener.sessionEnded(null);
+        assertEquals("[projectSkipped, sessionEnded, closed]", calls.toString());
+    }
+
+    @Test
+    public void runsActionWhenDelegateFails() {
+        SessionEndListener listener = new SessionEndListener(new AbstractExecutionListener() {
+            @Override
+            public void sessionEnded(ExecutionEvent event) {
+                throw new IllegalStateException("failing listener");
+            }
+        }, () -> calls.add("closed"));
+        try {
+            listener.sessionEnded(null);
+            fail("Failure of the delegate not passed on");
+        } catch (IllegalStateException exp) {
+            assertEquals("[closed]", calls.toString());
+        }
+    }
+
+    @Test
+    public void withoutDelegate() {
+        SessionEndListener listener = new SessionEndListener(null, () -> calls.add("closed"));
+        listener.mojoStarted(null);
+        listener.sessionEnded(null);
+        assertEquals("[closed]", calls.toString());
+    }
+
+    private class RecordingListener extends AbstractExecutionListener {
+        @Override
+        public void projectSkipped(ExecutionEvent event) {
+            calls.add("projectSkipped");
+        }
+
+        @Override
+        public void sessionEnded(ExecutionEvent event) {
+            calls.add("sessionEnded");
+        }
+    }
+}
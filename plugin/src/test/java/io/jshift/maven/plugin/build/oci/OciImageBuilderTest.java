@@ -0,0 +1,96 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.build.oci;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jshift.kit.build.service.docker.ImageConfiguration;
+import io.jshift.kit.build.service.docker.helper.AnsiLogger;
+import io.jshift.kit.config.image.build.BuildConfiguration;
+import io.jshift.maven.plugin.build.archive.BuildContextArchiver;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class OciImageBuilderTest {
+
+    private static final Date CREATED = new Date(1500000000000L);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reproducibleBuildFromCleanDirectoriesHasSameDigest() throws IOException {
+        String first = build(folder.newFolder("first"), 1000000000000L, true);
+        String second = build(folder.newFolder("second"), 1600000000000L, true);
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void buildKeepsModificationTimesWithoutReproducibleMode() throws IOException {
+        String first = build(folder.newFolder("first"), 1000000000000L, false);
+        String second = build(folder.newFolder("second"), 1600000000000L, false);
+        assertNotEquals(first, second);
+    }
+
+    // Build the same assembly with other file dates and return the digest of the image manifest
+    private String build(File dir, long modificationTime, boolean reproducible) throws IOException {
+        File archive = new File(dir, "docker-build.tar");
+        try (OutputStream out = Files.newOutputStream(archive.toPath());
+             TarArchiveOutputStream tar = new TarArchiveOutputStream(out)) {
+            addEntry(tar, "Dockerfile", "FROM scratch\n", modificationTime);
+            addEntry(tar, "maven/app.jar", "application", modificationTime);
+            addEntry(tar, "maven/lib/dependency.jar", "dependency", modificationTime + 1000);
+        }
+
+        ImageConfiguration imageConfig = new ImageConfiguration.Builder()
+            .name("example/app:1.0")
+            .buildConfig(new BuildConfiguration.Builder().from("scratch").build())
+            .build();
+        File workDir = new File(dir, "work");
+        OciImageBuilder builder =
+            new OciImageBuilder(workDir, (registry, push) -> { throw new IOException("No registry access expected"); },
+                                new AnsiLogger(new SystemStreamLog(), false, false, true, "test"),
+                                BuildContextArchiver.parseCompressionLevel("default"), 2, "linux/amd64", reproducible);
+        builder.build(imageConfig, archive, CREATED, OciImageBuilder.OUTPUT_TAR, null);
+
+        JsonNode index = new ObjectMapper().readTree(new File(workDir, "layout/index.json"));
+        return index.path("manifests").path(0).path("digest").asText();
+    }
+
+    private static void addEntry(TarArchiveOutputStream tar, String name, String content, long modificationTime) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(bytes.length);
+        entry.setModTime(modificationTime);
+        tar.putArchiveEntry(entry);
+        tar.write(bytes);
+        tar.closeArchiveEntry();
+    }
+}
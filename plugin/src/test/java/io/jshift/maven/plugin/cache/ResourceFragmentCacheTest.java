@@ -0,0 +1,143 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.cache;
+
+import io.fabric8.kubernetes.api.model.ConfigMap;
+import io.fabric8.kubernetes.api.model.ConfigMapBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.jshift.kit.build.service.docker.helper.AnsiLogger;
+import io.jshift.kit.common.KitLogger;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class ResourceFragmentCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final KitLogger log = new AnsiLogger(new SystemStreamLog(), false, false, true, "test");
+
+    private final AtomicInteger parses = new AtomicInteger();
+
+    @After
+    public void clearRegistry() {
+        PluginCacheRegistry.getInstance().invalidate(ResourceFragmentCache.REGION);
+    }
+
+    @Test
+    public void parsedFragmentsAreReusedFromMemoryAndFromDisk() throws IOException {
+        File fragment = createFragment("src", "app-cm.yml", "data: {}");
+        File cacheDir = new File(folder.getRoot(), "cache");
+
+        new ResourceFragmentCache(cacheDir, log).read(new File[] { fragment }, "openshift", this::parse);
+        new ResourceFragmentCache(cacheDir, log).read(new File[] { fragment }, "openshift", this::parse);
+        assertEquals(1, parses.get());
+
+        // Like a new JVM
+        PluginCacheRegistry.getInstance().invalidate(ResourceFragmentCache.REGION);
+        List<HasMetadata> items = new ResourceFragmentCache(cacheDir, log).read(new File[] { fragment }, "openshift", this::parse)
+                                                                           .build().getItems();
+        assertEquals(1, parses.get());
+        assertEquals("app-cm.yml", items.get(0).getMetadata().getName());
+    }
+
+    @Test
+    public void changedContentOrContextIsParsedAgain() throws IOException {
+        File fragment = createFragment("src", "app-cm.yml", "data: {}");
+        ResourceFragmentCache cache = new ResourceFragmentCache(new File(folder.getRoot(), "cache"), log);
+
+        cache.read(new File[] { fragment }, "openshift", this::parse);
+        cache.read(new File[] { fragment }, "kubernetes", this::parse);
+        createFragment("src", "app-cm.yml", "data: { key: value }");
+        cache.read(new File[] { fragment }, "openshift", this::parse);
+
+        assertEquals(3, parses.get());
+    }
+
+    @Test
+    public void fragmentsParsedInParallelKeepTheirOrder() throws IOException {
+        File[] fragments = new File[16];
+        for (int i = 0; i < fragments.length; i++) {
+            fragments[i] = createFragment("src", "app" + i + "-cm.yml", "data: {}");
+        }
+
+        List<HasMetadata> items = new ResourceFragmentCache(new File(folder.getRoot(), "cache"), log)
+            .read(fragments, "openshift", this::parse).build().getItems();
+
+        assertEquals(fragments.length, items.size());
+        for (int i = 0; i < fragments.length; i++) {
+            assertEquals(fragments[i].getName(), items.get(i).getMetadata().getName());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void parseFailureIsReported() throws IOException {
+        File[] fragments = { createFragment("src", "app-cm.yml", "data: {}"), createFragment("src", "broken-cm.yml", "{") };
+
+        new ResourceFragmentCache(new File(folder.getRoot(), "cache"), log).read(fragments, "openshift", fragment -> {
+            if (fragment.getName().startsWith("broken")) {
+                throw new IOException("Cannot parse " + fragment);
+            }
+            return parse(fragment);
+        });
+    }
+
+    @Test
+    public void cacheWithoutDirectoryParsesSameFragmentsOnce() throws IOException {
+        File dev = createFragment("dev", "app-cm.yml", "data: {}");
+        File prod = createFragment("prod", "app-cm.yml", "data: {}");
+        File other = createFragment("prod", "other-cm.yml", "data: {}");
+        ResourceFragmentCache cache = new ResourceFragmentCache(null, log);
+
+        List<HasMetadata> devItems = cache.read(new File[] { dev }, "openshift", this::parse).build().getItems();
+        List<HasMetadata> prodItems = cache.read(new File[] { prod, other }, "openshift", this::parse).build().getItems();
+
+        assertEquals(2, parses.get());
+        assertEquals(devItems.get(0), prodItems.get(0));
+        assertNotSame(devItems.get(0), prodItems.get(0));
+        assertEquals("other-cm.yml", prodItems.get(1).getMetadata().getName());
+        // Nothing is kept beyond the cache object
+        new ResourceFragmentCache(null, log).read(new File[] { dev }, "openshift", this::parse);
+        assertEquals(3, parses.get());
+    }
+
+    private List<HasMetadata> parse(File fragment) {
+        parses.incrementAndGet();
+        ConfigMap configMap = new ConfigMapBuilder().withNewMetadata().withName(fragment.getName()).endMetadata().build();
+        return Collections.singletonList(configMap);
+    }
+
+    private File createFragment(String dir, String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), dir + "/" + name);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
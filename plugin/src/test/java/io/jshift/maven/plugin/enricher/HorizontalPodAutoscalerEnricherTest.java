@@ -0,0 +1,74 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.enricher;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerBuilder;
+import io.fabric8.kubernetes.api.model.Quantity;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class HorizontalPodAutoscalerEnricherTest {
+
+    @Test
+    public void targetIsRequestWithoutLimit() {
+        assertEquals("80", getCpuTarget(container("500m", null)));
+    }
+
+    @Test
+    public void targetIsRequestWithLimitAtRequest() {
+        assertEquals("80", getCpuTarget(container("500m", "500m")));
+    }
+
+    @Test
+    public void targetFollowsLimitAboveRequest() {
+        assertEquals("96", getCpuTarget(container("500m", "600m")));
+    }
+
+    @Test
+    public void targetFollowsLowestLimitRelativeToRequest() {
+        assertEquals("88", getCpuTarget(container("1", "2"), container("500m", "550m")));
+    }
+
+    @Test
+    public void targetIsRequestIfOneContainerHasNoLimit() {
+        assertEquals("80", getCpuTarget(container("1", "2"), container("500m", null)));
+    }
+
+    @Test
+    public void targetIsCappedAtRequest() {
+        assertEquals("100", getCpuTarget(container("100m", "1")));
+        assertEquals("100", getCpuTarget(container("100m", "125m")));
+    }
+
+    private static String getCpuTarget(Container... containers) {
+        return HorizontalPodAutoscalerEnricher.getDefaultUtilization(Arrays.asList(containers), "cpu");
+    }
+
+    private static Container container(String request, String limit) {
+        return new ContainerBuilder()
+            .withName("app")
+            .withNewResources()
+              .withRequests(Collections.singletonMap("cpu", new Quantity(request)))
+              .withLimits(limit != null ? Collections.singletonMap("cpu", new Quantity(limit)) : null)
+            .endResources()
+            .build();
+    }
+}
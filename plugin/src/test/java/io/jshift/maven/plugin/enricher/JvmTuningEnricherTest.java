@@ -0,0 +1,125 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.enricher;
+
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.EnvVarBuilder;
+import io.fabric8.kubernetes.api.model.Quantity;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JvmTuningEnricherTest {
+
+    private static final long MI = 1024L * 1024L;
+
+    @Test
+    public void optionsAreDerivedFromMemoryAndCpu() {
+        List<String> options = JvmTuningEnricher.deriveOptions(1024 * MI, BigDecimal.valueOf(2), 70,
+                                                               Collections.emptyMap(), "", false);
+        assertEquals(Arrays.asList("-Xmx716m", "-XX:+UseParallelGC", "-XX:ActiveProcessorCount=2",
+                                   "-Xss512k", "-XX:MaxMetaspaceSize=256m"), options);
+    }
+
+    @Test
+    public void smallContainersGetSerialCollector() {
+        List<String> options = JvmTuningEnricher.deriveOptions(256 * MI, new BigDecimal("0.5"), 60,
+                                                               Collections.emptyMap(), "", false);
+        assertEquals(Arrays.asList("-Xmx153m", "-XX:+UseSerialGC", "-XX:ActiveProcessorCount=1",
+                                   "-Xss512k", "-XX:MaxMetaspaceSize=128m"), options);
+    }
+
+    @Test
+    public void cpuOnlyDerivesProcessorCount() {
+        List<String> options = JvmTuningEnricher.deriveOptions(null, new BigDecimal("1.5"), 0,
+                                                               Collections.emptyMap(), "", false);
+        assertEquals(Collections.singletonList("-XX:ActiveProcessorCount=2"), options);
+    }
+
+    @Test
+    public void userOptionsTakePrecedence() {
+        List<String> options = JvmTuningEnricher.deriveOptions(8192 * MI, BigDecimal.valueOf(4), 75, Collections.emptyMap(),
+                                                               "-Xmx2g -XX:+UseZGC -Xss2m", false);
+        assertEquals(Arrays.asList("-XX:ActiveProcessorCount=4", "-XX:MaxMetaspaceSize=512m"), options);
+    }
+
+    @Test
+    public void heapRatioOfStartScriptIsKept() {
+        List<String> options = JvmTuningEnricher.deriveOptions(1024 * MI, null, 70, Collections.emptyMap(), "", true);
+        assertFalse(options.toString(), options.stream().anyMatch(option -> option.startsWith("-Xmx")));
+    }
+
+    @Test
+    public void configuredValuesReplaceDerivedOnes() {
+        List<String> options = JvmTuningEnricher.deriveOptions(1024 * MI, BigDecimal.valueOf(2), 70,
+                                                               Collections.singletonMap("gc", "G1"), "", false);
+        assertEquals("-XX:+UseG1GC", options.get(1));
+    }
+
+    @Test
+    public void derivedOptionsComeBeforeExistingOnes() {
+        List<EnvVar> env = Arrays.asList(new EnvVarBuilder().withName("JAVA_OPTIONS").withValue(" -Dapp=1 ").build(),
+                                         new EnvVarBuilder().withName("OTHER").withValue("value").build());
+        List<EnvVar> merged = JvmTuningEnricher.mergeOptions(env, "JAVA_OPTIONS", Arrays.asList("-Xmx100m", "-Xss512k"));
+        assertEquals(2, merged.size());
+        assertEquals("OTHER", merged.get(0).getName());
+        assertEquals("JAVA_OPTIONS", merged.get(1).getName());
+        assertEquals("-Xmx100m -Xss512k -Dapp=1", merged.get(1).getValue());
+    }
+
+    @Test
+    public void optionsAreAddedToEmptyEnvironment() {
+        List<EnvVar> merged = JvmTuningEnricher.mergeOptions(null, "JAVA_OPTIONS", Collections.singletonList("-Xmx100m"));
+        assertEquals(1, merged.size());
+        assertEquals("-Xmx100m", merged.get(0).getValue());
+    }
+
+    @Test
+    public void optionsFromConfigMapAreDetected() {
+        assertTrue(JvmTuningEnricher.hasReferencedOptions(Collections.singletonList(fromConfigMap("JAVA_OPTIONS")), "JAVA_OPTIONS"));
+        assertTrue(JvmTuningEnricher.hasReferencedOptions(Collections.singletonList(fromConfigMap("JAVA_OPTS")), "JAVA_OPTIONS"));
+        assertTrue(JvmTuningEnricher.hasReferencedOptions(Collections.singletonList(fromConfigMap("JAVA_MAX_MEM_RATIO")), "JAVA_OPTIONS"));
+        assertTrue(JvmTuningEnricher.hasReferencedOptions(Collections.singletonList(fromConfigMap("JVM_ARGS")), "JVM_ARGS"));
+        assertFalse(JvmTuningEnricher.hasReferencedOptions(Collections.singletonList(fromConfigMap("DATABASE_URL")), "JAVA_OPTIONS"));
+        assertFalse(JvmTuningEnricher.hasReferencedOptions(null, "JAVA_OPTIONS"));
+    }
+
+    @Test
+    public void quantitiesAreConverted() {
+        assertEquals(0, BigDecimal.valueOf(512 * MI).compareTo(JvmTuningEnricher.toAmount(new Quantity("512Mi"))));
+        assertEquals(0, new BigDecimal("0.5").compareTo(JvmTuningEnricher.toAmount(new Quantity("500m"))));
+        assertEquals(0, BigDecimal.valueOf(2).compareTo(JvmTuningEnricher.toAmount(new Quantity("2"))));
+    }
+
+    private static EnvVar fromConfigMap(String name) {
+        return new EnvVarBuilder()
+            .withName(name)
+            .withNewValueFrom()
+              .withNewConfigMapKeyRef()
+                .withName("jvm-config")
+                .withKey("options")
+              .endConfigMapKeyRef()
+            .endValueFrom()
+            .build();
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.enricher;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class KindFilenameMappingTest {
+
+    private static final int PROJECTS = 16;
+    private static final int ROUNDS = 50;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void projectsWithDifferentMappingsForSameTypeRunConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(PROJECTS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < PROJECTS; i++) {
+                String kind = "Kind" + i;
+                File projectDir = folder.newFolder("project" + i);
+                File fragment = new File(projectDir, "app-cr.json");
+                Files.write(fragment.toPath(), "{\"spec\":{}}".getBytes(StandardCharsets.UTF_8));
+                KindFilenameMapping mapping =
+                    new KindFilenameMapping(Collections.singletonMap(kind, Arrays.asList("cr", "custom")));
+                results.add(executor.submit((Callable<Void>) () -> {
+                    start.await();
+                    for (int round = 0; round < ROUNDS; round++) {
+                        File[] mapped = mapping.apply(new File[] { fragment }, new File(projectDir, "work"), "project");
+                        JsonNode content = new ObjectMapper().readTree(mapped[0]);
+                        assertEquals(kind, content.path("kind").asText());
+                        assertEquals("app", content.path("metadata").path("name").asText());
+                        assertEquals("app-custom", mapping.getNameWithSuffix("app", kind));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void fragmentsWithoutMappedTypeAreKept() throws Exception {
+        File fragment = folder.newFile("app-cr.json");
+        Files.write(fragment.toPath(), "{\"spec\":{}}".getBytes(StandardCharsets.UTF_8));
+        File other = folder.newFile("app-other.json");
+
+        KindFilenameMapping mapping = new KindFilenameMapping(Collections.singletonMap("Custom", Collections.singletonList("cr")));
+        File[] mapped = mapping.apply(new File[] { fragment, other }, folder.newFolder("work"), "project");
+
+        assertEquals("app_cr.json", mapped[0].getName());
+        assertSame(other, mapped[1]);
+        File[] unmapped = new KindFilenameMapping(null).apply(new File[] { fragment }, folder.getRoot(), "project");
+        assertSame(fragment, unmapped[0]);
+    }
+
+    @Test
+    public void typeOnlyFragmentGetsDefaultName() throws Exception {
+        File fragment = folder.newFile("cr.json");
+        Files.write(fragment.toPath(), "{\"spec\":{}}".getBytes(StandardCharsets.UTF_8));
+
+        KindFilenameMapping mapping = new KindFilenameMapping(Collections.singletonMap("Custom", Collections.singletonList("cr")));
+        File[] mapped = mapping.apply(new File[] { fragment }, folder.newFolder("work"), "project");
+
+        assertEquals("cr.json", mapped[0].getName());
+        JsonNode content = new ObjectMapper().readTree(mapped[0]);
+        assertEquals("Custom", content.path("kind").asText());
+        assertEquals("project", content.path("metadata").path("name").asText());
+    }
+
+    @Test
+    public void nameInContentIsKept() throws Exception {
+        File fragment = folder.newFile("app-cr.json");
+        Files.write(fragment.toPath(), "{\"metadata\":{\"name\":\"given\"}}".getBytes(StandardCharsets.UTF_8));
+
+        KindFilenameMapping mapping = new KindFilenameMapping(Collections.singletonMap("Custom", Collections.singletonList("cr")));
+        File[] mapped = mapping.apply(new File[] { fragment }, folder.newFolder("work"), "project");
+
+        assertEquals("given", new ObjectMapper().readTree(mapped[0]).path("metadata").path("name").asText());
+    }
+}
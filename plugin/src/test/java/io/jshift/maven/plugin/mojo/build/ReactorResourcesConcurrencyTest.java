@@ -0,0 +1,158 @@
+/**
+ * Copyright 2016 Red Hat, Inc.
+ *
+ * Red Hat licenses this file to you under the Apache License, version
+ * 2.0 (the "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied.  See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package io.jshift.maven.plugin.mojo.build;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesList;
+import io.jshift.kit.build.service.docker.helper.AnsiLogger;
+import io.jshift.kit.common.KitLogger;
+import io.jshift.kit.common.ResourceFileType;
+import io.jshift.kit.config.resource.PlatformMode;
+import io.jshift.maven.enricher.api.util.KubernetesResourceUtil;
+import io.jshift.maven.plugin.cache.ResourceFragmentCache;
+import io.jshift.maven.plugin.enricher.KindFilenameMapping;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Builds the resources of many synthetic modules like a parallel reactor build does: each module
+ * has its own kind/filename mappings and fragments which are mapped, parsed through the fragment
+ * cache and written. The output of a concurrent build has to be the same as of a serial build.
+ */
+public class ReactorResourcesConcurrencyTest {
+
+    private static final int MODULES = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final KitLogger log = new AnsiLogger(new SystemStreamLog(), false, false, true, "test");
+
+    @Test
+    public void concurrentBuildWritesSameResourcesAsSerialBuild() throws Exception {
+        File serial = folder.newFolder("serial");
+        for (int i = 0; i < MODULES; i++) {
+            buildModule(serial, i, "serial");
+        }
+
+        File concurrent = folder.newFolder("concurrent");
+        ExecutorService executor = Executors.newFixedThreadPool(MODULES);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Void>> builds = new ArrayList<>();
+            for (int i = 0; i < MODULES; i++) {
+                int module = i;
+                builds.add(executor.submit((Callable<Void>) () -> {
+                    start.await();
+                    buildModule(concurrent, module, "concurrent");
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<Void> build : builds) {
+                build.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Path> expected = listOutput(serial);
+        assertEquals(listOutput(concurrent), expected);
+        for (Path file : expected) {
+            assertArrayEquals(file.toString(), Files.readAllBytes(serial.toPath().resolve(file)),
+                              Files.readAllBytes(concurrent.toPath().resolve(file)));
+        }
+        // The mappings of a module don't leak into the others
+        assertTrue(read(serial, "module-0/target/kubernetes.yml").contains("kind: ConfigMap"));
+        assertFalse(read(serial, "module-0/target/kubernetes.yml").contains("kind: Secret"));
+        assertTrue(read(serial, "module-1/target/kubernetes.yml").contains("kind: Secret"));
+        assertFalse(read(serial, "module-1/target/kubernetes.yml").contains("kind: ConfigMap"));
+    }
+
+    // Like ResourceMojo: map, parse through the cache, write. Even modules map the type 'res' to a
+    // ConfigMap, odd ones to a Secret. The context keeps the runs from sharing parsed fragments.
+    private void buildModule(File root, int module, String run) throws Exception {
+        String name = "module-" + module;
+        File projectDir = new File(root, name);
+        File resourceDir = new File(projectDir, "src/main/jshift");
+        File workDir = new File(projectDir, "target/jshift");
+        Files.createDirectories(resourceDir.toPath());
+        write(new File(resourceDir, "res.json"), "{\"metadata\":{\"labels\":{\"module\":\"" + name + "\"}}}");
+        write(new File(resourceDir, "app-res.json"), "{\"metadata\":{\"labels\":{\"module\":\"" + name + "\"}}}");
+        write(new File(resourceDir, "app-svc.json"), "{\"spec\":{\"ports\":[{\"port\":" + (8080 + module) + "}]}}");
+
+        String kind = module % 2 == 0 ? "ConfigMap" : "Secret";
+        KindFilenameMapping mapping = new KindFilenameMapping(Collections.singletonMap(kind, Collections.singletonList("res")));
+        File[] fragments = mapping.apply(KubernetesResourceUtil.listResourceFragments(resourceDir), workDir, name);
+        KubernetesList resources = new ResourceFragmentCache(new File(workDir, "fragments"), log).read(
+            fragments,
+            PlatformMode.kubernetes + "|" + name + "|" + run,
+            fragment -> parse(fragment, name)).build();
+
+        ResourceMojo.writeResourcesIndividualAndComposite(resources, new File(projectDir, "target/kubernetes"),
+                                                          ResourceFileType.yaml, log, true);
+    }
+
+    private static List<HasMetadata> parse(File fragment, String defaultName) throws IOException {
+        return KubernetesResourceUtil.readResourceFragmentsFrom(PlatformMode.kubernetes,
+                                                                KubernetesResourceUtil.DEFAULT_RESOURCE_VERSIONING,
+                                                                defaultName,
+                                                                new File[] { fragment }).build().getItems();
+    }
+
+    // Written resources, relative to the root
+    private static List<Path> listOutput(File root) throws Exception {
+        try (Stream<Path> files = Files.walk(root.toPath())) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".yml"))
+                        .filter(Files::isRegularFile)
+                        .map(path -> root.toPath().relativize(path))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private static String read(File root, String path) throws IOException {
+        return new String(Files.readAllBytes(root.toPath().resolve(path)), StandardCharsets.UTF_8);
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}